@@ -0,0 +1,25 @@
+package org.vaadin.teemu.wizards.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler enabled, so that both the time and
+ * the allocated bytes per operation ({@code gc.alloc.rate.norm}) are reported.
+ * Accepts the usual JMH command line options, for example
+ * {@code java -jar benchmarks.jar ProgressBar -p stepCount=1000}.
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException,
+            CommandLineOptionException {
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        new Runner(new OptionsBuilder().parent(commandLineOptions)
+                .addProfiler(GCProfiler.class).build()).run();
+    }
+
+}
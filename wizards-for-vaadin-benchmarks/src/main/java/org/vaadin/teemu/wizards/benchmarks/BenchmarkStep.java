@@ -0,0 +1,43 @@
+package org.vaadin.teemu.wizards.benchmarks;
+
+import java.io.Serializable;
+
+import org.vaadin.teemu.wizards.WizardStep;
+
+import com.vaadin.ui.Component;
+import com.vaadin.ui.Label;
+
+/**
+ * Minimal {@link WizardStep} that always allows navigation and returns the
+ * same content on every call, so that the benchmarks measure the cost of the
+ * wizard itself instead of the content creation. Serializable, so that the
+ * wizards using it can be serialized.
+ */
+@SuppressWarnings("serial")
+public class BenchmarkStep implements WizardStep, Serializable {
+
+    private final String caption;
+    private final Label content;
+
+    public BenchmarkStep(int index) {
+        caption = "Step " + index;
+        content = new Label(caption);
+    }
+
+    public String getCaption() {
+        return caption;
+    }
+
+    public Component getContent() {
+        return content;
+    }
+
+    public boolean onAdvance() {
+        return true;
+    }
+
+    public boolean onBack() {
+        return true;
+    }
+
+}
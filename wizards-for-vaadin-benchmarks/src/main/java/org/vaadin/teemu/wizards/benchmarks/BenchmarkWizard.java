@@ -0,0 +1,37 @@
+package org.vaadin.teemu.wizards.benchmarks;
+
+import org.vaadin.teemu.wizards.Wizard;
+import org.vaadin.teemu.wizards.WizardStep;
+
+/**
+ * {@link Wizard} exposing the protected navigation methods to the benchmarks.
+ */
+@SuppressWarnings("serial")
+public class BenchmarkWizard extends Wizard {
+
+    /**
+     * Creates a wizard with the given number of {@link BenchmarkStep}s using
+     * the identifiers {@code step-0}, {@code step-1} and so on.
+     */
+    public BenchmarkWizard(int stepCount) {
+        beginUpdate();
+        try {
+            for (int i = 0; i < stepCount; i++) {
+                addStep(new BenchmarkStep(i), "step-" + i);
+            }
+        } finally {
+            endUpdate();
+        }
+    }
+
+    @Override
+    public void activateStep(String id) {
+        super.activateStep(id);
+    }
+
+    @Override
+    public void activateStep(WizardStep step) {
+        super.activateStep(step);
+    }
+
+}
@@ -0,0 +1,104 @@
+package org.vaadin.teemu.wizards.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.vaadin.teemu.wizards.CompactWizardProgressBar;
+import org.vaadin.teemu.wizards.WindowedWizardProgressBar;
+import org.vaadin.teemu.wizards.event.WizardProgressListener;
+import org.vaadin.teemu.wizards.event.WizardStepActivationEvent;
+import org.vaadin.teemu.wizards.event.WizardStepSetChangedEvent;
+
+/**
+ * Measures the cost of refreshing the progress headers of the
+ * {@link org.vaadin.teemu.wizards.Wizard}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ProgressBarBenchmark {
+
+    @Param({ "5", "100", "1000", "10000" })
+    public int stepCount;
+
+    /**
+     * The progress header: {@code default} for the WizardProgressBar,
+     * {@code windowed} for the WindowedWizardProgressBar, {@code compact} for
+     * the CompactWizardProgressBar.
+     */
+    @Param({ "default", "windowed", "compact" })
+    public String header;
+
+    private BenchmarkWizard wizard;
+    private WizardProgressListener progressBar;
+    private WizardStepActivationEvent firstActivated;
+    private WizardStepActivationEvent lastActivated;
+    private WizardStepSetChangedEvent stepSetChanged;
+
+    @Setup
+    public void setup() {
+        wizard = new BenchmarkWizard(stepCount);
+        progressBar = (WizardProgressListener) wizard.getHeader();
+        if ("windowed".equals(header)) {
+            wizard.removeListener(progressBar);
+            WindowedWizardProgressBar windowed = new WindowedWizardProgressBar(
+                    wizard);
+            wizard.addListener(windowed);
+            wizard.setHeader(windowed);
+            progressBar = windowed;
+        } else if ("compact".equals(header)) {
+            wizard.removeListener(progressBar);
+            CompactWizardProgressBar compact = new CompactWizardProgressBar(
+                    wizard);
+            wizard.addListener(compact);
+            wizard.setHeader(compact);
+            progressBar = compact;
+        }
+        firstActivated = new WizardStepActivationEvent(wizard, wizard
+                .getSteps().get(0));
+        lastActivated = new WizardStepActivationEvent(wizard, wizard
+                .getSteps().get(stepCount - 1));
+        stepSetChanged = new WizardStepSetChangedEvent(wizard);
+    }
+
+    /**
+     * Refreshes the header as if the active step had moved from the first to
+     * the last step and back.
+     */
+    @Benchmark
+    public void activeStepChanged() {
+        progressBar.activeStepChanged(lastActivated);
+        progressBar.activeStepChanged(firstActivated);
+    }
+
+    /**
+     * Refreshes the header after an (empty) change of the steps.
+     */
+    @Benchmark
+    public void stepSetChanged() {
+        progressBar.stepSetChanged(stepSetChanged);
+    }
+
+    /**
+     * Navigates forward and back with the header registered as a listener.
+     */
+    @Benchmark
+    public void nextAndBack() {
+        wizard.next();
+        wizard.back();
+    }
+
+}
@@ -0,0 +1,71 @@
+package org.vaadin.teemu.wizards.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.vaadin.teemu.wizards.WizardModel;
+
+/**
+ * Measures the navigation transitions of the headless {@link WizardModel}
+ * without any Vaadin components, reported as transitions per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WizardModelBenchmark {
+
+    @Param({ "5", "100", "1000", "10000" })
+    public int stepCount;
+
+    private WizardModel model;
+    private String firstId;
+    private String lastId;
+
+    @Setup
+    public void setup() {
+        model = new WizardModel();
+        for (int i = 0; i < stepCount; i++) {
+            model.addStep(new BenchmarkStep(i), "step-" + i);
+        }
+        firstId = "step-0";
+        lastId = "step-" + (stepCount - 1);
+
+        // complete all the steps and return to the first one, so that
+        // jumping with the identifiers is allowed
+        model.moveTo(model.getStep(stepCount - 1));
+        model.moveTo(model.getStep(0));
+    }
+
+    @Benchmark
+    public boolean next() {
+        if (!model.next()) {
+            // start over from the first step
+            model.moveTo(model.getStep(0));
+        }
+        return true;
+    }
+
+    @Benchmark
+    public boolean nextAndBack() {
+        return model.next() & model.back();
+    }
+
+    @Benchmark
+    public boolean navigateById() {
+        return model.navigateTo(lastId) & model.navigateTo(firstId);
+    }
+
+}
@@ -0,0 +1,94 @@
+package org.vaadin.teemu.wizards.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.vaadin.teemu.wizards.WizardStep;
+
+/**
+ * Measures the step management and navigation operations of the
+ * {@link org.vaadin.teemu.wizards.Wizard} with the default header.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WizardNavigationBenchmark {
+
+    @Param({ "5", "100", "1000", "10000" })
+    public int stepCount;
+
+    private BenchmarkWizard wizard;
+    private WizardStep middleStep;
+    private int middleIndex;
+    private String firstId;
+    private String lastId;
+
+    @Setup
+    public void setup() {
+        wizard = new BenchmarkWizard(stepCount);
+        middleIndex = stepCount / 2;
+        middleStep = wizard.getSteps().get(middleIndex);
+        firstId = "step-0";
+        lastId = "step-" + (stepCount - 1);
+
+        // complete all the steps and return to the first one, so that
+        // jumping with the identifiers is allowed
+        wizard.activateStep(wizard.getSteps().get(stepCount - 1));
+        wizard.activateStep(wizard.getSteps().get(0));
+    }
+
+    /**
+     * Appends a new step and removes it again.
+     */
+    @Benchmark
+    public void addStep() {
+        WizardStep step = new BenchmarkStep(stepCount);
+        wizard.addStep(step, "added");
+        wizard.removeStep(step);
+    }
+
+    /**
+     * Removes the step in the middle and inserts it back to its position.
+     */
+    @Benchmark
+    public void removeStep() {
+        String id = "step-" + middleIndex;
+        wizard.removeStep(id);
+        wizard.insertStep(middleIndex, middleStep, id);
+    }
+
+    /**
+     * Builds a new wizard with all the steps.
+     */
+    @Benchmark
+    public void buildWizard(Blackhole blackhole) {
+        blackhole.consume(new BenchmarkWizard(stepCount));
+    }
+
+    @Benchmark
+    public void nextAndBack() {
+        wizard.next();
+        wizard.back();
+    }
+
+    @Benchmark
+    public void activateStepById() {
+        wizard.activateStep(lastId);
+        wizard.activateStep(firstId);
+    }
+
+}
@@ -75,6 +75,12 @@ public class LastStep implements WizardStep {
         return layout;
     }
 
+    public void releaseContent() {
+        // the layout is created again when this step is displayed next time
+        layout = null;
+        allowBack = null;
+    }
+
     public boolean onAdvance() {
         return true;
     }
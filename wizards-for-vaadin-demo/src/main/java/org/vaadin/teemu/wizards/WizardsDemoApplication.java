@@ -73,7 +73,8 @@ public class WizardsDemoApplication extends UI implements
     }
 
     private void endWizard(String message) {
-        wizard.setVisible(false);
+        // the removed wizard releases its listeners and step contents
+        mainLayout.removeComponent(wizard);
         Notification.show(message);
         Page.getCurrent().setTitle(message);
         Button startOverButton = new Button("Run the demo again",
@@ -0,0 +1,198 @@
+package org.vaadin.teemu.wizards.loadtest;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.vaadin.teemu.wizards.metrics.LatencyHistogram;
+
+import com.vaadin.server.DefaultDeploymentConfiguration;
+import com.vaadin.server.VaadinRequest;
+import com.vaadin.server.VaadinService;
+
+/**
+ * Measures how the demo application behaves as the number of concurrent
+ * sessions grows. For each session count, that many simulated users go
+ * through the demo wizard in parallel on a fixed thread pool, one request of
+ * every user at a time, so that all the sessions are alive at the same time.
+ *
+ * <p>
+ * For each session count the retained heap per session (measured after a
+ * full GC while all the sessions are on their last step), the request latency
+ * percentiles and the throughput are reported. The percentiles are the upper
+ * bounds of the {@link LatencyHistogram} buckets, so they are accurate within
+ * a factor of two. The heap growth of small session counts is within the
+ * noise of the garbage collector, so the retained heap is reported as n/a when
+ * the sessions grow the heap by less than {@value #HEAP_NOISE_BYTES} bytes.
+ * </p>
+ *
+ * <p>
+ * Usage: {@code java -jar loadtest.jar [sessionCounts] [threads]}, for
+ * example {@code java -Xmx4g -jar loadtest.jar 10,100,1000 8}.
+ * </p>
+ */
+public class LoadTestRunner {
+
+    private static final String DEFAULT_SESSION_COUNTS = "1,10,100,1000,5000";
+    private static final int WARMUP_SESSIONS = 200;
+    private static final long HEAP_NOISE_BYTES = 1024 * 1024;
+
+    private final VaadinService service;
+    private final VaadinRequest request;
+    private final ExecutorService executor;
+
+    LoadTestRunner(int threads) {
+        service = mock(VaadinService.class, withSettings().stubOnly());
+        Properties initParameters = new Properties();
+        initParameters.setProperty("productionMode", "true");
+        when(service.getDeploymentConfiguration()).thenReturn(
+                new DefaultDeploymentConfiguration(LoadTestRunner.class,
+                        initParameters));
+
+        request = mock(VaadinRequest.class, withSettings().stubOnly());
+        when(request.getParameter("v-loc")).thenReturn(
+                "http://localhost:8080/");
+        when(request.getParameter("v-cw")).thenReturn("1280");
+        when(request.getParameter("v-ch")).thenReturn("800");
+        when(request.getParameter("v-wn")).thenReturn("loadtest");
+
+        executor = Executors.newFixedThreadPool(threads);
+    }
+
+    public static void main(String[] args) throws Exception {
+        String sessionCounts = args.length > 0 ? args[0]
+                : DEFAULT_SESSION_COUNTS;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime
+                .getRuntime().availableProcessors();
+
+        LoadTestRunner runner = new LoadTestRunner(threads);
+        try {
+            runner.run(WARMUP_SESSIONS);
+
+            System.out.println(String.format("%8s %8s %9s %10s %8s %8s %8s %8s %12s %12s",
+                    "sessions", "threads", "requests", "req/s", "p50 ms",
+                    "p95 ms", "p99 ms", "max ms", "heap/sess KB",
+                    "resp/sess KB"));
+            for (String sessionCount : sessionCounts.split(",")) {
+                LoadTestResult result = runner.run(Integer
+                        .parseInt(sessionCount.trim()));
+                System.out.println(String.format(
+                        "%8d %8d %9d %10.0f %8.2f %8.2f %8.2f %8.2f %12s %12.1f",
+                        result.sessions, threads,
+                        result.latencies.getCount(), result.getThroughput(),
+                        millis(result.latencies.getPercentileNanos(50)),
+                        millis(result.latencies.getPercentileNanos(95)),
+                        millis(result.latencies.getPercentileNanos(99)),
+                        millis(result.latencies.getMaxNanos()),
+                        formatHeapPerSession(result.heapPerSession),
+                        result.responseLengthPerSession / 1024.0));
+            }
+        } finally {
+            runner.executor.shutdown();
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static String formatHeapPerSession(long heapPerSession) {
+        if (heapPerSession < 0) {
+            return "n/a";
+        }
+        return String.format("%.1f", heapPerSession / 1024.0);
+    }
+
+    LoadTestResult run(int sessions) throws InterruptedException,
+            ExecutionException {
+        LoadTestResult result = new LoadTestResult(sessions);
+        long heapBefore = usedHeap();
+
+        SimulatedUser[] users = new SimulatedUser[sessions];
+        for (int i = 0; i < sessions; i++) {
+            users[i] = new SimulatedUser(service, request, result.latencies);
+        }
+        long start = System.nanoTime();
+        for (int request = 0; request < SimulatedUser.NAVIGATION_REQUESTS; request++) {
+            runRound(users, request);
+        }
+        result.elapsedNanos = System.nanoTime() - start;
+
+        // all the sessions are alive on their last step
+        long heapGrowth = usedHeap() - heapBefore;
+        result.heapPerSession = heapGrowth < HEAP_NOISE_BYTES ? -1
+                : heapGrowth / sessions;
+
+        start = System.nanoTime();
+        runRound(users, -1);
+        result.elapsedNanos += System.nanoTime() - start;
+
+        long responseLength = 0;
+        for (SimulatedUser user : users) {
+            responseLength += user.getResponseLength();
+        }
+        result.responseLengthPerSession = responseLength / sessions;
+        return result;
+    }
+
+    /**
+     * Performs the request with the given index for every user in parallel
+     * and waits until they are done. A negative index finishes the wizards.
+     */
+    private void runRound(SimulatedUser[] users, final int request)
+            throws InterruptedException, ExecutionException {
+        List<Future<?>> futures = new ArrayList<Future<?>>(users.length);
+        for (final SimulatedUser user : users) {
+            futures.add(executor.submit(new Runnable() {
+                public void run() {
+                    if (request < 0) {
+                        user.finish();
+                    } else {
+                        user.performRequest(request);
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * The measurements of one session count.
+     */
+    static class LoadTestResult {
+        final int sessions;
+        final LatencyHistogram latencies = new LatencyHistogram();
+        long elapsedNanos;
+        /** The retained heap per session, or -1 if below the noise. */
+        long heapPerSession;
+        long responseLengthPerSession;
+
+        LoadTestResult(int sessions) {
+            this.sessions = sessions;
+        }
+
+        double getThroughput() {
+            return latencies.getCount() / (elapsedNanos / 1e9);
+        }
+    }
+
+}
@@ -0,0 +1,48 @@
+package org.vaadin.teemu.wizards.loadtest;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.vaadin.server.VaadinService;
+import com.vaadin.server.VaadinSession;
+
+/**
+ * {@link VaadinSession} that is not stored in an HTTP session. The session
+ * has a lock of its own instead of the lock of the wrapped HTTP session, and
+ * the {@link #access(Runnable)} tasks are run immediately instead of being
+ * queued for the next request.
+ */
+@SuppressWarnings("serial")
+class SimulatedSession extends VaadinSession {
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    SimulatedSession(VaadinService service) {
+        super(service);
+    }
+
+    @Override
+    public Lock getLockInstance() {
+        return lock;
+    }
+
+    @Override
+    public void unlock() {
+        // there are no pending access tasks or push connections to handle
+        lock.unlock();
+    }
+
+    @Override
+    public Future<Void> access(Runnable runnable) {
+        lock.lock();
+        try {
+            runnable.run();
+        } finally {
+            lock.unlock();
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+}
@@ -0,0 +1,185 @@
+package org.vaadin.teemu.wizards.loadtest;
+
+import org.vaadin.teemu.wizards.Wizard;
+import org.vaadin.teemu.wizards.WizardsDemoApplication;
+import org.vaadin.teemu.wizards.metrics.LatencyHistogram;
+
+import com.vaadin.server.ClientConnector;
+import com.vaadin.server.VaadinRequest;
+import com.vaadin.server.VaadinService;
+import com.vaadin.server.VaadinSession;
+import com.vaadin.ui.Button;
+import com.vaadin.ui.Component;
+import com.vaadin.ui.ConnectorTracker;
+import com.vaadin.ui.HasComponents;
+import com.vaadin.ui.UI;
+
+/**
+ * A user going through the {@link WizardsDemoApplication} in a session of its
+ * own. Each request locks the session, performs the action through the
+ * components like a client request would, and encodes the changed shared
+ * state as a response would.
+ */
+class SimulatedUser {
+
+    /**
+     * The number of requests from opening the UI to the last generated step,
+     * see {@link #performRequest(int)}.
+     */
+    static final int NAVIGATION_REQUESTS = 10;
+
+    private final SimulatedSession session;
+    private final VaadinRequest request;
+    private final LatencyHistogram latencies;
+    private UI ui;
+    private Wizard wizard;
+    private long responseLength;
+
+    SimulatedUser(VaadinService service, VaadinRequest request,
+            LatencyHistogram latencies) {
+        session = new SimulatedSession(service);
+        this.request = request;
+        this.latencies = latencies;
+    }
+
+    /**
+     * Performs the request with the given index: opening the UI, going
+     * through the intro, setup and listen steps to the last step, adding two
+     * generated steps and moving between them.
+     */
+    void performRequest(int index) {
+        switch (index) {
+        case 0:
+            request(new Runnable() {
+                public void run() {
+                    openUI();
+                }
+            });
+            break;
+        case 4:
+        case 5:
+            clickButton("Add new steps");
+            break;
+        case 8:
+            click(wizard.getBackButton());
+            break;
+        default:
+            click(wizard.getNextButton());
+            break;
+        }
+    }
+
+    /**
+     * Completes the wizard on the last step.
+     * 
+     * @throws IllegalStateException
+     *             if the wizard was not completed, meaning that the flow did
+     *             not go as expected.
+     */
+    void finish() {
+        click(wizard.getFinishButton());
+        if (wizard.isAttached()) {
+            // the demo removes the wizard when it's completed
+            throw new IllegalStateException("The wizard was not completed.");
+        }
+    }
+
+    long getResponseLength() {
+        return responseLength;
+    }
+
+    private void openUI() {
+        ui = new WizardsDemoApplication();
+        ui.setSession(session);
+        UI.setCurrent(ui);
+        ui.doInit(request, session.getNextUIid(), null);
+        session.addUI(ui);
+        wizard = find(ui, Wizard.class);
+    }
+
+    private void clickButton(final String caption) {
+        request(new Runnable() {
+            public void run() {
+                findButton(ui, caption).click();
+            }
+        });
+    }
+
+    private void click(final Button button) {
+        request(new Runnable() {
+            public void run() {
+                button.click();
+            }
+        });
+    }
+
+    private void request(Runnable action) {
+        long start = System.nanoTime();
+        session.lock();
+        try {
+            VaadinSession.setCurrent(session);
+            UI.setCurrent(ui);
+            action.run();
+            writeResponse();
+        } finally {
+            UI.setCurrent(null);
+            VaadinSession.setCurrent(null);
+            session.unlock();
+        }
+        latencies.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Encodes the shared state of the changed connectors and marks them clean
+     * like the UIDL response does.
+     */
+    private void writeResponse() {
+        ConnectorTracker tracker = ui.getConnectorTracker();
+        tracker.setWritingResponse(true);
+        try {
+            for (ClientConnector connector : tracker
+                    .getDirtyVisibleConnectors()) {
+                boolean initial = !tracker.isClientSideInitialized(connector);
+                connector.beforeClientResponse(initial);
+                responseLength += connector.encodeState().toJson().length();
+                tracker.markClientSideInitialized(connector);
+            }
+            tracker.markAllConnectorsClean();
+        } finally {
+            tracker.setWritingResponse(false);
+        }
+        tracker.cleanConnectorMap();
+    }
+
+    private static Button findButton(HasComponents parent, String caption) {
+        for (Component child : parent) {
+            if (child instanceof Button && caption.equals(child.getCaption())) {
+                return (Button) child;
+            }
+            if (child instanceof HasComponents) {
+                Button button = findButton((HasComponents) child, caption);
+                if (button != null) {
+                    return button;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static <T extends Component> T find(HasComponents parent,
+            Class<T> type) {
+        for (Component child : parent) {
+            if (type.isInstance(child)) {
+                return type.cast(child);
+            }
+            if (child instanceof HasComponents) {
+                T found = find((HasComponents) child, type);
+                if (found != null) {
+                    return found;
+                }
+            }
+        }
+        return null;
+    }
+
+}
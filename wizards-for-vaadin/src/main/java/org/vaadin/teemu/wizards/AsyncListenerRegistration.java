@@ -0,0 +1,37 @@
+package org.vaadin.teemu.wizards;
+
+import org.vaadin.teemu.wizards.event.AsyncWizardListener;
+
+import com.vaadin.shared.Registration;
+
+/**
+ * {@link Registration} of an {@link AsyncWizardListener} that also exposes
+ * the state of the queue of the listener, for example for monitoring. The
+ * counters are updated from several threads, so the values are only
+ * approximate when read while events are being fired.
+ */
+public interface AsyncListenerRegistration extends Registration {
+
+    /**
+     * Returns the number of events waiting to be delivered.
+     * 
+     * @return the current queue depth.
+     */
+    int getQueueDepth();
+
+    /**
+     * Returns the number of events dropped or replaced by a newer event
+     * because the queue was full.
+     * 
+     * @return the number of events that will never be delivered.
+     */
+    long getDroppedCount();
+
+    /**
+     * Returns the number of events delivered to the listener.
+     * 
+     * @return the number of delivered events.
+     */
+    long getDeliveredCount();
+
+}
@@ -0,0 +1,282 @@
+package org.vaadin.teemu.wizards;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.ListIterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.vaadin.teemu.wizards.event.AsyncWizardListener;
+import org.vaadin.teemu.wizards.event.WizardEventSnapshot;
+
+/**
+ * Keeps track of the {@link AsyncWizardListener}s of a {@link Wizard}. Each
+ * listener has a bounded queue of its own that is drained by at most one task
+ * of the executor at a time, so the listener receives the events one at a
+ * time in the order they were fired.
+ */
+@SuppressWarnings("serial")
+class AsyncListenerRegistry implements Serializable {
+
+    private static final ListenerQueue[] NO_QUEUES = new ListenerQueue[0];
+    // how long a BLOCK listener may hold up the firing thread per event
+    private static final long BLOCK_TIMEOUT_MILLIS = 10000;
+
+    private ListenerQueue[] queues = NO_QUEUES;
+    private transient Executor executor;
+
+    AsyncListenerRegistration add(AsyncWizardListener listener, int capacity,
+            WizardListenerBackpressure backpressure) {
+        if (listener == null || backpressure == null) {
+            throw new IllegalArgumentException(
+                    "listener and backpressure must not be null");
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException(
+                    "The queue capacity must be at least one.");
+        }
+        ListenerQueue queue = new ListenerQueue(listener, capacity,
+                backpressure);
+        ListenerQueue[] newQueues = Arrays.copyOf(queues, queues.length + 1);
+        newQueues[queues.length] = queue;
+        queues = newQueues;
+        return queue;
+    }
+
+    private void remove(ListenerQueue queue) {
+        ListenerQueue[] newQueues = new ListenerQueue[queues.length];
+        int size = 0;
+        for (ListenerQueue existing : queues) {
+            if (existing != queue) {
+                newQueues[size++] = existing;
+            }
+        }
+        queues = size == 0 ? NO_QUEUES : Arrays.copyOf(newQueues, size);
+    }
+
+    int size() {
+        return queues.length;
+    }
+
+    void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Queues the given event for all the registered listeners.
+     */
+    void fire(WizardEventSnapshot event) {
+        for (ListenerQueue queue : queues) {
+            queue.offer(event);
+        }
+    }
+
+    /**
+     * The queue of a single listener. All the fields are guarded by this.
+     */
+    private final class ListenerQueue implements AsyncListenerRegistration,
+            Serializable {
+
+        private final AsyncWizardListener listener;
+        private final int capacity;
+        private final WizardListenerBackpressure backpressure;
+        // the queued events are not serialized
+        private transient LinkedList<WizardEventSnapshot> events;
+        private transient boolean draining;
+        private boolean removed;
+        private long dropped;
+        private long delivered;
+
+        ListenerQueue(AsyncWizardListener listener, int capacity,
+                WizardListenerBackpressure backpressure) {
+            this.listener = listener;
+            this.capacity = capacity;
+            this.backpressure = backpressure;
+        }
+
+        void offer(WizardEventSnapshot event) {
+            synchronized (this) {
+                if (removed || !enqueue(event) || draining) {
+                    return;
+                }
+                draining = true;
+            }
+            scheduleDrain();
+        }
+
+        /**
+         * Queues the given event, making room for it according to the
+         * backpressure policy if the queue is full.
+         * 
+         * @return {@code false} if the event was dropped.
+         */
+        private boolean enqueue(WizardEventSnapshot event) {
+            LinkedList<WizardEventSnapshot> queued = getEvents();
+            if (queued.size() >= capacity) {
+                if (backpressure == WizardListenerBackpressure.COALESCE
+                        && coalesce(queued, event)) {
+                    dropped++;
+                    return true;
+                }
+                if (backpressure == WizardListenerBackpressure.BLOCK) {
+                    if (!awaitRoom()) {
+                        if (!removed) {
+                            dropped++;
+                        }
+                        return false;
+                    }
+                } else {
+                    queued.removeFirst();
+                    dropped++;
+                }
+            }
+            queued.addLast(event);
+            return true;
+        }
+
+        /**
+         * Replaces the latest queued event of the same type as the given
+         * event with it, keeping the position of the replaced event.
+         * 
+         * @return {@code false} if there is no event of the same type.
+         */
+        private boolean coalesce(LinkedList<WizardEventSnapshot> queued,
+                WizardEventSnapshot event) {
+            for (ListIterator<WizardEventSnapshot> it = queued
+                    .listIterator(queued.size()); it.hasPrevious();) {
+                if (it.previous().getType() == event.getType()) {
+                    it.set(event);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Waits until there is room in the queue, at most ten seconds. Starts
+         * draining the queue first if no drain is running, for example
+         * because scheduling one failed earlier.
+         * 
+         * @return {@code false} if there is still no room.
+         */
+        private boolean awaitRoom() {
+            long deadline = System.nanoTime()
+                    + TimeUnit.MILLISECONDS.toNanos(BLOCK_TIMEOUT_MILLIS);
+            try {
+                while (getEvents().size() >= capacity && !removed) {
+                    if (!draining) {
+                        draining = true;
+                        if (!scheduleDrain()) {
+                            return false;
+                        }
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        getLogger().warning(
+                                "Asynchronous wizard listener is too slow, "
+                                        + "dropping an event.");
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            return !removed;
+        }
+
+        /**
+         * Hands the draining of the queue to the executor. Called after
+         * setting {@code draining}, which is cleared again if the executor
+         * rejects the drain.
+         * 
+         * @return {@code false} if the drain could not be scheduled.
+         */
+        private boolean scheduleDrain() {
+            Executor drainExecutor = executor != null ? executor
+                    : TaskExecutors.getDefault();
+            try {
+                drainExecutor.execute(new Runnable() {
+                    public void run() {
+                        drain();
+                    }
+                });
+                return true;
+            } catch (RuntimeException e) {
+                // keep the events, the next event retries the scheduling
+                synchronized (this) {
+                    draining = false;
+                }
+                getLogger().log(Level.WARNING,
+                        "Scheduling the delivery of wizard events failed.", e);
+                return false;
+            }
+        }
+
+        private void drain() {
+            while (true) {
+                WizardEventSnapshot event;
+                synchronized (this) {
+                    event = removed ? null : getEvents().pollFirst();
+                    if (event == null) {
+                        draining = false;
+                        return;
+                    }
+                    // wake up a thread waiting for room
+                    notifyAll();
+                }
+                try {
+                    listener.wizardEvent(event);
+                } catch (RuntimeException e) {
+                    getLogger().log(Level.WARNING,
+                            "Asynchronous wizard listener failed.", e);
+                }
+                synchronized (this) {
+                    delivered++;
+                }
+            }
+        }
+
+        private LinkedList<WizardEventSnapshot> getEvents() {
+            if (events == null) {
+                events = new LinkedList<WizardEventSnapshot>();
+            }
+            return events;
+        }
+
+        public void remove() {
+            synchronized (this) {
+                removed = true;
+                getEvents().clear();
+                notifyAll();
+            }
+            AsyncListenerRegistry.this.remove(this);
+        }
+
+        public synchronized int getQueueDepth() {
+            return getEvents().size();
+        }
+
+        public synchronized long getDroppedCount() {
+            return dropped;
+        }
+
+        public synchronized long getDeliveredCount() {
+            return delivered;
+        }
+
+    }
+
+    private static Logger getLogger() {
+        return Logger.getLogger(AsyncListenerRegistry.class.getName());
+    }
+
+}
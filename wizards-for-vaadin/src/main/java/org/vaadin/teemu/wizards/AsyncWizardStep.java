@@ -0,0 +1,48 @@
+package org.vaadin.teemu.wizards;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * A {@link WizardStep} that decides asynchronously whether the user is allowed
+ * to navigate away from it. This is useful when the decision requires calling
+ * a backend service, as the request thread and the session lock are not held
+ * while waiting for the result.
+ * 
+ * <p>
+ * While the result is pending the {@link Wizard} disables its navigation
+ * buttons. When the result is available, the navigation is completed under
+ * the session lock using {@link com.vaadin.ui.UI#access(Runnable)}. Enable
+ * server push for the UI to display the result without waiting for the next
+ * request from the client.
+ * </p>
+ * 
+ * <p>
+ * The synchronous {@link #onAdvance()} and {@link #onBack()} methods are not
+ * called by the {@link Wizard} for steps implementing this interface.
+ * </p>
+ */
+public interface AsyncWizardStep extends WizardStep {
+
+    /**
+     * Returns a {@link CompletionStage} that completes with {@code true} if
+     * user is allowed to navigate forward past this WizardStep. Typically this
+     * method is called when user clicks the Next or Finish button of the
+     * {@link Wizard}. An exceptionally completed stage is handled as a denial.
+     * 
+     * @return a {@link CompletionStage} completing with {@code true} if user
+     *         is allowed to navigate past this WizardStep.
+     */
+    public CompletionStage<Boolean> onAdvanceAsync();
+
+    /**
+     * Returns a {@link CompletionStage} that completes with {@code true} if
+     * user is allowed to navigate backwards from this WizardStep. Typically
+     * this method is called when user clicks the Back button of the
+     * {@link Wizard}. An exceptionally completed stage is handled as a denial.
+     * 
+     * @return a {@link CompletionStage} completing with {@code true} if user
+     *         is allowed to navigate backwards from this WizardStep.
+     */
+    public CompletionStage<Boolean> onBackAsync();
+
+}
@@ -0,0 +1,88 @@
+package org.vaadin.teemu.wizards;
+
+import org.vaadin.teemu.wizards.client.WizardProgressState;
+import org.vaadin.teemu.wizards.event.WizardCancelledEvent;
+import org.vaadin.teemu.wizards.event.WizardCompletedEvent;
+import org.vaadin.teemu.wizards.event.WizardProgressListener;
+import org.vaadin.teemu.wizards.event.WizardStepActivationEvent;
+import org.vaadin.teemu.wizards.event.WizardStepSetChangedEvent;
+import org.vaadin.teemu.wizards.event.WizardStepTaskEvent;
+import org.vaadin.teemu.wizards.event.WizardStepTaskListener;
+
+import com.vaadin.annotations.StyleSheet;
+import com.vaadin.ui.AbstractComponent;
+
+/**
+ * Displays the progress of a {@link Wizard} like the {@link WizardProgressBar}
+ * but as a single component. Only the captions of the steps and the indices
+ * of the current and the furthest completed step are sent to the client,
+ * which renders the captions and the progress bar in one pass. The rendered
+ * elements have the same style names as the components of the
+ * {@link WizardProgressBar}, so the same styles apply.
+ *
+ * <p>
+ * Requires the {@code org.vaadin.teemu.wizards.WizardsWidgetset} to be
+ * included in the widgetset of the application.
+ * </p>
+ */
+@SuppressWarnings("serial")
+@StyleSheet("wizard-progress-bar.css")
+public class CompactWizardProgressBar extends AbstractComponent implements
+        WizardProgressListener, WizardStepTaskListener {
+
+    private final Wizard wizard;
+
+    public CompactWizardProgressBar(Wizard wizard) {
+        this.wizard = wizard;
+        setPrimaryStyleName("wizard-progress-bar");
+        setWidth("100%");
+        update();
+    }
+
+    @Override
+    protected WizardProgressState getState() {
+        return (WizardProgressState) super.getState();
+    }
+
+    @Override
+    protected WizardProgressState getState(boolean markAsDirty) {
+        return (WizardProgressState) super.getState(markAsDirty);
+    }
+
+    private void update() {
+        if (WizardProgressStates.update(wizard.getModel(), getState(false))) {
+            markAsDirty();
+        }
+    }
+
+    @Override
+    public void activeStepChanged(WizardStepActivationEvent event) {
+        update();
+    }
+
+    @Override
+    public void stepSetChanged(WizardStepSetChangedEvent event) {
+        update();
+    }
+
+    @Override
+    public void wizardCompleted(WizardCompletedEvent event) {
+        if (!getState(false).finished) {
+            getState().finished = true;
+        }
+    }
+
+    @Override
+    public void wizardCancelled(WizardCancelledEvent event) {
+        // NOP, no need to react to cancellation
+    }
+
+    @Override
+    public void stepTaskProgress(WizardStepTaskEvent event) {
+        float taskProgress = event.isRunning() ? event.getProgress() : -1;
+        if (taskProgress != getState(false).taskProgress) {
+            getState().taskProgress = taskProgress;
+        }
+    }
+
+}
@@ -0,0 +1,55 @@
+package org.vaadin.teemu.wizards;
+
+import org.vaadin.teemu.wizards.tracing.NavigationOutcome;
+import org.vaadin.teemu.wizards.tracing.NavigationPhase;
+import org.vaadin.teemu.wizards.tracing.NavigationSpan;
+
+/**
+ * Drives the {@link NavigationSpan} of a single navigation of a
+ * {@link Wizard}. Starting a phase ends the running one, and ending the
+ * navigation ends the running phase, so the span always receives the phases
+ * in pairs even if the navigation fails in the middle of a phase.
+ */
+final class NavigationTrace {
+
+    /**
+     * A trace of a navigation that is not traced.
+     */
+    static final NavigationTrace NONE = new NavigationTrace(
+            NavigationSpan.NONE);
+
+    private final NavigationSpan span;
+    private NavigationPhase phase;
+    private boolean ended;
+
+    NavigationTrace(NavigationSpan span) {
+        this.span = span;
+    }
+
+    void phase(NavigationPhase next) {
+        if (span == NavigationSpan.NONE) {
+            return;
+        }
+        endPhase();
+        phase = next;
+        span.phaseStarted(next);
+    }
+
+    void end(NavigationOutcome outcome) {
+        if (span == NavigationSpan.NONE || ended) {
+            return;
+        }
+        ended = true;
+        endPhase();
+        span.end(outcome);
+    }
+
+    private void endPhase() {
+        if (phase != null) {
+            NavigationPhase ended = phase;
+            phase = null;
+            span.phaseEnded(ended);
+        }
+    }
+
+}
@@ -0,0 +1,111 @@
+package org.vaadin.teemu.wizards;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import org.vaadin.teemu.wizards.event.AbstractWizardEvent;
+import org.vaadin.teemu.wizards.event.WizardCancelledEvent;
+import org.vaadin.teemu.wizards.event.WizardCompletedEvent;
+import org.vaadin.teemu.wizards.event.WizardProgressListener;
+import org.vaadin.teemu.wizards.event.WizardStepActivationEvent;
+import org.vaadin.teemu.wizards.event.WizardStepSetChangedEvent;
+import org.vaadin.teemu.wizards.event.WizardStepTaskEvent;
+import org.vaadin.teemu.wizards.event.WizardStepTaskListener;
+
+import com.vaadin.shared.Registration;
+
+/**
+ * Keeps track of the {@link WizardProgressListener}s of a {@link Wizard} and
+ * dispatches the events to them with direct method calls. The listeners are
+ * stored in a copy-on-write array, so listeners can be added and removed while
+ * an event is being dispatched.
+ */
+@SuppressWarnings("serial")
+class ProgressListenerRegistry implements Serializable {
+
+    private static final WizardProgressListener[] NO_LISTENERS = new WizardProgressListener[0];
+
+    private WizardProgressListener[] listeners = NO_LISTENERS;
+
+    Registration add(final WizardProgressListener listener) {
+        if (indexOf(listener) < 0) {
+            WizardProgressListener[] newListeners = Arrays.copyOf(listeners,
+                    listeners.length + 1);
+            newListeners[listeners.length] = listener;
+            listeners = newListeners;
+        }
+        return new Registration() {
+            public void remove() {
+                ProgressListenerRegistry.this.remove(listener);
+            }
+        };
+    }
+
+    void remove(WizardProgressListener listener) {
+        int index = indexOf(listener);
+        if (index < 0) {
+            return;
+        }
+        if (listeners.length == 1) {
+            listeners = NO_LISTENERS;
+            return;
+        }
+        WizardProgressListener[] newListeners = new WizardProgressListener[listeners.length - 1];
+        System.arraycopy(listeners, 0, newListeners, 0, index);
+        System.arraycopy(listeners, index + 1, newListeners, index,
+                newListeners.length - index);
+        listeners = newListeners;
+    }
+
+    private int indexOf(WizardProgressListener listener) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i].equals(listener)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    int size() {
+        return listeners.length;
+    }
+
+    /**
+     * Dispatches the given event to the matching method of all registered
+     * listeners.
+     */
+    void fire(AbstractWizardEvent event) {
+        // iterate over a snapshot of the listeners
+        WizardProgressListener[] snapshot = listeners;
+        if (event instanceof WizardStepActivationEvent) {
+            WizardStepActivationEvent activationEvent = (WizardStepActivationEvent) event;
+            for (WizardProgressListener listener : snapshot) {
+                listener.activeStepChanged(activationEvent);
+            }
+        } else if (event instanceof WizardStepSetChangedEvent) {
+            WizardStepSetChangedEvent stepSetEvent = (WizardStepSetChangedEvent) event;
+            for (WizardProgressListener listener : snapshot) {
+                listener.stepSetChanged(stepSetEvent);
+            }
+        } else if (event instanceof WizardCompletedEvent) {
+            WizardCompletedEvent completedEvent = (WizardCompletedEvent) event;
+            for (WizardProgressListener listener : snapshot) {
+                listener.wizardCompleted(completedEvent);
+            }
+        } else if (event instanceof WizardCancelledEvent) {
+            WizardCancelledEvent cancelledEvent = (WizardCancelledEvent) event;
+            for (WizardProgressListener listener : snapshot) {
+                listener.wizardCancelled(cancelledEvent);
+            }
+        } else if (event instanceof WizardStepTaskEvent) {
+            WizardStepTaskEvent taskEvent = (WizardStepTaskEvent) event;
+            for (WizardProgressListener listener : snapshot) {
+                if (listener instanceof WizardStepTaskListener) {
+                    ((WizardStepTaskListener) listener)
+                            .stepTaskProgress(taskEvent);
+                }
+            }
+        }
+    }
+
+}
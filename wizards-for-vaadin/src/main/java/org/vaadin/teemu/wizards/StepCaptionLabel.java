@@ -0,0 +1,72 @@
+package org.vaadin.teemu.wizards;
+
+import com.vaadin.ui.Label;
+
+/**
+ * Caption label of a single step used by the progress bar components. Keeps
+ * track of the applied caption and styles so that the label is only marked
+ * dirty when they actually change.
+ */
+@SuppressWarnings("serial")
+class StepCaptionLabel extends Label {
+
+    private String stepId;
+    private String text;
+    private boolean completed;
+    private boolean current;
+    private boolean first;
+    private boolean last;
+
+    StepCaptionLabel() {
+        this(null);
+    }
+
+    StepCaptionLabel(String stepId) {
+        this.stepId = stepId;
+        addStyleName("step-caption");
+        setWidth("100%");
+    }
+
+    String getStepId() {
+        return stepId;
+    }
+
+    /**
+     * Updates this label to display the step at the given position of the
+     * given wizard. Steps of a {@link WizardDefinition} that are not created
+     * yet are displayed without creating them.
+     */
+    void update(Wizard wizard, int index) {
+        WizardModel model = wizard.getModel();
+        stepId = model.getId(index);
+        String text = (index + 1) + ". " + model.getCaption(index);
+        if (!text.equals(this.text)) {
+            setValue(text);
+            this.text = text;
+        }
+
+        // Add styles for themeing.
+        int currentIndex = model.getCurrentIndex();
+        boolean completed = index < currentIndex;
+        if (completed != this.completed) {
+            setStyleName("completed", completed);
+            this.completed = completed;
+        }
+        boolean current = index == currentIndex;
+        if (current != this.current) {
+            setStyleName("current", current);
+            this.current = current;
+        }
+        boolean first = index == 0;
+        if (first != this.first) {
+            setStyleName("first", first);
+            this.first = first;
+        }
+        boolean last = index == model.size() - 1;
+        if (last != this.last) {
+            setStyleName("last", last);
+            this.last = last;
+        }
+    }
+
+}
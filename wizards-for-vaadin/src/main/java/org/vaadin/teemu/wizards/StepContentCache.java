@@ -0,0 +1,221 @@
+package org.vaadin.teemu.wizards;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.vaadin.ui.Component;
+
+/**
+ * Retains the content components of the steps of a {@link Wizard} according
+ * to a {@link StepContentPolicy}.
+ */
+@SuppressWarnings("serial")
+class StepContentCache implements Serializable {
+
+    static final int DEFAULT_MAX_RETAINED = 3;
+
+    // access ordered so that the least recently active step is first
+    private final LinkedHashMap<WizardStep, Component> contents = new LinkedHashMap<WizardStep, Component>(
+            16, 0.75f, true);
+    // contents prepared in advance, see StepContentPrefetcher
+    private final Map<WizardStep, Component> prefetched = new HashMap<WizardStep, Component>();
+    private StepContentPolicy policy = StepContentPolicy.ON_DEMAND;
+    private int maxRetained = DEFAULT_MAX_RETAINED;
+    // never evicted as its content is displayed
+    private WizardStep activeStep;
+
+    StepContentPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Changes the policy and releases the retained contents that are no longer
+     * needed. The content of the given active step is never released as it is
+     * still displayed.
+     */
+    void setPolicy(StepContentPolicy policy, List<WizardStep> steps,
+            WizardStep activeStep, Component activeContent) {
+        this.policy = policy;
+        this.activeStep = activeStep;
+        if (policy != StepContentPolicy.ON_DEMAND && activeStep != null
+                && activeContent != null && !contents.containsKey(activeStep)) {
+            // retain the displayed content instead of requesting a new one
+            contents.put(activeStep, activeContent);
+        }
+        switch (policy) {
+        case ON_DEMAND:
+            releaseAllExcept(activeStep);
+            break;
+        case EAGER:
+            for (WizardStep step : steps) {
+                getContent(step);
+            }
+            break;
+        case LRU:
+            evict();
+            break;
+        default:
+            break;
+        }
+    }
+
+    int getMaxRetained() {
+        return maxRetained;
+    }
+
+    void setMaxRetained(int maxRetained) {
+        if (maxRetained < 1) {
+            throw new IllegalArgumentException(
+                    "At least one content must be retained.");
+        }
+        this.maxRetained = maxRetained;
+        if (policy == StepContentPolicy.LRU) {
+            evict();
+        }
+    }
+
+    /**
+     * Returns the content of the given step either from the retained or
+     * prefetched contents or by requesting it from the step.
+     */
+    Component getContent(WizardStep step) {
+        Component content;
+        if (policy == StepContentPolicy.ON_DEMAND) {
+            // stop retaining a content retained with a previous policy
+            content = contents.remove(step);
+        } else {
+            content = contents.get(step);
+        }
+        if (content != null) {
+            return content;
+        }
+
+        content = prefetched.remove(step);
+        if (content == null) {
+            content = step.getContent();
+        }
+        if (policy != StepContentPolicy.ON_DEMAND) {
+            contents.put(step, content);
+            if (policy == StepContentPolicy.LRU) {
+                evict(step);
+            }
+        }
+        return content;
+    }
+
+    /**
+     * Marks the given step as the active one, so that its content is not
+     * evicted while it is displayed.
+     */
+    void setActiveStep(WizardStep step) {
+        activeStep = step;
+        if (policy == StepContentPolicy.LRU) {
+            evict();
+        }
+    }
+
+    boolean isRetained(WizardStep step) {
+        return contents.containsKey(step);
+    }
+
+    /**
+     * Returns {@code true} if the content of the given step is available
+     * without requesting it from the step.
+     */
+    boolean isAvailable(WizardStep step) {
+        return contents.containsKey(step) || prefetched.containsKey(step);
+    }
+
+    void putPrefetched(WizardStep step, Component content) {
+        if (!contents.containsKey(step)) {
+            prefetched.put(step, content);
+        }
+    }
+
+    /**
+     * Drops the prefetched contents of all other steps than the given ones.
+     */
+    void retainPrefetched(WizardStep... steps) {
+        if (prefetched.isEmpty()) {
+            return;
+        }
+        Map<WizardStep, Component> retained = new HashMap<WizardStep, Component>();
+        for (WizardStep step : steps) {
+            Component content = prefetched.get(step);
+            if (content != null) {
+                retained.put(step, content);
+            }
+        }
+        prefetched.clear();
+        prefetched.putAll(retained);
+    }
+
+    void discardPrefetched() {
+        prefetched.clear();
+    }
+
+    void stepAdded(WizardStep step) {
+        if (policy == StepContentPolicy.EAGER) {
+            getContent(step);
+        }
+    }
+
+    void stepRemoved(WizardStep step) {
+        prefetched.remove(step);
+        if (contents.remove(step) != null) {
+            step.releaseContent();
+        }
+    }
+
+    /**
+     * Releases all retained contents except the content of the given step.
+     */
+    void releaseAllExcept(WizardStep step) {
+        List<WizardStep> released = new ArrayList<WizardStep>();
+        for (Iterator<WizardStep> it = contents.keySet().iterator(); it
+                .hasNext();) {
+            WizardStep retained = it.next();
+            if (retained != step) {
+                it.remove();
+                released.add(retained);
+            }
+        }
+        for (WizardStep retained : released) {
+            retained.releaseContent();
+        }
+    }
+
+    private void evict() {
+        evict(null);
+    }
+
+    /**
+     * Releases the least recently used contents until at most
+     * {@link #getMaxRetained()} are retained, skipping the active step and
+     * the given step whose content was just requested. The retained count may
+     * therefore exceed the maximum by one until the next activation.
+     */
+    private void evict(WizardStep requestedStep) {
+        List<WizardStep> released = new ArrayList<WizardStep>();
+        int excess = contents.size() - maxRetained;
+        // the first entries are the least recently active ones
+        for (Iterator<WizardStep> it = contents.keySet().iterator(); excess > 0
+                && it.hasNext();) {
+            WizardStep retained = it.next();
+            if (retained != activeStep && retained != requestedStep) {
+                it.remove();
+                released.add(retained);
+                excess--;
+            }
+        }
+        for (WizardStep step : released) {
+            step.releaseContent();
+        }
+    }
+
+}
@@ -0,0 +1,41 @@
+package org.vaadin.teemu.wizards;
+
+/**
+ * Defines when a {@link Wizard} requests the content of its steps and how long
+ * the content is retained by the wizard.
+ * 
+ * @see Wizard#setContentPolicy(StepContentPolicy)
+ */
+public enum StepContentPolicy {
+
+    /**
+     * The content is requested from the step each time it is activated and
+     * the wizard doesn't retain it after the step is deactivated. This is the
+     * default policy.
+     */
+    ON_DEMAND,
+
+    /**
+     * The content of every step is requested as soon as the step is added and
+     * retained until the step is removed.
+     */
+    EAGER,
+
+    /**
+     * The content is requested when the step is activated for the first time
+     * and retained until the step is removed.
+     */
+    LAZY,
+
+    /**
+     * The content is requested when the step is activated and retained only
+     * for the most recently active steps. When the limit is exceeded the
+     * content of the least recently active step is released through
+     * {@link WizardStep#releaseContent()} and requested again when the step
+     * is activated the next time.
+     * 
+     * @see Wizard#setMaxRetainedContents(int)
+     */
+    LRU
+
+}
@@ -0,0 +1,234 @@
+package org.vaadin.teemu.wizards;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.vaadin.ui.Component;
+import com.vaadin.ui.UI;
+import com.vaadin.ui.UIDetachedException;
+
+/**
+ * Prepares the contents of the steps of a {@link Wizard} in the background.
+ * The content is requested from the step using the configured
+ * {@link Executor} and handed over to the {@link StepContentCache} under the
+ * session lock using {@link UI#access(Runnable)}. The steps are not
+ * expected to be thread-safe, so a content is never requested from a step
+ * while a background task may still be requesting it, see
+ * {@link #claim(WizardStep, StepContentCache)}.
+ */
+@SuppressWarnings("serial")
+class StepContentPrefetcher implements Serializable {
+
+    private transient Executor executor;
+    private transient Map<WizardStep, PrefetchTask> pending;
+    private boolean prefetchPrevious;
+
+    // incremented on cancelAll to discard results of the running tasks
+    private int generation;
+
+    Executor getExecutor() {
+        return executor;
+    }
+
+    void setExecutor(Executor executor) {
+        cancelAll();
+        this.executor = executor;
+    }
+
+    boolean isEnabled() {
+        return executor != null;
+    }
+
+    boolean isPrefetchPrevious() {
+        return prefetchPrevious;
+    }
+
+    void setPrefetchPrevious(boolean prefetchPrevious) {
+        this.prefetchPrevious = prefetchPrevious;
+    }
+
+    /**
+     * Starts preparing the content of the given step unless it's already
+     * available or being prepared. A task that is still running after
+     * {@link #cancelAll()} is reused instead of starting another one. Must be
+     * called while holding the session lock.
+     */
+    void prefetch(UI ui, WizardStep step, StepContentCache cache) {
+        if (executor == null || step == null || cache.isAvailable(step)) {
+            return;
+        }
+        PrefetchTask existing = getPending().get(step);
+        if (existing != null) {
+            if (!existing.isDone()) {
+                // hand the result over after all
+                existing.taskGeneration = generation;
+                return;
+            }
+            // finished, but the hand-over didn't happen yet
+            getPending().remove(step);
+            Component content = existing.getContent();
+            if (content != null) {
+                cache.putPrefetched(step, content);
+            }
+            return;
+        }
+
+        PrefetchTask task = new PrefetchTask(ui, step, cache);
+        getPending().put(step, task);
+        executor.execute(task);
+    }
+
+    /**
+     * A background request of the content of a step. The task is claimed
+     * either by the worker thread when it starts or by the request thread
+     * cancelling it, so that the content is never requested by both. A
+     * started task stays in {@link #pending} until its result is handed over
+     * or claimed, even if it's discarded.
+     */
+    private final class PrefetchTask extends FutureTask<Component> {
+
+        final UI ui;
+        final WizardStep step;
+        final StepContentCache cache;
+        final AtomicBoolean claimed;
+        // the result is only handed over in this generation, guarded by the
+        // session lock
+        int taskGeneration;
+
+        PrefetchTask(UI ui, WizardStep step, StepContentCache cache) {
+            this(ui, step, cache, new AtomicBoolean());
+        }
+
+        private PrefetchTask(UI ui, final WizardStep step,
+                StepContentCache cache, final AtomicBoolean claimed) {
+            super(new Callable<Component>() {
+                public Component call() {
+                    if (!claimed.compareAndSet(false, true)) {
+                        // claimed by the request thread
+                        return null;
+                    }
+                    try {
+                        return step.getContent();
+                    } catch (RuntimeException e) {
+                        // the content is requested again when needed
+                        getLogger().log(Level.WARNING,
+                                "Prefetching the content of a step failed.",
+                                e);
+                        return null;
+                    }
+                }
+            });
+            this.ui = ui;
+            this.step = step;
+            this.cache = cache;
+            this.claimed = claimed;
+            taskGeneration = generation;
+        }
+
+        @Override
+        protected void done() {
+            if (!isCancelled()) {
+                handOver(this);
+            }
+        }
+
+        /**
+         * Returns the content of a finished task, waiting for a running one.
+         */
+        Component getContent() {
+            try {
+                return get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                // getContent failures are logged by the task itself
+            } catch (CancellationException e) {
+                // claimed before it started
+            }
+            return null;
+        }
+    }
+
+    private void handOver(final PrefetchTask task) {
+        final Component content = task.getContent();
+        try {
+            task.ui.access(new Runnable() {
+                public void run() {
+                    if (getPending().get(task.step) != task) {
+                        // claimed meanwhile
+                        return;
+                    }
+                    getPending().remove(task.step);
+                    if (task.taskGeneration == generation && content != null) {
+                        task.cache.putPrefetched(task.step, content);
+                    }
+                }
+            });
+        } catch (UIDetachedException e) {
+            // the wizard is gone, nothing to hand over
+        }
+    }
+
+    /**
+     * Stops preparing the content of the given step because the content is
+     * needed now. A task that has not started yet is cancelled. If the task
+     * is already running, this waits until it has finished and hands its
+     * content over to the given cache, so that the content is not requested
+     * from the step again while the task is still requesting it. Must be
+     * called while holding the session lock.
+     */
+    void claim(WizardStep step, StepContentCache cache) {
+        PrefetchTask task = getPending().remove(step);
+        if (task == null) {
+            return;
+        }
+        if (task.claimed.compareAndSet(false, true)) {
+            task.cancel(false);
+            return;
+        }
+        // the content is needed now, even if the task was discarded
+        Component content = task.getContent();
+        if (content != null) {
+            cache.putPrefetched(step, content);
+        }
+    }
+
+    /**
+     * Cancels preparing all contents and discards the results of the already
+     * running tasks. The running tasks are still tracked until they finish,
+     * so that their steps are not asked for the content meanwhile.
+     */
+    void cancelAll() {
+        generation++;
+        for (Iterator<PrefetchTask> it = getPending().values().iterator(); it
+                .hasNext();) {
+            PrefetchTask task = it.next();
+            if (task.claimed.compareAndSet(false, true)) {
+                task.cancel(false);
+                it.remove();
+            }
+        }
+    }
+
+    private Map<WizardStep, PrefetchTask> getPending() {
+        if (pending == null) {
+            pending = new HashMap<WizardStep, PrefetchTask>();
+        }
+        return pending;
+    }
+
+    private static Logger getLogger() {
+        return Logger.getLogger(StepContentPrefetcher.class.getName());
+    }
+
+}
@@ -0,0 +1,30 @@
+package org.vaadin.teemu.wizards;
+
+/**
+ * Long-running work of a {@link WizardStep}, such as provisioning or a data
+ * import, started with {@link Wizard#startStepTask(StepTask)}. The task is run
+ * in a background thread without holding the session lock, so it must not
+ * access the {@link com.vaadin.ui.UI} or the session.
+ * 
+ * <p>
+ * The task reports its progress through the given {@link StepTaskContext}.
+ * It should check {@link StepTaskContext#isCancelled()} regularly, as the
+ * task is cancelled when the user navigates away from the step or cancels
+ * the wizard. The running thread is also interrupted.
+ * </p>
+ */
+@FunctionalInterface
+public interface StepTask {
+
+    /**
+     * Performs the work of this task.
+     * 
+     * @param context
+     *            the context for reporting the progress.
+     * @throws Exception
+     *             if the work fails. The failure is handled by the error
+     *             handler of the {@link Wizard}.
+     */
+    void run(StepTaskContext context) throws Exception;
+
+}
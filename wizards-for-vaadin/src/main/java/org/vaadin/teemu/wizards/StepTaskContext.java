@@ -0,0 +1,34 @@
+package org.vaadin.teemu.wizards;
+
+/**
+ * The connection of a running {@link StepTask} to its {@link Wizard}. Safe to
+ * use from the thread running the task.
+ */
+public interface StepTaskContext {
+
+    /**
+     * Reports the progress of the task. The latest progress is delivered to
+     * the {@link Wizard} under the session lock at most once per progress
+     * interval, see {@link Wizard#setStepTaskProgressInterval(int)}. Enable
+     * server push for the UI to display the progress while the task runs.
+     * 
+     * @param progress
+     *            the progress between {@code 0} and {@code 1}.
+     */
+    void setProgress(float progress);
+
+    /**
+     * Returns {@code true} if the task has been cancelled and should stop.
+     * 
+     * @return {@code true} if the task is cancelled.
+     */
+    boolean isCancelled();
+
+    /**
+     * Returns the {@link WizardStep} the task was started for.
+     * 
+     * @return the step of the task.
+     */
+    WizardStep getStep();
+
+}
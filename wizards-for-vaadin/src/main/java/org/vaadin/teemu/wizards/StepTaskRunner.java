@@ -0,0 +1,203 @@
+package org.vaadin.teemu.wizards;
+
+import java.io.Serializable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.vaadin.ui.UI;
+
+/**
+ * Runs the {@link StepTask} of the active step of a {@link Wizard} in the
+ * background. The progress and the end of the task are handed over to the
+ * wizard under the session lock using {@link UI#access(Runnable)}, the
+ * progress at most once per progress interval.
+ */
+@SuppressWarnings("serial")
+class StepTaskRunner implements Serializable {
+
+    static final int DEFAULT_PROGRESS_INTERVAL = 250;
+
+    private final Wizard wizard;
+    private transient Executor executor;
+    private int progressInterval = DEFAULT_PROGRESS_INTERVAL;
+    private transient RunningTask running;
+
+    StepTaskRunner(Wizard wizard) {
+        this.wizard = wizard;
+    }
+
+    Executor getExecutor() {
+        return executor;
+    }
+
+    void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    int getProgressInterval() {
+        return progressInterval;
+    }
+
+    void setProgressInterval(int progressInterval) {
+        if (progressInterval < 0) {
+            throw new IllegalArgumentException(
+                    "The interval cannot be negative.");
+        }
+        this.progressInterval = progressInterval;
+    }
+
+    boolean isRunning() {
+        return running != null;
+    }
+
+    /**
+     * Returns the completion of the running task or {@code null}.
+     */
+    CompletionStage<Void> getCompletion() {
+        return running != null ? running.completion : null;
+    }
+
+    /**
+     * Starts the given task for the given step. Must be called while holding
+     * the session lock.
+     */
+    CompletionStage<Void> start(UI ui, WizardStep step, final StepTask task) {
+        if (running != null) {
+            throw new IllegalStateException("A task is already running.");
+        }
+        final RunningTask runningTask = new RunningTask(ui, step,
+                progressInterval);
+        runningTask.future = new FutureTask<Void>(new Callable<Void>() {
+            public Void call() {
+                Throwable failure = null;
+                try {
+                    task.run(runningTask);
+                } catch (Throwable e) {
+                    failure = e;
+                }
+                finished(runningTask, failure);
+                return null;
+            }
+        });
+        running = runningTask;
+        try {
+            (executor != null ? executor : TaskExecutors.getDefault())
+                    .execute(runningTask.future);
+        } catch (RuntimeException e) {
+            // typically rejected because the queue is full
+            running = null;
+            throw e;
+        }
+        return runningTask.completion;
+    }
+
+    /**
+     * Cancels the running task, if any. Must be called while holding the
+     * session lock.
+     */
+    void cancel() {
+        RunningTask runningTask = running;
+        if (runningTask == null) {
+            return;
+        }
+        running = null;
+        runningTask.cancelled = true;
+        runningTask.future.cancel(true);
+        wizard.stepTaskEnded(runningTask.step, runningTask.progress, null);
+        runningTask.completion.completeExceptionally(new CancellationException(
+                "The task was cancelled."));
+    }
+
+    private void progressed(final RunningTask runningTask) {
+        TaskExecutors.access(runningTask.ui, new Runnable() {
+            public void run() {
+                runningTask.progressScheduled.set(false);
+                if (running == runningTask) {
+                    wizard.stepTaskProgressed(runningTask.step,
+                            runningTask.progress);
+                }
+            }
+        });
+    }
+
+    private void finished(final RunningTask runningTask,
+            final Throwable failure) {
+        if (runningTask.cancelled) {
+            return;
+        }
+        Runnable completion = new Runnable() {
+            public void run() {
+                if (running != runningTask) {
+                    // cancelled meanwhile
+                    return;
+                }
+                running = null;
+                wizard.stepTaskEnded(runningTask.step, runningTask.progress,
+                        failure);
+                complete(runningTask, failure);
+            }
+        };
+        boolean delivered = TaskExecutors.access(runningTask.ui, completion);
+        if (!delivered) {
+            // the wizard is gone, only complete the stage
+            complete(runningTask, failure);
+        }
+    }
+
+    private static void complete(RunningTask runningTask, Throwable failure) {
+        if (failure != null) {
+            runningTask.completion.completeExceptionally(failure);
+        } else {
+            runningTask.completion.complete(null);
+        }
+    }
+
+    /**
+     * A started task and its context.
+     */
+    private final class RunningTask implements StepTaskContext {
+
+        final UI ui;
+        final WizardStep step;
+        final long progressIntervalNanos;
+        final CompletableFuture<Void> completion = new CompletableFuture<Void>();
+        final AtomicBoolean progressScheduled = new AtomicBoolean();
+        FutureTask<Void> future;
+        volatile float progress;
+        volatile boolean cancelled;
+        volatile long progressDeliveredAt;
+
+        RunningTask(UI ui, WizardStep step, int progressInterval) {
+            this.ui = ui;
+            this.step = step;
+            progressIntervalNanos = TimeUnit.MILLISECONDS
+                    .toNanos(progressInterval);
+            progressDeliveredAt = System.nanoTime() - progressIntervalNanos;
+        }
+
+        public void setProgress(float progress) {
+            this.progress = Math.max(0f, Math.min(1f, progress));
+            long now = System.nanoTime();
+            if (!cancelled && now - progressDeliveredAt >= progressIntervalNanos
+                    && progressScheduled.compareAndSet(false, true)) {
+                progressDeliveredAt = now;
+                progressed(this);
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public WizardStep getStep() {
+            return step;
+        }
+    }
+
+}
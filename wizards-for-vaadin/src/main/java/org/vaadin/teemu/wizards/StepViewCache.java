@@ -0,0 +1,131 @@
+package org.vaadin.teemu.wizards;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.vaadin.ui.Component;
+import com.vaadin.ui.CssLayout;
+
+/**
+ * Keeps the contents of the recently visited steps of a {@link Wizard}
+ * attached, but hidden with CSS, so that the browser keeps their DOM.
+ * Switching to a cached step only changes the inline styles of this layout
+ * instead of sending and rendering the whole content again.
+ */
+@SuppressWarnings("serial")
+class StepViewCache extends CssLayout {
+
+    // the least recently displayed view is first, only put() moves a view to
+    // the end so that looking up a view does not change the order
+    private final LinkedHashMap<WizardStep, Component> views = new LinkedHashMap<WizardStep, Component>();
+    private Component visibleView;
+    private int maxViews;
+
+    StepViewCache(int maxViews) {
+        setMaxViews(maxViews);
+        setSizeFull();
+    }
+
+    int getMaxViews() {
+        return maxViews;
+    }
+
+    void setMaxViews(int maxViews) {
+        if (maxViews < 1) {
+            throw new IllegalArgumentException(
+                    "At least one view must be cached.");
+        }
+        this.maxViews = maxViews;
+        evict();
+    }
+
+    /**
+     * Returns the cached view of the given step or {@code null}. Looking up a
+     * view does not make it more recently displayed.
+     */
+    Component getView(WizardStep step) {
+        return views.get(step);
+    }
+
+    boolean containsView(WizardStep step) {
+        return views.containsKey(step);
+    }
+
+    Component getVisibleView() {
+        return visibleView;
+    }
+
+    /**
+     * Displays the given content of the given step, hiding the other views.
+     */
+    void show(WizardStep step, Component content) {
+        put(step, content);
+        visibleView = content;
+        // the inline styles of the children are updated in the response
+        markAsDirty();
+        evict();
+    }
+
+    /**
+     * Adds the given content of the given step hidden, so that its DOM is
+     * ready when the step is displayed.
+     */
+    void preload(WizardStep step, Component content) {
+        if (!containsView(step)) {
+            put(step, content);
+            evict();
+        }
+    }
+
+    private void put(WizardStep step, Component content) {
+        Component previous = views.remove(step);
+        views.put(step, content);
+        if (previous != content) {
+            if (previous != null) {
+                removeComponent(previous);
+            }
+            addComponent(content);
+        }
+    }
+
+    void remove(WizardStep step) {
+        Component view = views.remove(step);
+        if (view != null) {
+            removeComponent(view);
+        }
+    }
+
+    /**
+     * Removes all the views except the view of the given step.
+     */
+    void removeAllExcept(WizardStep step) {
+        for (Iterator<Map.Entry<WizardStep, Component>> it = views.entrySet()
+                .iterator(); it.hasNext();) {
+            Map.Entry<WizardStep, Component> entry = it.next();
+            if (entry.getKey() != step) {
+                it.remove();
+                removeComponent(entry.getValue());
+            }
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<WizardStep, Component>> it = views.entrySet()
+                .iterator();
+        while (views.size() > maxViews && it.hasNext()) {
+            // the first entries are the least recently displayed ones
+            Map.Entry<WizardStep, Component> entry = it.next();
+            if (entry.getValue() != visibleView) {
+                it.remove();
+                removeComponent(entry.getValue());
+            }
+        }
+    }
+
+    @Override
+    protected String getCss(Component c) {
+        return c == visibleView ? null : "display: none;";
+    }
+
+}
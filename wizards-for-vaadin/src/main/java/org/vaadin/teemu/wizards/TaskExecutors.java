@@ -0,0 +1,108 @@
+package org.vaadin.teemu.wizards;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.vaadin.ui.UI;
+import com.vaadin.ui.UIDetachedException;
+
+/**
+ * The executor shared by the background tasks of all the wizards that have
+ * no executor of their own, and the hand-over of their results to the UI.
+ */
+final class TaskExecutors {
+
+    static final int DEFAULT_QUEUE_CAPACITY = 256;
+
+    private static Executor defaultExecutor;
+
+    private TaskExecutors() {
+    }
+
+    /**
+     * Returns an executor that starts a virtual thread per task if the
+     * runtime supports them, otherwise a pool with a thread per processor and
+     * a bounded queue.
+     */
+    static synchronized Executor getDefault() {
+        if (defaultExecutor == null) {
+            defaultExecutor = createVirtualThreadExecutor();
+            if (defaultExecutor == null) {
+                defaultExecutor = createBoundedPool(Runtime.getRuntime()
+                        .availableProcessors(), DEFAULT_QUEUE_CAPACITY);
+            }
+        }
+        return defaultExecutor;
+    }
+
+    /**
+     * Returns {@code Executors.newVirtualThreadPerTaskExecutor()} or
+     * {@code null} if the runtime doesn't support virtual threads. Looked up
+     * reflectively, as the library is compiled for Java 8.
+     */
+    static Executor createVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor");
+            return (Executor) factory.invoke(null);
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (Exception e) {
+            // for example a preview feature that is not enabled
+            return null;
+        }
+    }
+
+    static Executor createBoundedPool(int threads, int queueCapacity) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(
+                        queueCapacity), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "wizard-task-"
+                                + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Runs the given command under the session lock of the given UI, directly
+     * if the lock is already held. Without a UI, which only happens for a
+     * wizard that was never attached, the command is run directly as there
+     * is no session to lock.
+     *
+     * @return {@code false} if the UI is detached and the command was not run.
+     */
+    static boolean access(UI ui, Runnable command) {
+        if (ui == null) {
+            command.run();
+            return true;
+        }
+        if (ui.getSession() == null) {
+            // detached meanwhile, there is no lock to run the command under
+            return false;
+        }
+        if (ui.getSession().hasLock()) {
+            command.run();
+            return true;
+        }
+        try {
+            ui.access(command);
+            return true;
+        } catch (UIDetachedException e) {
+            return false;
+        }
+    }
+
+}
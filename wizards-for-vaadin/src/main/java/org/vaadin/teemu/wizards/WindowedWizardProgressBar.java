@@ -0,0 +1,218 @@
+package org.vaadin.teemu.wizards;
+
+import org.vaadin.teemu.wizards.event.WizardCancelledEvent;
+import org.vaadin.teemu.wizards.event.WizardCompletedEvent;
+import org.vaadin.teemu.wizards.event.WizardProgressListener;
+import org.vaadin.teemu.wizards.event.WizardStepActivationEvent;
+import org.vaadin.teemu.wizards.event.WizardStepSetChangedEvent;
+import org.vaadin.teemu.wizards.event.WizardStepTaskEvent;
+import org.vaadin.teemu.wizards.event.WizardStepTaskListener;
+
+import com.vaadin.annotations.StyleSheet;
+import com.vaadin.ui.CustomComponent;
+import com.vaadin.ui.HorizontalLayout;
+import com.vaadin.ui.Label;
+import com.vaadin.ui.ProgressBar;
+import com.vaadin.ui.VerticalLayout;
+
+/**
+ * Displays a progress bar for a {@link Wizard} with a large number of steps.
+ * 
+ * <p>
+ * Unlike {@link WizardProgressBar}, this component only displays the captions
+ * of a fixed size window of steps around the currently active step. The steps
+ * outside of the window are collapsed into "… N more" markers. The captions
+ * are read lazily from the steps of the wizard, so the size of the component
+ * tree does not depend on the number of steps.
+ * </p>
+ * 
+ * <p>
+ * To use this component instead of the default header, replace the header
+ * and register this component as a listener:
+ * </p>
+ * 
+ * <pre>
+ * WindowedWizardProgressBar progressBar = new WindowedWizardProgressBar(wizard);
+ * wizard.addListener(progressBar);
+ * wizard.setHeader(progressBar);
+ * </pre>
+ */
+@SuppressWarnings("serial")
+@StyleSheet("wizard-progress-bar.css")
+public class WindowedWizardProgressBar extends CustomComponent implements
+        WizardProgressListener, WizardStepTaskListener {
+
+    /**
+     * The default number of step captions displayed at once.
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 7;
+
+    private final Wizard wizard;
+    private final ProgressBar progressBar = new ProgressBar();
+    private final HorizontalLayout stepCaptions = new HorizontalLayout();
+    private final Label leadingMarker = createMarker();
+    private final Label trailingMarker = createMarker();
+    private final StepCaptionLabel[] windowCaptions;
+    private int activeStepIndex;
+    // progress of the task of the active step, see Wizard#startStepTask
+    private float taskProgress;
+
+    public WindowedWizardProgressBar(Wizard wizard) {
+        this(wizard, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Creates a new progress bar displaying at most {@code windowSize} step
+     * captions at once.
+     * 
+     * @param wizard
+     * @param windowSize
+     *            number of step captions displayed around the active step.
+     * @throws IllegalArgumentException
+     *             if the given {@code windowSize} is less than one.
+     */
+    public WindowedWizardProgressBar(Wizard wizard, int windowSize) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException(
+                    "Window size must be at least one.");
+        }
+        setStyleName("wizard-progress-bar");
+        addStyleName("windowed");
+        this.wizard = wizard;
+
+        stepCaptions.setWidth("100%");
+        progressBar.setWidth("100%");
+        progressBar.setHeight("13px");
+
+        stepCaptions.addComponent(leadingMarker);
+        windowCaptions = new StepCaptionLabel[windowSize];
+        for (int i = 0; i < windowSize; i++) {
+            windowCaptions[i] = new StepCaptionLabel();
+            windowCaptions[i].setVisible(false);
+            stepCaptions.addComponent(windowCaptions[i]);
+        }
+        stepCaptions.addComponent(trailingMarker);
+
+        VerticalLayout layout = new VerticalLayout();
+        layout.setSpacing(false);
+        layout.setMargin(false);
+        layout.setWidth("100%");
+        layout.addComponent(stepCaptions);
+        layout.addComponent(progressBar);
+        setCompositionRoot(layout);
+        setWidth("100%");
+
+        // the wizard may already have steps and an active step
+        activeStepIndex = Math.max(0,
+                wizard.getStepIndex(wizard.getModel().getCurrentStep()));
+        updateProgressBar();
+        updateStepCaptions();
+    }
+
+    private static Label createMarker() {
+        Label marker = new Label();
+        marker.addStyleName("step-caption");
+        marker.addStyleName("more");
+        marker.setWidth("100%");
+        marker.setVisible(false);
+        return marker;
+    }
+
+    /**
+     * Returns the maximum number of step captions displayed at once.
+     * 
+     * @return the maximum number of step captions displayed at once.
+     */
+    public int getWindowSize() {
+        return windowCaptions.length;
+    }
+
+    private void updateProgressBar() {
+        int stepCount = wizard.getSteps().size();
+        if (stepCount == 0) {
+            return;
+        }
+        float padding = (1.0f / stepCount) / 2;
+        float progressValue = padding + (activeStepIndex + taskProgress)
+                / stepCount;
+        setProgressValue(progressValue);
+    }
+
+    private void setProgressValue(float progressValue) {
+        if (progressBar.getValue() != progressValue) {
+            progressBar.setValue(progressValue);
+        }
+    }
+
+    /**
+     * Displays the window of steps centered around the active step. Only the
+     * steps inside the window are accessed.
+     */
+    private void updateStepCaptions() {
+        int stepCount = wizard.getSteps().size();
+        int visibleCount = Math.min(windowCaptions.length, stepCount);
+        int firstVisible = activeStepIndex - visibleCount / 2;
+        firstVisible = Math.max(0,
+                Math.min(firstVisible, stepCount - visibleCount));
+
+        for (int i = 0; i < windowCaptions.length; i++) {
+            StepCaptionLabel caption = windowCaptions[i];
+            if (i < visibleCount) {
+                int stepIndex = firstVisible + i;
+                caption.update(wizard, stepIndex);
+                setVisible(caption, true);
+            } else {
+                setVisible(caption, false);
+            }
+        }
+
+        updateMarker(leadingMarker, firstVisible);
+        updateMarker(trailingMarker, stepCount - firstVisible - visibleCount);
+    }
+
+    private void updateMarker(Label marker, int hiddenCount) {
+        if (hiddenCount > 0) {
+            String text = "…" + hiddenCount + " more";
+            if (!text.equals(marker.getValue())) {
+                marker.setValue(text);
+            }
+        }
+        setVisible(marker, hiddenCount > 0);
+    }
+
+    private static void setVisible(Label label, boolean visible) {
+        if (label.isVisible() != visible) {
+            label.setVisible(visible);
+        }
+    }
+
+    @Override
+    public void activeStepChanged(WizardStepActivationEvent event) {
+        activeStepIndex = wizard.getStepIndex(event.getActivatedStep());
+        updateProgressBar();
+        updateStepCaptions();
+    }
+
+    @Override
+    public void stepSetChanged(WizardStepSetChangedEvent event) {
+        updateProgressBar();
+        updateStepCaptions();
+    }
+
+    @Override
+    public void wizardCompleted(WizardCompletedEvent event) {
+        setProgressValue(1.0f);
+    }
+
+    @Override
+    public void wizardCancelled(WizardCancelledEvent event) {
+        // NOP, no need to react to cancellation
+    }
+
+    @Override
+    public void stepTaskProgress(WizardStepTaskEvent event) {
+        // advance towards the next step as the task progresses
+        taskProgress = event.isRunning() ? event.getProgress() : 0f;
+        updateProgressBar();
+    }
+}
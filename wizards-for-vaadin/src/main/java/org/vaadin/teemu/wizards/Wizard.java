@@ -1,21 +1,44 @@
 package org.vaadin.teemu.wizards;
 
-import java.lang.reflect.Method;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.EventObject;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
 
+import org.vaadin.teemu.wizards.event.AbstractWizardEvent;
+import org.vaadin.teemu.wizards.event.AsyncWizardListener;
 import org.vaadin.teemu.wizards.event.WizardCancelledEvent;
 import org.vaadin.teemu.wizards.event.WizardCompletedEvent;
+import org.vaadin.teemu.wizards.event.WizardEventSnapshot;
 import org.vaadin.teemu.wizards.event.WizardProgressListener;
 import org.vaadin.teemu.wizards.event.WizardStepActivationEvent;
 import org.vaadin.teemu.wizards.event.WizardStepSetChangedEvent;
-
+import org.vaadin.teemu.wizards.event.WizardStepTaskEvent;
+import org.vaadin.teemu.wizards.event.WizardStepTaskListener;
+import org.vaadin.teemu.wizards.metrics.WizardMetrics;
+import org.vaadin.teemu.wizards.state.WizardSnapshot;
+import org.vaadin.teemu.wizards.state.WizardStateStore;
+import org.vaadin.teemu.wizards.tracing.NavigationKind;
+import org.vaadin.teemu.wizards.tracing.NavigationOutcome;
+import org.vaadin.teemu.wizards.tracing.NavigationPhase;
+import org.vaadin.teemu.wizards.tracing.NavigationTracer;
+import org.vaadin.teemu.wizards.tracing.SlowNavigationLogger;
+
+import com.vaadin.server.ErrorHandler;
 import com.vaadin.server.Page;
 import com.vaadin.server.Page.UriFragmentChangedEvent;
 import com.vaadin.server.Page.UriFragmentChangedListener;
+import com.vaadin.shared.Registration;
 import com.vaadin.ui.Alignment;
 import com.vaadin.ui.Button;
 import com.vaadin.ui.Button.ClickEvent;
@@ -23,6 +46,8 @@ import com.vaadin.ui.Component;
 import com.vaadin.ui.CustomComponent;
 import com.vaadin.ui.HorizontalLayout;
 import com.vaadin.ui.Panel;
+import com.vaadin.ui.ProgressBar;
+import com.vaadin.ui.UI;
 import com.vaadin.ui.VerticalLayout;
 
 /**
@@ -48,7 +73,10 @@ import com.vaadin.ui.VerticalLayout;
  * you should add one or more listeners that implement the
  * {@link WizardProgressListener} interface. These listeners are added using the
  * {@link #addListener(WizardProgressListener)} method and removed with the
- * {@link #removeListener(WizardProgressListener)}.
+ * {@link #removeListener(WizardProgressListener)}. Listeners that don't need
+ * to update the UI, such as analytics, can be added with
+ * {@link #addAsyncListener(AsyncWizardListener)} to receive the events in a
+ * background thread instead.
  * </p>
  * 
  * @author Teemu Pöntelin / Vaadin Ltd
@@ -57,52 +85,57 @@ import com.vaadin.ui.VerticalLayout;
 public class Wizard extends CustomComponent implements
         UriFragmentChangedListener {
 
-    protected final List<WizardStep> steps = new ArrayList<WizardStep>();
-    protected final Map<String, WizardStep> idMap = new HashMap<String, WizardStep>();
-    private final Map<WizardStep, ScrollPosition> scrollPositions = new HashMap<WizardStep, ScrollPosition>();
-
-    protected WizardStep currentStep;
-    protected WizardStep lastCompletedStep;
-
-    private int stepIndex = 1;
+    /**
+     * The queue capacity of the listeners added with
+     * {@link #addAsyncListener(AsyncWizardListener)}.
+     */
+    public static final int DEFAULT_ASYNC_LISTENER_CAPACITY = 256;
+
+    private final WizardModel model;
+    // The scroll positions are serialized in a compact form by writeObject.
+    // Therefore this field is transient and not final.
+    private transient Map<WizardStep, ScrollPosition> scrollPositions = new HashMap<WizardStep, ScrollPosition>();
+    private final ProgressListenerRegistry progressListeners = new ProgressListenerRegistry();
+    private final AsyncListenerRegistry asyncListeners = new AsyncListenerRegistry();
+    private final StepContentCache contentCache = new StepContentCache();
+    private final StepContentPrefetcher prefetcher = new StepContentPrefetcher();
+    private final StepTaskRunner taskRunner = new StepTaskRunner(this);
+    private final WizardTaskScope taskScope = new WizardTaskScope(this);
+
+    // pending changes of a batch update, see beginUpdate
+    private int updateDepth;
+    private final List<WizardStep> batchAddedSteps = new ArrayList<WizardStep>();
+    private final List<WizardStep> batchRemovedSteps = new ArrayList<WizardStep>();
 
     protected VerticalLayout mainLayout;
     protected HorizontalLayout footer;
     private Panel contentPanel;
+    private StepViewCache viewCache;
+    private boolean preloadNextView;
 
     private Button nextButton;
     private Button backButton;
     private Button finishButton;
     private Button cancelButton;
+    private ProgressBar taskProgressBar;
 
     private Component header;
+    private WizardControls controls;
+    private Registration controlsRegistration;
+    private transient Object pendingNavigation;
+    private transient WizardMetrics metrics;
+    private transient NavigationTracer navigationTracer;
+    private transient long activatedAt;
+    // true once leaving the current step is recorded in the metrics by
+    // completing, cancelling or detaching, so that it's recorded only once
+    private transient boolean stepLeft;
+    // true if the current step was left by detaching and is entered again
+    // when attached
+    private transient boolean abandoned;
+    private transient WizardStateStore stateStore;
+    private String stateKey;
     private boolean uriFragmentEnabled;
-
-    private static final Method WIZARD_ACTIVE_STEP_CHANGED_METHOD;
-    private static final Method WIZARD_STEP_SET_CHANGED_METHOD;
-    private static final Method WIZARD_COMPLETED_METHOD;
-    private static final Method WIZARD_CANCELLED_METHOD;
-
-    static {
-        try {
-            WIZARD_COMPLETED_METHOD = WizardProgressListener.class
-                    .getDeclaredMethod("wizardCompleted",
-                            new Class[] { WizardCompletedEvent.class });
-            WIZARD_STEP_SET_CHANGED_METHOD = WizardProgressListener.class
-                    .getDeclaredMethod("stepSetChanged",
-                            new Class[] { WizardStepSetChangedEvent.class });
-            WIZARD_ACTIVE_STEP_CHANGED_METHOD = WizardProgressListener.class
-                    .getDeclaredMethod("activeStepChanged",
-                            new Class[] { WizardStepActivationEvent.class });
-            WIZARD_CANCELLED_METHOD = WizardProgressListener.class
-                    .getDeclaredMethod("wizardCancelled",
-                            new Class[] { WizardCancelledEvent.class });
-        } catch (final java.lang.NoSuchMethodException e) {
-            // This should never happen
-            throw new java.lang.RuntimeException(
-                    "Internal error finding methods in Wizard", e);
-        }
-    }
+    private Registration uriFragmentRegistration;
 
     private static final class ScrollPosition {
         int scrollTop;
@@ -115,6 +148,30 @@ public class Wizard extends CustomComponent implements
     }
 
     public Wizard() {
+        this(new WizardModel());
+    }
+
+    /**
+     * Creates a Wizard with the steps of the given {@link WizardDefinition}.
+     * The steps are created when they are first needed, typically when they
+     * are activated, so a Wizard created from a definition shared by all the
+     * sessions only holds the steps the user has visited. Steps can still be
+     * added and removed, in which case the remaining steps of the definition
+     * are created.
+     * 
+     * @param definition
+     *            the definition of the steps.
+     */
+    public Wizard(WizardDefinition definition) {
+        this(new WizardModel(definition));
+        if (model.size() > 0) {
+            fireStepSetChanged(model.getSteps(),
+                    Collections.<WizardStep> emptyList());
+        }
+    }
+
+    private Wizard(WizardModel model) {
+        this.model = model;
         setStyleName("wizard");
         init();
     }
@@ -129,8 +186,14 @@ public class Wizard extends CustomComponent implements
 
         initControlButtons();
 
+        taskProgressBar = new ProgressBar();
+        taskProgressBar.setWidth("120px");
+        taskProgressBar.setVisible(false);
+
         footer = new HorizontalLayout();
         footer.setSpacing(true);
+        footer.addComponent(taskProgressBar);
+        footer.setComponentAlignment(taskProgressBar, Alignment.MIDDLE_LEFT);
         footer.addComponent(cancelButton);
         footer.addComponent(backButton);
         footer.addComponent(nextButton);
@@ -183,19 +246,473 @@ public class Wizard extends CustomComponent implements
         setHeader(progressBar);
     }
 
+    /**
+     * Enables or disables the navigation through URI fragments. While enabled,
+     * this Wizard listens to the URI fragment changes of the {@link Page} of
+     * the {@link UI} it is attached to. The listener is removed when this
+     * Wizard is detached, so a discarded Wizard is not kept reachable by the
+     * {@link Page}.
+     * 
+     * @param enabled
+     *            {@code true} to enable the URI fragment navigation.
+     */
     public void setUriFragmentEnabled(boolean enabled) {
-        if (enabled) {
-            Page.getCurrent().addUriFragmentChangedListener(this);
-        } else {
-            Page.getCurrent().removeUriFragmentChangedListener(this);
-        }
         uriFragmentEnabled = enabled;
+        if (enabled && isAttached()) {
+            registerUriFragmentListener();
+        } else if (!enabled) {
+            unregisterUriFragmentListener();
+        }
+    }
+
+    private void registerUriFragmentListener() {
+        if (uriFragmentRegistration == null) {
+            uriFragmentRegistration = getUI().getPage()
+                    .addUriFragmentChangedListener(this);
+        }
+    }
+
+    private void unregisterUriFragmentListener() {
+        if (uriFragmentRegistration != null) {
+            uriFragmentRegistration.remove();
+            uriFragmentRegistration = null;
+        }
     }
 
     public boolean isUriFragmentEnabled() {
         return uriFragmentEnabled;
     }
 
+    /**
+     * Sets the policy that defines when the content of the steps is requested
+     * and how long it is retained by this Wizard. The default policy is
+     * {@link StepContentPolicy#ON_DEMAND}. The saved scroll positions of the
+     * steps are kept regardless of the policy.
+     * 
+     * @param policy
+     *            the new content policy.
+     * @see #setMaxRetainedContents(int)
+     */
+    public void setContentPolicy(StepContentPolicy policy) {
+        if (policy == null) {
+            throw new IllegalArgumentException("Policy cannot be null.");
+        }
+        contentCache.setPolicy(policy, model.getSteps(),
+                model.getCurrentStep(), getDisplayedContent());
+    }
+
+    public StepContentPolicy getContentPolicy() {
+        return contentCache.getPolicy();
+    }
+
+    /**
+     * Sets the maximum number of step contents retained when the
+     * {@link StepContentPolicy#LRU} policy is used. The default is 3.
+     * 
+     * @param maxRetainedContents
+     *            the maximum number of retained step contents, at least one.
+     */
+    public void setMaxRetainedContents(int maxRetainedContents) {
+        contentCache.setMaxRetained(maxRetainedContents);
+    }
+
+    public int getMaxRetainedContents() {
+        return contentCache.getMaxRetained();
+    }
+
+    /**
+     * Sets the number of recently displayed step contents that are kept
+     * attached but hidden, so that the browser keeps their DOM. Going back to
+     * such a step only toggles the visibility of the contents instead of
+     * sending and rendering the whole content again. Set to {@code 0} to
+     * display only the content of the active step, which is the default.
+     * 
+     * <p>
+     * With the {@link StepContentPolicy#ON_DEMAND} policy the cached contents
+     * are reused instead of requesting them again. With the other policies
+     * the contents are retained as defined by the policy, so the limit of
+     * the {@link StepContentPolicy#LRU} policy should not be smaller than
+     * this size.
+     * </p>
+     * 
+     * @param size
+     *            the maximum number of contents kept in the browser or
+     *            {@code 0} to disable the cache.
+     * @see #setPreloadNextView(boolean)
+     */
+    public void setViewCacheSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException(
+                    "The size cannot be negative.");
+        }
+        if (size == 0 && viewCache != null) {
+            Component content = viewCache.getVisibleView();
+            viewCache.removeAllComponents();
+            viewCache = null;
+            contentPanel.setContent(content);
+        } else if (size > 0 && viewCache == null) {
+            Component content = contentPanel.getContent();
+            viewCache = new StepViewCache(size);
+            contentPanel.setContent(viewCache);
+            if (content != null) {
+                viewCache.show(model.getCurrentStep(), content);
+            }
+            preloadNextView();
+        } else if (size > 0) {
+            viewCache.setMaxViews(size);
+        }
+    }
+
+    public int getViewCacheSize() {
+        return viewCache != null ? viewCache.getMaxViews() : 0;
+    }
+
+    /**
+     * Sets whether the content of the next step is also sent to the browser
+     * hidden when a step is activated, so that advancing only toggles the
+     * visibility of the contents. The preloaded content counts towards the
+     * {@link #setViewCacheSize(int) view cache size}. Has no effect if the
+     * view cache is disabled. The default is {@code false}.
+     * 
+     * @param preloadNextView
+     *            {@code true} to preload the content of the next step.
+     */
+    public void setPreloadNextView(boolean preloadNextView) {
+        this.preloadNextView = preloadNextView;
+        preloadNextView();
+    }
+
+    public boolean isPreloadNextView() {
+        return preloadNextView;
+    }
+
+    /**
+     * Enables preparing the content of the next step in the background using
+     * the given {@link Executor}. When a step is activated, the content of the
+     * next step is requested in a background thread and handed over to this
+     * Wizard under the session lock, so that navigating to it doesn't have to
+     * wait for {@link WizardStep#getContent()}. Set to {@code null} to disable
+     * prefetching, which is the default.
+     * 
+     * <p>
+     * Note that {@link WizardStep#getContent()} of the prefetched steps is
+     * called without holding the session lock, so it must not access the
+     * {@link UI} or the session.
+     * </p>
+     * 
+     * @param executor
+     *            the {@link Executor} used for prefetching or {@code null} to
+     *            disable prefetching.
+     * @see #setPrefetchPrevious(boolean)
+     */
+    public void setPrefetchExecutor(Executor executor) {
+        prefetcher.setExecutor(executor);
+        contentCache.discardPrefetched();
+        prefetchContents();
+    }
+
+    public Executor getPrefetchExecutor() {
+        return prefetcher.getExecutor();
+    }
+
+    /**
+     * Sets whether also the content of the previous step is prefetched when
+     * prefetching is enabled. The default is {@code false}.
+     * 
+     * @param prefetchPrevious
+     *            {@code true} to also prefetch the previous step.
+     * @see #setPrefetchExecutor(Executor)
+     */
+    public void setPrefetchPrevious(boolean prefetchPrevious) {
+        prefetcher.setPrefetchPrevious(prefetchPrevious);
+        prefetchContents();
+    }
+
+    public boolean isPrefetchPrevious() {
+        return prefetcher.isPrefetchPrevious();
+    }
+
+    /**
+     * Starts the given long-running task of the active step in the
+     * background. The progress reported by the task is displayed in the
+     * footer and delivered to the listeners implementing
+     * {@link WizardStepTaskListener}, such as the default header. Enable
+     * server push for the UI to display the progress while the task runs.
+     * 
+     * <p>
+     * The task is cancelled when another step is activated, when this Wizard
+     * is cancelled and when it's detached. While the task is running,
+     * {@link #next()} and {@link #finish()} wait for the task to complete and
+     * then navigate as usual. A failed task is handled by the error handler
+     * of this Wizard and the navigation waiting for it is not performed.
+     * </p>
+     * 
+     * @param task
+     *            the task to run.
+     * @return a {@link CompletionStage} that completes when the task has
+     *         completed, or completes exceptionally if the task fails or is
+     *         cancelled.
+     * @throws IllegalStateException
+     *             if this Wizard is not attached, there is no active step or
+     *             a task is already running.
+     * @throws java.util.concurrent.RejectedExecutionException
+     *             if the executor doesn't accept more tasks.
+     * @see #setStepTaskExecutor(Executor)
+     */
+    public CompletionStage<Void> startStepTask(StepTask task) {
+        WizardStep step = model.getCurrentStep();
+        if (step == null) {
+            throw new IllegalStateException("There is no active step.");
+        }
+        if (getUI() == null) {
+            // the completion must be delivered under the session lock
+            throw new IllegalStateException("The Wizard is not attached.");
+        }
+        CompletionStage<Void> completion = taskRunner.start(getUI(), step,
+                task);
+        if (taskRunner.isRunning()) {
+            stepTaskProgressed(step, 0f);
+        }
+        return completion;
+    }
+
+    /**
+     * Returns {@code true} if a task started with
+     * {@link #startStepTask(StepTask)} is running.
+     * 
+     * @return {@code true} if a step task is running.
+     */
+    public boolean isStepTaskRunning() {
+        return taskRunner.isRunning();
+    }
+
+    /**
+     * Returns the {@link WizardTaskScope} running the background work of the
+     * steps of this Wizard. The outstanding tasks of the scope are cancelled
+     * when the active step changes and when this Wizard is cancelled,
+     * finished or detached.
+     * 
+     * @return the task scope of this Wizard.
+     */
+    public WizardTaskScope getTaskScope() {
+        return taskScope;
+    }
+
+    /**
+     * Sets the {@link Executor} that runs the step tasks of this Wizard. By
+     * default the tasks run on virtual threads if the runtime supports them
+     * and otherwise on a pool shared by all the wizards, with a thread per
+     * processor and a bounded queue. The executor is not serialized with this
+     * Wizard.
+     * 
+     * @param executor
+     *            the executor or {@code null} to use the shared default.
+     * @see #startStepTask(StepTask)
+     */
+    public void setStepTaskExecutor(Executor executor) {
+        taskRunner.setExecutor(executor);
+    }
+
+    public Executor getStepTaskExecutor() {
+        return taskRunner.getExecutor();
+    }
+
+    /**
+     * Sets the minimum interval between two progress updates of a step task.
+     * More frequent updates reported by the task are coalesced, so only the
+     * latest progress is delivered. The default is 250 milliseconds.
+     * 
+     * @param millis
+     *            the interval in milliseconds.
+     */
+    public void setStepTaskProgressInterval(int millis) {
+        taskRunner.setProgressInterval(millis);
+    }
+
+    public int getStepTaskProgressInterval() {
+        return taskRunner.getProgressInterval();
+    }
+
+    /**
+     * Displays the progress of the running step task. Called under the
+     * session lock.
+     */
+    void stepTaskProgressed(WizardStep step, float progress) {
+        taskProgressBar.setVisible(true);
+        taskProgressBar.setValue(progress);
+        fireEvent(new WizardStepTaskEvent(this, step, progress, true));
+    }
+
+    /**
+     * Hides the progress of the ended step task. Called under the session
+     * lock.
+     */
+    void stepTaskEnded(WizardStep step, float progress, Throwable failure) {
+        taskProgressBar.setVisible(false);
+        fireEvent(new WizardStepTaskEvent(this, step, progress, false));
+        if (failure != null) {
+            handleError(failure);
+        }
+    }
+
+    /**
+     * Postpones the given navigation until the running step task has
+     * completed, if any.
+     * 
+     * @return {@code true} if a step task is running.
+     */
+    private boolean awaitStepTask(Runnable navigation) {
+        if (!taskRunner.isRunning()) {
+            return false;
+        }
+        if (!isPending()) {
+            awaitNavigation(taskRunner.getCompletion().handle(
+                    new BiFunction<Void, Throwable, Boolean>() {
+                        public Boolean apply(Void result, Throwable failure) {
+                            return failure == null;
+                        }
+                    }), false, true, NavigationTrace.NONE, navigation);
+        }
+        return true;
+    }
+
+    /**
+     * Sets the {@link WizardMetrics} that receives the timings and counts of
+     * this Wizard, for example an
+     * {@link org.vaadin.teemu.wizards.metrics.InMemoryWizardMetrics} shared by all
+     * the wizards of the application. Set to {@code null} to disable the
+     * measurements, which is the default. The metrics are not serialized with
+     * this Wizard.
+     * 
+     * @param metrics
+     *            the metrics to use or {@code null}.
+     */
+    public void setMetrics(WizardMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the {@link WizardMetrics} of this Wizard. Never returns
+     * {@code null}, {@link WizardMetrics#NONE} is returned if the metrics are
+     * disabled.
+     * 
+     * @return the metrics of this Wizard.
+     */
+    public WizardMetrics getMetrics() {
+        return metrics != null ? metrics : WizardMetrics.NONE;
+    }
+
+    /**
+     * Sets the {@link NavigationTracer} that traces the navigations of this
+     * Wizard phase by phase, for example a {@link SlowNavigationLogger} or an
+     * adapter to a tracing library. Set to {@code null} to disable the
+     * tracing, which is the default. The tracer is not serialized with this
+     * Wizard.
+     * 
+     * @param tracer
+     *            the tracer to use or {@code null}.
+     */
+    public void setNavigationTracer(NavigationTracer tracer) {
+        navigationTracer = tracer;
+    }
+
+    public NavigationTracer getNavigationTracer() {
+        return navigationTracer;
+    }
+
+    /**
+     * Starts tracing a navigation from the current step if tracing is
+     * enabled.
+     */
+    private NavigationTrace startTrace(NavigationKind kind,
+            WizardStep targetStep) {
+        if (navigationTracer == null) {
+            return NavigationTrace.NONE;
+        }
+        return new NavigationTrace(navigationTracer.startNavigation(this,
+                kind, getId(model.getCurrentStep()), getId(targetStep)));
+    }
+
+    /**
+     * Sets the {@link WizardStateStore} where a {@link WizardSnapshot} of this
+     * Wizard is saved with the given key every time a step is activated. The
+     * snapshot is removed when this Wizard is completed or cancelled. Use
+     * {@link #resume()} to continue from the saved snapshot, for example in a
+     * later session. Set to {@code null} to disable saving, which is the
+     * default. The store is not serialized with this Wizard.
+     * 
+     * @param stateStore
+     *            the store to save the snapshots to or {@code null}.
+     * @param key
+     *            the key of the snapshots of this Wizard.
+     */
+    public void setStateStore(WizardStateStore stateStore, String key) {
+        if (stateStore != null && key == null) {
+            throw new IllegalArgumentException("Key cannot be null.");
+        }
+        this.stateStore = stateStore;
+        this.stateKey = stateStore != null ? key : null;
+    }
+
+    public WizardStateStore getStateStore() {
+        return stateStore;
+    }
+
+    /**
+     * Returns a snapshot of the navigation state of this Wizard or
+     * {@code null} if no step is active.
+     * 
+     * @return the snapshot or {@code null}.
+     */
+    public WizardSnapshot takeSnapshot() {
+        WizardStep currentStep = model.getCurrentStep();
+        if (currentStep == null) {
+            return null;
+        }
+        return new WizardSnapshot(getId(currentStep),
+                getId(model.getLastCompletedStep()),
+                System.currentTimeMillis());
+    }
+
+    /**
+     * Restores the navigation state from the given snapshot by activating the
+     * saved step directly. The {@link WizardStep#onAdvance()} methods of the
+     * steps in between are not called as they were already passed when the
+     * snapshot was taken.
+     * 
+     * @param snapshot
+     *            the snapshot to restore.
+     * @return {@code true} if the snapshot was restored, {@code false} if it
+     *         refers to steps that are not in this Wizard.
+     */
+    public boolean restoreSnapshot(WizardSnapshot snapshot) {
+        WizardStep step = model.getStep(snapshot.getCurrentStepId());
+        String lastCompletedId = snapshot.getLastCompletedStepId();
+        WizardStep lastCompleted = lastCompletedId != null ? model
+                .getStep(lastCompletedId) : null;
+        if (step == null || (lastCompletedId != null && lastCompleted == null)) {
+            return false;
+        }
+        clearPendingNavigation();
+        completeActivation(step, true, lastCompleted, NavigationTrace.NONE);
+        return true;
+    }
+
+    /**
+     * Restores the snapshot saved to the {@link WizardStateStore} of this
+     * Wizard, if any.
+     * 
+     * @return {@code true} if a snapshot was found and restored.
+     * @see #setStateStore(WizardStateStore, String)
+     */
+    public boolean resume() {
+        if (stateStore == null) {
+            return false;
+        }
+        WizardSnapshot snapshot = stateStore.load(stateKey);
+        return snapshot != null && restoreSnapshot(snapshot);
+    }
+
     /**
      * Sets a {@link Component} that is displayed on top of the actual content.
      * Set to {@code null} to remove the header altogether.
@@ -219,6 +736,54 @@ public class Wizard extends CustomComponent implements
         this.header = newHeader;
     }
 
+    /**
+     * Replaces the footer buttons with {@link WizardControls} that render the
+     * buttons and the progress on the client side from a compact shared
+     * state, or restores the footer buttons. The controls display the
+     * progress above the buttons, so you typically remove the default header
+     * with {@code setHeader(null)} when enabling them.
+     * 
+     * <p>
+     * The {@code org.vaadin.teemu.wizards.WizardsWidgetset} must be included
+     * in the widgetset of the application.
+     * </p>
+     * 
+     * @param enabled
+     *            {@code true} to use the client-side controls.
+     */
+    public void setClientSideControls(boolean enabled) {
+        if (enabled == (controls != null)) {
+            return;
+        }
+        if (enabled) {
+            controls = new WizardControls(this);
+            controlsRegistration = addListener(controls);
+            mainLayout.replaceComponent(footer, controls);
+            mainLayout.setComponentAlignment(controls, Alignment.BOTTOM_RIGHT);
+        } else {
+            controlsRegistration.remove();
+            controlsRegistration = null;
+            mainLayout.replaceComponent(controls, footer);
+            mainLayout.setComponentAlignment(footer, Alignment.BOTTOM_RIGHT);
+            controls = null;
+        }
+    }
+
+    public boolean isClientSideControls() {
+        return controls != null;
+    }
+
+    /**
+     * Returns the client-side controls replacing the footer buttons or
+     * {@code null} if they are not enabled.
+     * 
+     * @return the {@link WizardControls} or {@code null}.
+     * @see #setClientSideControls(boolean)
+     */
+    public WizardControls getControls() {
+        return controls;
+    }
+
     /**
      * Returns a {@link Component} that is displayed on top of the actual
      * content or {@code null} if no header is specified.
@@ -247,23 +812,166 @@ public class Wizard extends CustomComponent implements
      *             if the given {@code id} already exists.
      */
     public void addStep(WizardStep step, String id) {
-        if (idMap.containsKey(id)) {
-            throw new IllegalArgumentException(
-                    String.format(
-                            "A step with given id %s already exists. You must use unique identifiers for the steps.",
-                            id));
+        insertStep(model.size(), step, id);
+    }
+
+    /**
+     * Inserts a step to this Wizard at the given position. The WizardStep will
+     * be assigned an identifier automatically.
+     * 
+     * @param position
+     *            zero-based position of the new step.
+     * @param step
+     * @see #insertStep(int, WizardStep, String)
+     */
+    public void insertStep(int position, WizardStep step) {
+        model.insertStep(position, step);
+        stepAdded(step);
+    }
+
+    /**
+     * Inserts a step to this Wizard at the given position with the given
+     * identifier. The steps at and after the given position are shifted one
+     * position forward. A step cannot be inserted before or at the position of
+     * the currently active step, as it would then appear already completed.
+     * 
+     * @param position
+     *            zero-based position of the new step.
+     * @param step
+     * @param id
+     * @throws IllegalArgumentException
+     *             if the given {@code id} or {@code step} already exists.
+     * @throws IndexOutOfBoundsException
+     *             if the given {@code position} is out of range.
+     * @throws IllegalStateException
+     *             if the given {@code position} is not after the currently
+     *             active step.
+     */
+    public void insertStep(int position, WizardStep step, String id) {
+        model.insertStep(position, step, id);
+        stepAdded(step);
+    }
+
+    private void stepAdded(WizardStep step) {
+        contentCache.stepAdded(step);
+        stepSetChanged(step, true);
+    }
+
+    /**
+     * Adds the given steps to this Wizard in the iteration order of the given
+     * collection. The WizardSteps will be assigned identifiers automatically.
+     * The listeners are notified only once with a single
+     * {@link WizardStepSetChangedEvent}.
+     * 
+     * @param stepsToAdd
+     * @see #beginUpdate()
+     */
+    public void addSteps(Collection<? extends WizardStep> stepsToAdd) {
+        beginUpdate();
+        try {
+            for (WizardStep step : stepsToAdd) {
+                addStep(step);
+            }
+        } finally {
+            endUpdate();
+        }
+    }
+
+    /**
+     * Removes the given steps from this Wizard. The listeners are notified
+     * only once with a single {@link WizardStepSetChangedEvent}. An
+     * {@link IllegalStateException} is thrown if any of the given steps is
+     * already completed or is the currently active step. In that case the
+     * steps preceding it in the iteration order are still removed.
+     * 
+     * @param stepsToRemove
+     * @see #removeStep(WizardStep)
+     * @see #beginUpdate()
+     */
+    public void removeSteps(Collection<? extends WizardStep> stepsToRemove) {
+        beginUpdate();
+        try {
+            for (WizardStep step : stepsToRemove) {
+                removeStep(step);
+            }
+        } finally {
+            endUpdate();
         }
+    }
+
+    /**
+     * Starts a batch of changes to the steps of this Wizard. Until the
+     * matching {@link #endUpdate()} call the steps are added and removed
+     * without notifying the listeners or updating the buttons. Calls can be
+     * nested, in which case only the outermost {@link #endUpdate()} call fires
+     * the {@link WizardStepSetChangedEvent}.
+     * 
+     * <pre>
+     * wizard.beginUpdate();
+     * try {
+     *     wizard.addStep(new FirstStep());
+     *     wizard.removeStep(&quot;obsolete&quot;);
+     * } finally {
+     *     wizard.endUpdate();
+     * }
+     * </pre>
+     */
+    public void beginUpdate() {
+        updateDepth++;
+    }
 
-        steps.add(step);
-        idMap.put(id, step);
+    /**
+     * Ends a batch of changes started with {@link #beginUpdate()} and fires a
+     * single {@link WizardStepSetChangedEvent} containing all the added and
+     * removed steps, if any.
+     * 
+     * @throws IllegalStateException
+     *             if there is no batch of changes in progress.
+     */
+    public void endUpdate() {
+        if (updateDepth == 0) {
+            throw new IllegalStateException("No update in progress.");
+        }
+        updateDepth--;
+        if (updateDepth == 0
+                && (!batchAddedSteps.isEmpty() || !batchRemovedSteps.isEmpty())) {
+            List<WizardStep> added = new ArrayList<WizardStep>(batchAddedSteps);
+            List<WizardStep> removed = new ArrayList<WizardStep>(
+                    batchRemovedSteps);
+            batchAddedSteps.clear();
+            batchRemovedSteps.clear();
+            fireStepSetChanged(added, removed);
+        }
+    }
+
+    private void stepSetChanged(WizardStep step, boolean added) {
+        if (updateDepth > 0) {
+            // collect the changes until endUpdate
+            if (added) {
+                batchAddedSteps.add(step);
+            } else if (!batchAddedSteps.remove(step)) {
+                batchRemovedSteps.add(step);
+            }
+            return;
+        }
+
+        List<WizardStep> changed = Collections.singletonList(step);
+        List<WizardStep> none = Collections.emptyList();
+        fireStepSetChanged(added ? changed : none, added ? none : changed);
+    }
+
+    private void fireStepSetChanged(List<WizardStep> added,
+            List<WizardStep> removed) {
+        restartPrefetching();
+        preloadNextView();
         updateButtons();
 
         // notify listeners
-        fireEvent(new WizardStepSetChangedEvent(this));
+        fireEvent(new WizardStepSetChangedEvent(this, added, removed));
 
         // activate the first step immediately
-        if (currentStep == null) {
-            activateStep(step);
+        if (model.getCurrentStep() == null && model.size() > 0) {
+            activateStep(model.getStep(0));
         }
     }
 
@@ -276,33 +984,144 @@ public class Wizard extends CustomComponent implements
      * @param step
      */
     public void addStep(WizardStep step) {
-        addStep(step, "wizard-step-" + stepIndex++);
+        insertStep(model.size(), step);
     }
 
-    public void addListener(WizardProgressListener listener) {
-        addListener(WizardCompletedEvent.class, listener,
-                WIZARD_COMPLETED_METHOD);
-        addListener(WizardStepActivationEvent.class, listener,
-                WIZARD_ACTIVE_STEP_CHANGED_METHOD);
-        addListener(WizardStepSetChangedEvent.class, listener,
-                WIZARD_STEP_SET_CHANGED_METHOD);
-        addListener(WizardCancelledEvent.class, listener,
-                WIZARD_CANCELLED_METHOD);
+    /**
+     * Adds a {@link WizardProgressListener} to this Wizard. Adding the same
+     * listener more than once has no effect.
+     * 
+     * @param listener
+     *            the listener to add.
+     * @return a {@link Registration} for removing the listener.
+     */
+    public Registration addListener(WizardProgressListener listener) {
+        return progressListeners.add(listener);
     }
 
     public void removeListener(WizardProgressListener listener) {
-        removeListener(WizardCompletedEvent.class, listener,
-                WIZARD_COMPLETED_METHOD);
-        removeListener(WizardStepActivationEvent.class, listener,
-                WIZARD_ACTIVE_STEP_CHANGED_METHOD);
-        removeListener(WizardStepSetChangedEvent.class, listener,
-                WIZARD_STEP_SET_CHANGED_METHOD);
-        removeListener(WizardCancelledEvent.class, listener,
-                WIZARD_CANCELLED_METHOD);
+        progressListeners.remove(listener);
+    }
+
+    /**
+     * Adds an {@link AsyncWizardListener} with a queue of
+     * {@value #DEFAULT_ASYNC_LISTENER_CAPACITY} events dropping the oldest
+     * event when full.
+     * 
+     * @param listener
+     *            the listener to add.
+     * @return a registration for removing the listener and monitoring its
+     *         queue.
+     * @see #addAsyncListener(AsyncWizardListener, int,
+     *      WizardListenerBackpressure)
+     */
+    public AsyncListenerRegistration addAsyncListener(
+            AsyncWizardListener listener) {
+        return addAsyncListener(listener, DEFAULT_ASYNC_LISTENER_CAPACITY,
+                WizardListenerBackpressure.DROP_OLDEST);
+    }
+
+    /**
+     * Adds an {@link AsyncWizardListener} that receives a
+     * {@link WizardEventSnapshot} of each step activation, step set change,
+     * completion and cancellation of this Wizard in a background thread. The
+     * events are queued in a bounded queue of the listener and delivered in
+     * order by the executor set with
+     * {@link #setAsyncListenerExecutor(Executor)}, so a slow listener, such
+     * as one sending the events to an analytics or audit service, doesn't
+     * slow down the navigation. Adding the same listener twice delivers the
+     * events twice.
+     * 
+     * @param listener
+     *            the listener to add.
+     * @param capacity
+     *            the maximum number of events waiting for the listener.
+     * @param backpressure
+     *            what to do when an event is fired while the queue is full.
+     * @return a registration for removing the listener and monitoring its
+     *         queue.
+     */
+    public AsyncListenerRegistration addAsyncListener(
+            AsyncWizardListener listener, int capacity,
+            WizardListenerBackpressure backpressure) {
+        return asyncListeners.add(listener, capacity, backpressure);
+    }
+
+    /**
+     * Sets the {@link Executor} delivering the events to the
+     * {@link AsyncWizardListener}s of this Wizard. By default the events are
+     * delivered by the executor shared with the step tasks (see
+     * {@link #setStepTaskExecutor(Executor)}). The executor is not serialized
+     * with this Wizard.
+     * 
+     * @param executor
+     *            the executor or {@code null} to use the shared default.
+     */
+    public void setAsyncListenerExecutor(Executor executor) {
+        asyncListeners.setExecutor(executor);
+    }
+
+    public Executor getAsyncListenerExecutor() {
+        return asyncListeners.getExecutor();
+    }
+
+    @Override
+    protected void fireEvent(EventObject event) {
+        if (event instanceof AbstractWizardEvent) {
+            AbstractWizardEvent wizardEvent = (AbstractWizardEvent) event;
+            long start = System.nanoTime();
+            progressListeners.fire(wizardEvent);
+            if (asyncListeners.size() > 0) {
+                WizardEventSnapshot snapshot = createSnapshot(wizardEvent);
+                if (snapshot != null) {
+                    asyncListeners.fire(snapshot);
+                }
+            }
+            getMetrics().listenersNotified(this, wizardEvent.getClass(),
+                    System.nanoTime() - start);
+        }
+        // notify also the generic component listeners
+        super.fireEvent(event);
+    }
+
+    /**
+     * Copies the data of the given event for the asynchronous listeners.
+     * 
+     * @return the snapshot or {@code null} if the event isn't delivered to the
+     *         asynchronous listeners.
+     */
+    private WizardEventSnapshot createSnapshot(AbstractWizardEvent event) {
+        WizardEventSnapshot.Type type;
+        WizardStep step = model.getCurrentStep();
+        if (event instanceof WizardStepActivationEvent) {
+            type = WizardEventSnapshot.Type.STEP_ACTIVATED;
+            step = ((WizardStepActivationEvent) event).getActivatedStep();
+        } else if (event instanceof WizardStepSetChangedEvent) {
+            type = WizardEventSnapshot.Type.STEP_SET_CHANGED;
+        } else if (event instanceof WizardCompletedEvent) {
+            type = WizardEventSnapshot.Type.COMPLETED;
+        } else if (event instanceof WizardCancelledEvent) {
+            type = WizardEventSnapshot.Type.CANCELLED;
+        } else {
+            return null;
+        }
+        return new WizardEventSnapshot(type, getId(step), model.indexOf(step),
+                model.size(), System.currentTimeMillis());
     }
 
     public List<WizardStep> getSteps() {
-        return Collections.unmodifiableList(steps);
+        return model.getSteps();
+    }
+
+    /**
+     * Returns the {@link WizardModel} holding the navigation state of this
+     * Wizard. The model must not be modified directly, as this Wizard would
+     * not be updated.
+     * 
+     * @return the navigation model of this Wizard.
+     */
+    protected WizardModel getModel() {
+        return model;
     }
 
     /**
@@ -313,7 +1132,7 @@ public class Wizard extends CustomComponent implements
      * @return {@code true} if the given step is already completed.
      */
     public boolean isCompleted(WizardStep step) {
-        return steps.indexOf(step) < steps.indexOf(currentStep);
+        return model.isCompleted(step);
     }
 
     /**
@@ -324,10 +1143,35 @@ public class Wizard extends CustomComponent implements
      * @return {@code true} if the given step is the currently active step.
      */
     public boolean isActive(WizardStep step) {
-        return (step == currentStep);
+        return model.isActive(step);
+    }
+
+    /**
+     * Returns the zero-based position of the given step in this Wizard or
+     * {@code -1} if the step is not part of this Wizard. The lookup is done in
+     * constant time.
+     * 
+     * @param step
+     *            step to look up.
+     * @return position of the given step or {@code -1}.
+     */
+    public int getStepIndex(WizardStep step) {
+        return model.indexOf(step);
     }
 
     private void updateButtons() {
+        if (controls != null) {
+            // the pending state is not announced by the events
+            controls.update();
+        }
+        if (isPending()) {
+            // navigation is disabled until the pending result is available
+            finishButton.setEnabled(false);
+            nextButton.setEnabled(false);
+            backButton.setEnabled(false);
+            return;
+        }
+        WizardStep currentStep = model.getCurrentStep();
         if (isLastStep(currentStep)) {
             finishButton.setEnabled(true);
             nextButton.setEnabled(false);
@@ -354,48 +1198,258 @@ public class Wizard extends CustomComponent implements
         return cancelButton;
     }
 
-    protected void activateStep(WizardStep step) {
-        if (step == null) {
+    protected void activateStep(final WizardStep step) {
+        if (step == null || isActive(step)) {
             return;
         }
 
+        WizardStep currentStep = model.getCurrentStep();
         if (currentStep != null) {
-            if (currentStep.equals(step)) {
-                // already active
+            if (isPending()) {
+                // still waiting for the previous navigation to be allowed
                 return;
             }
 
             // ask if we're allowed to move
-            boolean advancing = steps.indexOf(step) > steps
-                    .indexOf(currentStep);
-            if (advancing) {
-                if (!currentStep.onAdvance()) {
-                    // not allowed to advance
+            boolean advancing = model.isAdvancing(step);
+            final NavigationTrace trace = startTrace(
+                    advancing ? NavigationKind.ADVANCE : NavigationKind.BACK,
+                    step);
+            try {
+                trace.phase(NavigationPhase.GUARD);
+                if (currentStep instanceof AsyncWizardStep) {
+                    AsyncWizardStep asyncStep = (AsyncWizardStep) currentStep;
+                    awaitNavigation(advancing ? asyncStep.onAdvanceAsync()
+                            : asyncStep.onBackAsync(), true, advancing, trace,
+                            new Runnable() {
+                                public void run() {
+                                    completeActivation(step, trace);
+                                }
+                            });
                     return;
                 }
-            } else {
-                if (!currentStep.onBack()) {
-                    // not allowed to go back
+                if (!isNavigationAllowed(advancing)) {
+                    // not allowed to advance or go back
+                    trace.end(NavigationOutcome.DENIED);
                     return;
                 }
+                completeActivation(step, trace);
+            } catch (RuntimeException e) {
+                trace.end(NavigationOutcome.FAILED);
+                throw e;
             }
+            return;
+        }
+
+        completeActivation(step, NavigationTrace.NONE);
+    }
 
-            // keep track of the last step that was completed
-            int currentIndex = steps.indexOf(currentStep);
-            if (lastCompletedStep == null
-                    || steps.indexOf(lastCompletedStep) < currentIndex) {
-                lastCompletedStep = currentStep;
+    /**
+     * Asks the current step whether the user is allowed to advance or go
+     * back.
+     */
+    private boolean isNavigationAllowed(boolean advancing) {
+        long start = System.nanoTime();
+        boolean allowed = model.isNavigationAllowed(advancing);
+        getMetrics().navigationGuarded(this, getId(model.getCurrentStep()),
+                advancing, allowed, System.nanoTime() - start);
+        return allowed;
+    }
+
+    /**
+     * Returns the time spent on the current step since it was activated or
+     * since the previous call of this method.
+     */
+    private long takeDwellTime() {
+        long now = System.nanoTime();
+        long dwellTime = now - activatedAt;
+        activatedAt = now;
+        return dwellTime;
+    }
+
+    private void completeActivation(WizardStep step, NavigationTrace trace) {
+        completeActivation(step, false, null, trace);
+    }
+
+    /**
+     * Activates the given step. When restoring, the last completed step is
+     * set to the given one instead of being derived from the step left.
+     */
+    private void completeActivation(WizardStep step, boolean restoring,
+            WizardStep lastCompleted, NavigationTrace trace) {
+        // the tasks of the previous step are no longer needed
+        taskRunner.cancel();
+        taskScope.cancelAll();
+        WizardStep previousStep = model.getCurrentStep();
+        if (previousStep != null) {
+            saveScrollPosition(previousStep);
+            if (!stepLeft) {
+                getMetrics().stepDeactivated(this, getId(previousStep),
+                        takeDwellTime());
             }
-            saveScrollPosition(currentStep);
         }
 
-        contentPanel.setContent(step.getContent());
-        currentStep = step;
-        restoreScrollPosition(currentStep);
-
+        prefetcher.claim(step, contentCache);
+        trace.phase(NavigationPhase.CONTENT);
+        Component content = getContent(step);
+        trace.phase(NavigationPhase.SET_CONTENT);
+        if (viewCache != null) {
+            viewCache.show(step, content);
+        } else {
+            contentPanel.setContent(content);
+        }
+        if (restoring) {
+            model.restore(step, lastCompleted);
+        } else {
+            model.moveTo(step);
+        }
+        contentCache.setActiveStep(step);
+        activatedAt = System.nanoTime();
+        stepLeft = false;
+        abandoned = false;
+        getMetrics().stepActivated(this, getId(step));
+        trace.phase(NavigationPhase.SCROLL_RESTORE);
+        restoreScrollPosition(step);
+
+        trace.phase(NavigationPhase.URI_FRAGMENT);
         updateUriFragment();
+        trace.phase(NavigationPhase.BUTTONS);
         updateButtons();
+        if (stateStore != null) {
+            trace.phase(NavigationPhase.STATE_SAVE);
+            stateStore.save(stateKey, takeSnapshot());
+        }
+        trace.phase(NavigationPhase.LISTENERS);
         fireEvent(new WizardStepActivationEvent(this, step));
+        trace.phase(NavigationPhase.PREFETCH);
+        preloadNextView();
+        prefetchContents();
+        trace.end(NavigationOutcome.COMPLETED);
+    }
+
+    private Component getContent(WizardStep step) {
+        if (viewCache != null
+                && contentCache.getPolicy() == StepContentPolicy.ON_DEMAND
+                && viewCache.containsView(step)) {
+            // still displayed in the browser, no need for a new content
+            return viewCache.getView(step);
+        }
+        if (contentCache.isAvailable(step)) {
+            return contentCache.getContent(step);
+        }
+        long start = System.nanoTime();
+        Component content = contentCache.getContent(step);
+        getMetrics().contentCreated(this, getId(step),
+                System.nanoTime() - start);
+        return content;
+    }
+
+    /**
+     * Returns the content of the active step.
+     */
+    private Component getDisplayedContent() {
+        return viewCache != null ? viewCache.getVisibleView() : contentPanel
+                .getContent();
+    }
+
+    /**
+     * Adds the content of the next step to the view cache if enabled.
+     */
+    private void preloadNextView() {
+        if (viewCache == null || !preloadNextView
+                || model.getCurrentStep() == null) {
+            return;
+        }
+        WizardStep nextStep = model.getNextStep();
+        if (nextStep != null && !viewCache.containsView(nextStep)) {
+            prefetcher.claim(nextStep, contentCache);
+            viewCache.preload(nextStep, getContent(nextStep));
+        }
+    }
+
+    @Override
+    public void attach() {
+        super.attach();
+        if (abandoned) {
+            // the user is back on the step left when detached
+            abandoned = false;
+            stepLeft = false;
+            activatedAt = System.nanoTime();
+            getMetrics().stepActivated(this, getId(model.getCurrentStep()));
+        }
+        if (uriFragmentEnabled) {
+            registerUriFragmentListener();
+            updateUriFragment();
+        }
+        prefetchContents();
+    }
+
+    /**
+     * Removes the URI fragment listener from the {@link Page} and releases
+     * the retained contents of the inactive steps, the prefetched contents and
+     * the saved scroll positions, so that nothing outside this Wizard keeps
+     * them reachable. The content of the active step is still displayed if
+     * this Wizard is attached again.
+     * 
+     * <p>
+     * Detaching a wizard that is neither completed nor cancelled, for example
+     * when its session expires, is recorded in the metrics as leaving the
+     * active step and abandoning the wizard. Attaching it again enters the
+     * step again.
+     * </p>
+     */
+    @Override
+    public void detach() {
+        WizardStep currentStep = model.getCurrentStep();
+        if (currentStep != null && !stepLeft) {
+            String currentStepId = getId(currentStep);
+            getMetrics().stepDeactivated(this, currentStepId,
+                    takeDwellTime());
+            getMetrics().wizardAbandoned(this, currentStepId);
+            stepLeft = true;
+            abandoned = true;
+        }
+        unregisterUriFragmentListener();
+        taskRunner.cancel();
+        taskScope.cancelAll();
+        prefetcher.cancelAll();
+        contentCache.discardPrefetched();
+        contentCache.releaseAllExcept(model.getCurrentStep());
+        if (viewCache != null) {
+            viewCache.removeAllExcept(model.getCurrentStep());
+        }
+        scrollPositions.clear();
+        super.detach();
+    }
+
+    /**
+     * Starts preparing the contents of the neighbouring steps of the current
+     * step if prefetching is enabled.
+     */
+    private void prefetchContents() {
+        UI ui = getUI();
+        if (!prefetcher.isEnabled() || ui == null
+                || model.getCurrentStep() == null) {
+            return;
+        }
+
+        WizardStep nextStep = model.getNextStep();
+        WizardStep previousStep = prefetcher.isPrefetchPrevious() ? model
+                .getPreviousStep() : null;
+
+        contentCache.retainPrefetched(nextStep, previousStep);
+        prefetcher.prefetch(ui, nextStep, contentCache);
+        prefetcher.prefetch(ui, previousStep, contentCache);
+    }
+
+    /**
+     * Discards the prefetched contents and starts over, typically because the
+     * steps have changed.
+     */
+    private void restartPrefetching() {
+        prefetcher.cancelAll();
+        contentCache.discardPrefetched();
+        prefetchContents();
     }
 
     private void restoreScrollPosition(WizardStep step) {
@@ -424,53 +1478,33 @@ public class Wizard extends CustomComponent implements
     }
 
     protected void activateStep(String id) {
-        WizardStep step = idMap.get(id);
-        if (step != null) {
-            // check that we don't go past the lastCompletedStep by using the id
-            int lastCompletedIndex = lastCompletedStep == null ? -1 : steps
-                    .indexOf(lastCompletedStep);
-            int stepIndex = steps.indexOf(step);
-
-            if (lastCompletedIndex < stepIndex) {
-                activateStep(lastCompletedStep);
-            } else {
-                activateStep(step);
-            }
-        }
+        // the model prevents going past the last completed step by using the
+        // id
+        activateStep(model.resolveStep(id));
     }
 
     protected String getId(WizardStep step) {
-        for (Map.Entry<String, WizardStep> entry : idMap.entrySet()) {
-            if (entry.getValue().equals(step)) {
-                return entry.getKey();
-            }
-        }
-        return null;
+        return model.getId(step);
     }
 
     private void updateUriFragment() {
-        if (isUriFragmentEnabled()) {
-            String currentStepId = getId(currentStep);
+        if (isUriFragmentEnabled() && isAttached()) {
+            Page page = getUI().getPage();
+            String currentStepId = getId(model.getCurrentStep());
             if (currentStepId != null && currentStepId.length() > 0) {
-                Page.getCurrent().setUriFragment(currentStepId, false);
+                page.setUriFragment(currentStepId, false);
             } else {
-                Page.getCurrent().setUriFragment(null, false);
+                page.setUriFragment(null, false);
             }
         }
     }
 
     protected boolean isFirstStep(WizardStep step) {
-        if (step != null) {
-            return steps.indexOf(step) == 0;
-        }
-        return false;
+        return model.isFirstStep(step);
     }
 
     protected boolean isLastStep(WizardStep step) {
-        if (step != null && !steps.isEmpty()) {
-            return steps.indexOf(step) == (steps.size() - 1);
-        }
-        return false;
+        return model.isLastStep(step);
     }
 
     /**
@@ -478,6 +1512,34 @@ public class Wizard extends CustomComponent implements
      * method is called when user clicks the cancel button.
      */
     public void cancel() {
+        NavigationTrace trace = startTrace(NavigationKind.CANCEL, null);
+        try {
+            cancel(trace);
+        } catch (RuntimeException e) {
+            trace.end(NavigationOutcome.FAILED);
+            throw e;
+        }
+        trace.end(NavigationOutcome.COMPLETED);
+    }
+
+    private void cancel(NavigationTrace trace) {
+        clearPendingNavigation();
+        taskRunner.cancel();
+        taskScope.cancelAll();
+        prefetcher.cancelAll();
+        contentCache.discardPrefetched();
+        WizardStep currentStep = model.getCurrentStep();
+        if (currentStep != null && !stepLeft) {
+            getMetrics().stepDeactivated(this, getId(currentStep),
+                    takeDwellTime());
+        }
+        stepLeft = true;
+        getMetrics().wizardCancelled(this, getId(currentStep));
+        if (stateStore != null) {
+            trace.phase(NavigationPhase.STATE_SAVE);
+            stateStore.remove(stateKey);
+        }
+        trace.phase(NavigationPhase.LISTENERS);
         fireEvent(new WizardCancelledEvent(this));
     }
 
@@ -487,9 +1549,136 @@ public class Wizard extends CustomComponent implements
      * method is called when user clicks the finish button.
      */
     public void finish() {
-        if (isLastStep(currentStep) && currentStep.onAdvance()) {
-            // next (finish) allowed -> fire complete event
-            fireEvent(new WizardCompletedEvent(this));
+        WizardStep currentStep = model.getCurrentStep();
+        if (!isLastStep(currentStep) || isPending()) {
+            return;
+        }
+        if (awaitStepTask(new Runnable() {
+            public void run() {
+                finish();
+            }
+        })) {
+            return;
+        }
+        final NavigationTrace trace = startTrace(NavigationKind.FINISH, null);
+        try {
+            trace.phase(NavigationPhase.GUARD);
+            if (currentStep instanceof AsyncWizardStep) {
+                awaitNavigation(
+                        ((AsyncWizardStep) currentStep).onAdvanceAsync(),
+                        true, true, trace, new Runnable() {
+                            public void run() {
+                                complete(trace);
+                            }
+                        });
+            } else if (isNavigationAllowed(true)) {
+                // next (finish) allowed -> fire complete event
+                complete(trace);
+            } else {
+                trace.end(NavigationOutcome.DENIED);
+            }
+        } catch (RuntimeException e) {
+            trace.end(NavigationOutcome.FAILED);
+            throw e;
+        }
+    }
+
+    private void complete(NavigationTrace trace) {
+        taskScope.cancelAll();
+        String currentStepId = getId(model.getCurrentStep());
+        if (!stepLeft) {
+            getMetrics().stepDeactivated(this, currentStepId,
+                    takeDwellTime());
+        }
+        stepLeft = true;
+        getMetrics().wizardCompleted(this, currentStepId);
+        if (stateStore != null) {
+            trace.phase(NavigationPhase.STATE_SAVE);
+            stateStore.remove(stateKey);
+        }
+        trace.phase(NavigationPhase.LISTENERS);
+        fireEvent(new WizardCompletedEvent(this));
+        trace.end(NavigationOutcome.COMPLETED);
+    }
+
+    /**
+     * Returns {@code true} if this Wizard is waiting for an
+     * {@link AsyncWizardStep} to allow or deny a navigation.
+     * 
+     * @return {@code true} if a navigation is pending.
+     */
+    public boolean isPending() {
+        return pendingNavigation != null;
+    }
+
+    /**
+     * Disables the navigation until the given result of an
+     * {@link AsyncWizardStep} is available and then runs the given navigation
+     * under the session lock if it was allowed. Only the results of the
+     * guards of the steps are recorded as guarded navigations in the metrics.
+     */
+    private void awaitNavigation(CompletionStage<Boolean> allowed,
+            final boolean guarded, final boolean advancing,
+            final NavigationTrace trace,
+            final Runnable navigation) {
+        final String stepId = getId(model.getCurrentStep());
+        final long start = System.nanoTime();
+        final Object token = new Object();
+        pendingNavigation = token;
+        addStyleName("pending");
+        updateButtons();
+
+        final UI ui = getUI();
+        allowed.whenComplete(new BiConsumer<Boolean, Throwable>() {
+            public void accept(final Boolean result, final Throwable failure) {
+                Runnable completion = new Runnable() {
+                    public void run() {
+                        if (pendingNavigation != token) {
+                            // cancelled meanwhile
+                            trace.end(NavigationOutcome.ABANDONED);
+                            return;
+                        }
+                        clearPendingNavigation();
+                        if (guarded) {
+                            getMetrics().navigationGuarded(Wizard.this,
+                                    stepId, advancing, failure == null
+                                            && Boolean.TRUE.equals(result),
+                                    System.nanoTime() - start);
+                        }
+                        if (failure != null) {
+                            trace.end(NavigationOutcome.FAILED);
+                            handleError(failure);
+                        } else if (Boolean.TRUE.equals(result)) {
+                            try {
+                                navigation.run();
+                            } catch (RuntimeException e) {
+                                trace.end(NavigationOutcome.FAILED);
+                                throw e;
+                            }
+                        } else {
+                            trace.end(NavigationOutcome.DENIED);
+                        }
+                    }
+                };
+                // nothing to complete if the wizard is gone
+                TaskExecutors.access(ui, completion);
+            }
+        });
+    }
+
+    private void handleError(Throwable failure) {
+        ErrorHandler errorHandler = com.vaadin.server.ErrorEvent
+                .findErrorHandler(this);
+        if (errorHandler != null) {
+            errorHandler.error(new com.vaadin.server.ErrorEvent(failure));
+        }
+    }
+
+    private void clearPendingNavigation() {
+        if (pendingNavigation != null) {
+            pendingNavigation = null;
+            removeStyleName("pending");
+            updateButtons();
         }
     }
 
@@ -500,11 +1689,17 @@ public class Wizard extends CustomComponent implements
      * is called when user clicks the next button.
      */
     public void next() {
-        if (isLastStep(currentStep)) {
+        if (awaitStepTask(new Runnable() {
+            public void run() {
+                next();
+            }
+        })) {
+            return;
+        }
+        if (isLastStep(model.getCurrentStep())) {
             finish();
         } else {
-            int currentIndex = steps.indexOf(currentStep);
-            activateStep(steps.get(currentIndex + 1));
+            activateStep(model.getNextStep());
         }
     }
 
@@ -514,19 +1709,16 @@ public class Wizard extends CustomComponent implements
      * the first step. This method is called when user clicks the back button.
      */
     public void back() {
-        int currentIndex = steps.indexOf(currentStep);
-        if (currentIndex > 0) {
-            activateStep(steps.get(currentIndex - 1));
-        }
+        activateStep(model.getPreviousStep());
     }
 
     @Override
     public void uriFragmentChanged(UriFragmentChangedEvent event) {
         if (isUriFragmentEnabled()) {
             String fragment = event.getUriFragment();
-            if ((fragment == null || fragment.equals("")) && !steps.isEmpty()) {
+            if ((fragment == null || fragment.equals("")) && model.size() > 0) {
                 // empty fragment -> set the fragment of first step
-                Page.getCurrent().setUriFragment(getId(steps.get(0)));
+                event.getPage().setUriFragment(getId(model.getStep(0)));
             } else {
                 activateStep(fragment);
             }
@@ -544,14 +1736,10 @@ public class Wizard extends CustomComponent implements
      * @see #isActive(WizardStep)
      */
     public void removeStep(WizardStep stepToRemove) {
-        if (idMap.containsValue(stepToRemove)) {
-            for (Map.Entry<String, WizardStep> entry : idMap.entrySet()) {
-                if (entry.getValue().equals(stepToRemove)) {
-                    // delegate the actual removal to the overloaded method
-                    removeStep(entry.getKey());
-                    return;
-                }
-            }
+        String id = getId(stepToRemove);
+        if (id != null) {
+            // delegate the actual removal to the overloaded method
+            removeStep(id);
         }
     }
 
@@ -566,23 +1754,48 @@ public class Wizard extends CustomComponent implements
      * @see #isActive(WizardStep)
      */
     public void removeStep(String id) {
-        if (idMap.containsKey(id)) {
-            WizardStep stepToRemove = idMap.get(id);
-            if (isCompleted(stepToRemove)) {
-                throw new IllegalStateException(
-                        "Already completed step cannot be removed.");
-            }
-            if (isActive(stepToRemove)) {
-                throw new IllegalStateException(
-                        "Currently active step cannot be removed.");
+        WizardStep stepToRemove = model.removeStep(id);
+        if (stepToRemove != null) {
+            scrollPositions.remove(stepToRemove);
+            contentCache.stepRemoved(stepToRemove);
+            if (viewCache != null) {
+                viewCache.remove(stepToRemove);
             }
+            stepSetChanged(stepToRemove, false);
+        }
+    }
 
-            idMap.remove(id);
-            steps.remove(stepToRemove);
+    /**
+     * Writes the saved scroll positions as primitives referring to the steps
+     * by their positions. The navigation state is written by the
+     * {@link WizardModel}.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+
+        out.writeInt(scrollPositions.size());
+        for (Map.Entry<WizardStep, ScrollPosition> entry : scrollPositions
+                .entrySet()) {
+            out.writeInt(model.indexOf(entry.getKey()));
+            out.writeInt(entry.getValue().scrollTop);
+            out.writeInt(entry.getValue().scrollLeft);
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException,
+            ClassNotFoundException {
+        in.defaultReadObject();
 
-            // notify listeners
-            fireEvent(new WizardStepSetChangedEvent(this));
+        int scrollPositionCount = in.readInt();
+        scrollPositions = new HashMap<WizardStep, ScrollPosition>();
+        for (int i = 0; i < scrollPositionCount; i++) {
+            WizardStep step = model.getStep(in.readInt());
+            scrollPositions.put(step,
+                    new ScrollPosition(in.readInt(), in.readInt()));
         }
+
+        // the dwell time of the current step starts over
+        activatedAt = System.nanoTime();
     }
 
 }
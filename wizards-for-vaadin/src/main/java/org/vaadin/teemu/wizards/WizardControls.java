@@ -0,0 +1,192 @@
+package org.vaadin.teemu.wizards;
+
+import org.vaadin.teemu.wizards.client.WizardControlsServerRpc;
+import org.vaadin.teemu.wizards.client.WizardControlsState;
+import org.vaadin.teemu.wizards.event.WizardCancelledEvent;
+import org.vaadin.teemu.wizards.event.WizardCompletedEvent;
+import org.vaadin.teemu.wizards.event.WizardProgressListener;
+import org.vaadin.teemu.wizards.event.WizardStepActivationEvent;
+import org.vaadin.teemu.wizards.event.WizardStepSetChangedEvent;
+import org.vaadin.teemu.wizards.event.WizardStepTaskEvent;
+import org.vaadin.teemu.wizards.event.WizardStepTaskListener;
+
+import com.vaadin.annotations.StyleSheet;
+import com.vaadin.ui.AbstractComponent;
+import com.vaadin.ui.Button;
+
+/**
+ * Navigation buttons and progress of a {@link Wizard} rendered by a single
+ * client-side connector. Instead of the four {@link Button}s of the footer and
+ * the components of the {@link WizardProgressBar}, only the captions of the
+ * steps and the indices of the current and the furthest completed step are
+ * sent to the client, which enables the buttons and renders the progress
+ * itself. The server only runs the guards of the steps and swaps the content.
+ *
+ * <p>
+ * Enabled with {@link Wizard#setClientSideControls(boolean)}. Requires the
+ * {@code org.vaadin.teemu.wizards.WizardsWidgetset} to be included in the
+ * widgetset of the application.
+ * </p>
+ *
+ * <p>
+ * The captions and the visibility of the buttons are taken from the buttons
+ * of the wizard, such as {@link Wizard#getNextButton()}. A navigation request
+ * from the client is ignored if the corresponding button of the wizard is
+ * disabled or hidden.
+ * </p>
+ */
+@SuppressWarnings("serial")
+@StyleSheet({ "wizard-progress-bar.css", "wizard-controls.css" })
+public class WizardControls extends AbstractComponent implements
+        WizardProgressListener, WizardStepTaskListener {
+
+    private final Wizard wizard;
+
+    public WizardControls(final Wizard wizard) {
+        this.wizard = wizard;
+        setPrimaryStyleName("wizard-controls");
+        setWidth("100%");
+
+        registerRpc(new WizardControlsServerRpc() {
+            public void cancel() {
+                if (isAllowed(wizard.getCancelButton())) {
+                    wizard.cancel();
+                }
+            }
+
+            public void back() {
+                if (isAllowed(wizard.getBackButton())) {
+                    wizard.back();
+                }
+            }
+
+            public void next() {
+                if (isAllowed(wizard.getNextButton())) {
+                    wizard.next();
+                }
+            }
+
+            public void finish() {
+                if (isAllowed(wizard.getFinishButton())) {
+                    wizard.finish();
+                }
+            }
+        });
+        update();
+    }
+
+    private static boolean isAllowed(Button button) {
+        return button.isEnabled() && button.isVisible();
+    }
+
+    /**
+     * Sets whether the progress of the wizard is displayed above the buttons.
+     * Hide the progress if the wizard has a header of its own.
+     *
+     * @param progressVisible
+     *            {@code false} to only display the buttons.
+     */
+    public void setProgressVisible(boolean progressVisible) {
+        if (getState(false).progressVisible != progressVisible) {
+            getState().progressVisible = progressVisible;
+        }
+    }
+
+    public boolean isProgressVisible() {
+        return getState(false).progressVisible;
+    }
+
+    @Override
+    protected WizardControlsState getState() {
+        return (WizardControlsState) super.getState();
+    }
+
+    @Override
+    protected WizardControlsState getState(boolean markAsDirty) {
+        return (WizardControlsState) super.getState(markAsDirty);
+    }
+
+    /**
+     * Updates the shared state from the wizard. The state is only marked
+     * dirty if something has changed.
+     */
+    void update() {
+        WizardControlsState state = getState(false);
+        if (WizardProgressStates.update(wizard.getModel(), state)) {
+            markAsDirty();
+        }
+        boolean pending = wizard.isPending();
+        if (pending != state.pending) {
+            getState().pending = pending;
+        }
+
+        String cancelCaption = getCaption(wizard.getCancelButton());
+        if (!equals(cancelCaption, state.cancelCaption)) {
+            getState().cancelCaption = cancelCaption;
+        }
+        String backCaption = getCaption(wizard.getBackButton());
+        if (!equals(backCaption, state.backCaption)) {
+            getState().backCaption = backCaption;
+        }
+        String nextCaption = getCaption(wizard.getNextButton());
+        if (!equals(nextCaption, state.nextCaption)) {
+            getState().nextCaption = nextCaption;
+        }
+        String finishCaption = getCaption(wizard.getFinishButton());
+        if (!equals(finishCaption, state.finishCaption)) {
+            getState().finishCaption = finishCaption;
+        }
+    }
+
+    /**
+     * Returns the caption of the given button or {@code null} if the button
+     * is hidden, in which case it's not rendered on the client.
+     */
+    private static String getCaption(Button button) {
+        return button.isVisible() ? button.getCaption() : null;
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    @Override
+    public void beforeClientResponse(boolean initial) {
+        super.beforeClientResponse(initial);
+        if (initial) {
+            // the button captions may have been changed after the creation
+            update();
+        }
+    }
+
+    @Override
+    public void activeStepChanged(WizardStepActivationEvent event) {
+        update();
+    }
+
+    @Override
+    public void stepSetChanged(WizardStepSetChangedEvent event) {
+        update();
+    }
+
+    @Override
+    public void wizardCompleted(WizardCompletedEvent event) {
+        if (!getState(false).finished) {
+            getState().finished = true;
+        }
+    }
+
+    @Override
+    public void wizardCancelled(WizardCancelledEvent event) {
+        // NOP, no need to react to cancellation
+    }
+
+    @Override
+    public void stepTaskProgress(WizardStepTaskEvent event) {
+        float taskProgress = event.isRunning() ? event.getProgress() : -1;
+        if (taskProgress != getState(false).taskProgress) {
+            getState().taskProgress = taskProgress;
+        }
+    }
+
+}
@@ -0,0 +1,252 @@
+package org.vaadin.teemu.wizards;
+
+import java.io.InvalidObjectException;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Immutable structure of a wizard: the order, identifiers and captions of the
+ * steps and the factories creating them. A definition is typically built once
+ * per application and shared by the wizards of all the sessions, so that each
+ * {@link Wizard} only keeps the step instances it has created and its
+ * position. The steps are created when they are first needed, see
+ * {@link Wizard#Wizard(WizardDefinition)}.
+ * 
+ * <pre>
+ * static final WizardDefinition DEFINITION = new WizardDefinition.Builder()
+ *         .addStep(&quot;intro&quot;, &quot;Intro&quot;, IntroStep::new)
+ *         .addStep(&quot;setup&quot;, &quot;Setup&quot;, SetupStep::new).build();
+ * ...
+ * Wizard wizard = new Wizard(DEFINITION);
+ * </pre>
+ * 
+ * <p>
+ * A definition built with a name, see {@link Builder#Builder(String)}, is
+ * serialized as a reference to that name and resolved to the definition built
+ * with the same name in the deserializing JVM, so the sessions never carry the
+ * definition or its factories. Such a definition must therefore be built
+ * before the sessions are deserialized, for example when the application
+ * starts. A definition without a name is serialized with each session and each
+ * deserialized session gets its own copy, which requires the factories to be
+ * serializable.
+ * </p>
+ * 
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ */
+@SuppressWarnings("serial")
+public final class WizardDefinition implements Serializable {
+
+    private static final ConcurrentMap<String, WizardDefinition> namedDefinitions = new ConcurrentHashMap<String, WizardDefinition>();
+
+    private final String name;
+    private final String[] ids;
+    private final String[] captions;
+    private final WizardStepFactory[] factories;
+    private final Map<String, Integer> indices;
+
+    private WizardDefinition(Builder builder) {
+        name = builder.name;
+        int size = builder.ids.size();
+        ids = builder.ids.toArray(new String[size]);
+        captions = builder.captions.toArray(new String[size]);
+        factories = builder.factories
+                .toArray(new WizardStepFactory[size]);
+        Map<String, Integer> indices = new HashMap<String, Integer>();
+        for (int i = 0; i < size; i++) {
+            indices.put(ids[i], i);
+        }
+        this.indices = Collections.unmodifiableMap(indices);
+    }
+
+    /**
+     * Returns the name this definition is serialized by or {@code null} if
+     * the definition is serialized in full.
+     * 
+     * @return the name of this definition or {@code null}.
+     */
+    public String getName() {
+        return name;
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public String getId(int index) {
+        return ids[index];
+    }
+
+    /**
+     * Returns the caption displayed for the step at the given position until
+     * the step is created. After that the caption of the step instance is
+     * used.
+     * 
+     * @param index
+     *            zero-based position of the step.
+     * @return the caption of the step.
+     */
+    public String getCaption(int index) {
+        return captions[index];
+    }
+
+    /**
+     * Returns the zero-based position of the step with the given identifier
+     * or {@code -1} if there is no such step.
+     * 
+     * @param id
+     *            identifier of the step.
+     * @return position of the step or {@code -1}.
+     */
+    public int indexOf(String id) {
+        Integer index = indices.get(id);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * Creates a new instance of the step at the given position.
+     * 
+     * @param index
+     *            zero-based position of the step.
+     * @return a new step instance.
+     * @throws IllegalStateException
+     *             if the factory returns {@code null}.
+     */
+    public WizardStep createStep(int index) {
+        WizardStep step = factories[index].createStep();
+        if (step == null) {
+            throw new IllegalStateException("The factory of step " + ids[index]
+                    + " returned null.");
+        }
+        return step;
+    }
+
+    private Object writeReplace() throws ObjectStreamException {
+        return name != null ? new NamedReference(name) : this;
+    }
+
+    /**
+     * Serialized form of a named definition.
+     */
+    private static class NamedReference implements Serializable {
+
+        private final String name;
+
+        NamedReference(String name) {
+            this.name = name;
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            WizardDefinition definition = namedDefinitions.get(name);
+            if (definition == null) {
+                throw new InvalidObjectException("No WizardDefinition named "
+                        + name + " has been built.");
+            }
+            return definition;
+        }
+    }
+
+    /**
+     * Collects the steps of a {@link WizardDefinition}. A builder is not
+     * thread-safe.
+     */
+    public static class Builder {
+
+        private final String name;
+        private final List<String> ids = new ArrayList<String>();
+        // for checking the uniqueness without scanning the list
+        private final Set<String> idSet = new HashSet<String>();
+        private final List<String> captions = new ArrayList<String>();
+        private final List<WizardStepFactory> factories = new ArrayList<WizardStepFactory>();
+
+        /**
+         * Creates a builder of a definition that is serialized in full with
+         * each session.
+         */
+        public Builder() {
+            name = null;
+        }
+
+        /**
+         * Creates a builder of a definition that is serialized as a reference
+         * to the given name. Building the definition registers it with the
+         * name, replacing a definition built earlier with the same name, for
+         * example by a redeployed application.
+         * 
+         * @param name
+         *            name identifying the definition in the application.
+         * @throws IllegalArgumentException
+         *             if the {@code name} is {@code null}.
+         */
+        public Builder(String name) {
+            if (name == null) {
+                throw new IllegalArgumentException("Name cannot be null.");
+            }
+            this.name = name;
+        }
+
+        /**
+         * Adds a step with a generated identifier.
+         * 
+         * @param caption
+         *            caption of the step.
+         * @param factory
+         *            factory creating the step instances.
+         * @return this builder.
+         */
+        public Builder addStep(String caption, WizardStepFactory factory) {
+            return addStep("wizard-step-" + (ids.size() + 1), caption, factory);
+        }
+
+        /**
+         * Adds a step with the given identifier.
+         * 
+         * @param id
+         *            unique identifier of the step.
+         * @param caption
+         *            caption of the step.
+         * @param factory
+         *            factory creating the step instances.
+         * @return this builder.
+         * @throws IllegalArgumentException
+         *             if the given {@code id} already exists or the
+         *             {@code factory} is {@code null}.
+         */
+        public Builder addStep(String id, String caption,
+                WizardStepFactory factory) {
+            if (idSet.contains(id)) {
+                throw new IllegalArgumentException(
+                        String.format(
+                                "A step with given id %s already exists. You must use unique identifiers for the steps.",
+                                id));
+            }
+            if (factory == null) {
+                throw new IllegalArgumentException("Factory cannot be null.");
+            }
+            ids.add(id);
+            idSet.add(id);
+            captions.add(caption);
+            factories.add(factory);
+            return this;
+        }
+
+        public WizardDefinition build() {
+            WizardDefinition definition = new WizardDefinition(this);
+            if (name != null) {
+                namedDefinitions.put(name, definition);
+            }
+            return definition;
+        }
+    }
+
+}
@@ -0,0 +1,36 @@
+package org.vaadin.teemu.wizards;
+
+import org.vaadin.teemu.wizards.event.AsyncWizardListener;
+
+/**
+ * Decides what happens when an event is fired while the queue of an
+ * {@link AsyncWizardListener} is full.
+ */
+public enum WizardListenerBackpressure {
+
+    /**
+     * The oldest queued event is dropped to make room for the new one. The
+     * navigation is never slowed down by the listener.
+     */
+    DROP_OLDEST,
+
+    /**
+     * The thread firing the event waits until there is room in the queue. No
+     * events are lost unless the listener is stuck, but a slow listener slows
+     * down the navigation as the request thread waits holding the session
+     * lock. The thread waits at most ten seconds per event, after which the
+     * event is dropped.
+     */
+    BLOCK,
+
+    /**
+     * The latest queued event of the same type is replaced by the new one, so
+     * for example only the latest of successive step activations is
+     * delivered. The new event takes the place of the replaced event in the
+     * queue, so it's delivered before the events of other types queued after
+     * the replaced one. If there is no such event, the oldest queued event is
+     * dropped.
+     */
+    COALESCE
+
+}
@@ -0,0 +1,670 @@
+package org.vaadin.teemu.wizards;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Navigation state of a wizard without any user interface: the ordered steps
+ * with their identifiers, the currently active step and the furthest step
+ * completed by the user.
+ *
+ * <p>
+ * The {@link Wizard} component delegates its navigation rules to this class.
+ * It can also be used on its own, for example to simulate or test navigation
+ * flows without a {@link com.vaadin.ui.UI}. The steps are not asked for their
+ * content. Navigating does not allocate, so millions of transitions can be
+ * simulated per second.
+ * </p>
+ *
+ * <pre>
+ * WizardModel model = new WizardModel();
+ * model.addStep(new FirstStep(), &quot;first&quot;);
+ * model.addStep(new SecondStep(), &quot;second&quot;);
+ * model.next(); // activates the first step
+ * model.next(); // asks the first step and activates the second one
+ * </pre>
+ *
+ * <p>
+ * A model created from a {@link WizardDefinition} shares the structure of the
+ * steps with the other models created from the same definition and only
+ * creates the step instances when they are first needed. When steps are added
+ * or removed, the remaining steps of the definition are created and the
+ * model continues on its own.
+ * </p>
+ *
+ * <p>
+ * This class is not thread-safe.
+ * </p>
+ */
+@SuppressWarnings("serial")
+public class WizardModel implements Serializable {
+
+    // The state is serialized in a compact form by writeObject. Therefore
+    // these fields are transient and not final.
+    private transient List<WizardStep> steps = new ArrayList<WizardStep>();
+    private transient List<WizardStep> unmodifiableSteps = new StepList();
+    private transient Map<String, WizardStep> idMap = new HashMap<String, WizardStep>();
+    private transient Map<WizardStep, String> stepIds = new HashMap<WizardStep, String>();
+    private transient Map<WizardStep, Integer> stepIndices = new HashMap<WizardStep, Integer>();
+
+    // The shared structure and the created instances of the steps until the
+    // steps are modified, after which the fields above are used instead.
+    // Only stepIndices is used in both cases, containing the created
+    // instances of a definition.
+    private transient WizardDefinition definition;
+    private transient WizardStep[] definedSteps;
+
+    private transient WizardStep currentStep;
+    private transient WizardStep lastCompletedStep;
+
+    private int stepIndex = 1;
+
+    /**
+     * Read-only view of the steps creating the steps of a definition as they
+     * are accessed.
+     */
+    private class StepList extends AbstractList<WizardStep> implements
+            RandomAccess {
+
+        @Override
+        public WizardStep get(int index) {
+            return getStep(index);
+        }
+
+        @Override
+        public int size() {
+            return WizardModel.this.size();
+        }
+    }
+
+    /**
+     * Creates an empty model.
+     */
+    public WizardModel() {
+    }
+
+    /**
+     * Creates a model with the steps of the given definition. The steps are
+     * created when they are first needed.
+     *
+     * @param definition
+     *            the definition of the steps.
+     */
+    public WizardModel(WizardDefinition definition) {
+        this.definition = definition;
+        definedSteps = new WizardStep[definition.size()];
+    }
+
+    /**
+     * Adds a step with a generated identifier.
+     *
+     * @param step
+     * @return the generated identifier of the step.
+     */
+    public String addStep(WizardStep step) {
+        return insertStep(size(), step);
+    }
+
+    /**
+     * Adds a step with the given identifier.
+     *
+     * @param step
+     * @param id
+     * @see #insertStep(int, WizardStep, String)
+     */
+    public void addStep(WizardStep step, String id) {
+        insertStep(size(), step, id);
+    }
+
+    /**
+     * Inserts a step at the given position with a generated identifier.
+     *
+     * @param position
+     *            zero-based position of the new step.
+     * @param step
+     * @return the generated identifier of the step.
+     * @see #insertStep(int, WizardStep, String)
+     */
+    public String insertStep(int position, WizardStep step) {
+        materialize();
+        String id;
+        do {
+            id = "wizard-step-" + stepIndex++;
+        } while (idMap.containsKey(id));
+        insertStep(position, step, id);
+        return id;
+    }
+
+    /**
+     * Inserts a step at the given position with the given identifier. The
+     * steps at and after the given position are shifted one position forward.
+     * A step cannot be inserted before or at the position of the currently
+     * active step, as it would then appear already completed.
+     *
+     * @param position
+     *            zero-based position of the new step.
+     * @param step
+     * @param id
+     * @throws IllegalArgumentException
+     *             if the given {@code id} or {@code step} already exists.
+     * @throws IndexOutOfBoundsException
+     *             if the given {@code position} is out of range.
+     * @throws IllegalStateException
+     *             if the given {@code position} is not after the currently
+     *             active step.
+     */
+    public void insertStep(int position, WizardStep step, String id) {
+        materialize();
+        if (idMap.containsKey(id)) {
+            throw new IllegalArgumentException(
+                    String.format(
+                            "A step with given id %s already exists. You must use unique identifiers for the steps.",
+                            id));
+        }
+        if (stepIndices.containsKey(step)) {
+            throw new IllegalArgumentException(
+                    "The given step is already added to this Wizard.");
+        }
+        if (position < 0 || position > steps.size()) {
+            throw new IndexOutOfBoundsException(String.format(
+                    "Position %d is out of range [0, %d].", position,
+                    steps.size()));
+        }
+        if (currentStep != null && position <= indexOf(currentStep)) {
+            throw new IllegalStateException(
+                    "A step cannot be inserted before the currently active step.");
+        }
+
+        steps.add(position, step);
+        idMap.put(id, step);
+        stepIds.put(step, id);
+        reindexSteps(position);
+    }
+
+    /**
+     * Removes the step with the given identifier.
+     *
+     * @param id
+     *            identifier of the step to remove.
+     * @return the removed step or {@code null} if there is no step with the
+     *         given identifier.
+     * @throws IllegalStateException
+     *             if the step is already completed or is the currently active
+     *             step.
+     */
+    public WizardStep removeStep(String id) {
+        if (indexOfId(id) < 0) {
+            return null;
+        }
+        materialize();
+        WizardStep stepToRemove = idMap.get(id);
+        if (isCompleted(stepToRemove)) {
+            throw new IllegalStateException(
+                    "Already completed step cannot be removed.");
+        }
+        if (isActive(stepToRemove)) {
+            throw new IllegalStateException(
+                    "Currently active step cannot be removed.");
+        }
+
+        int index = indexOf(stepToRemove);
+        idMap.remove(id);
+        stepIds.remove(stepToRemove);
+        stepIndices.remove(stepToRemove);
+        steps.remove(index);
+        reindexSteps(index);
+        return stepToRemove;
+    }
+
+    /**
+     * Creates the remaining steps of the definition and moves them to the
+     * modifiable structure of this model.
+     */
+    private void materialize() {
+        if (definition == null) {
+            return;
+        }
+        for (int i = 0; i < definedSteps.length; i++) {
+            WizardStep step = getStep(i);
+            String id = definition.getId(i);
+            steps.add(step);
+            idMap.put(id, step);
+            stepIds.put(step, id);
+        }
+        definition = null;
+        definedSteps = null;
+    }
+
+    /**
+     * Returns the step of the definition at the given position, creating it
+     * if necessary.
+     */
+    private WizardStep getDefinedStep(int index) {
+        WizardStep step = definedSteps[index];
+        if (step == null) {
+            step = definition.createStep(index);
+            definedSteps[index] = step;
+            stepIndices.put(step, index);
+        }
+        return step;
+    }
+
+    /**
+     * Updates the cached positions of the steps starting from the given
+     * position.
+     */
+    private void reindexSteps(int fromIndex) {
+        for (int i = fromIndex; i < steps.size(); i++) {
+            stepIndices.put(steps.get(i), i);
+        }
+    }
+
+    /**
+     * Returns an unmodifiable view of the steps in order. The steps of a
+     * definition are created as they are accessed through the view.
+     *
+     * @return the steps.
+     */
+    public List<WizardStep> getSteps() {
+        return unmodifiableSteps;
+    }
+
+    public int size() {
+        return definition != null ? definedSteps.length : steps.size();
+    }
+
+    /**
+     * Returns the step at the given zero-based position.
+     *
+     * @param index
+     *            position of the step.
+     * @return the step at the given position.
+     * @throws IndexOutOfBoundsException
+     *             if the given {@code index} is out of range.
+     */
+    public WizardStep getStep(int index) {
+        if (definition != null) {
+            if (index < 0 || index >= definedSteps.length) {
+                throw new IndexOutOfBoundsException("Index: " + index
+                        + ", Size: " + definedSteps.length);
+            }
+            return getDefinedStep(index);
+        }
+        return steps.get(index);
+    }
+
+    /**
+     * Returns the step with the given identifier or {@code null}.
+     *
+     * @param id
+     *            identifier of the step.
+     * @return the step or {@code null}.
+     */
+    public WizardStep getStep(String id) {
+        if (definition != null) {
+            int index = definition.indexOf(id);
+            return index >= 0 ? getDefinedStep(index) : null;
+        }
+        return idMap.get(id);
+    }
+
+    /**
+     * Returns the identifier of the given step or {@code null} if the step is
+     * not part of this model.
+     *
+     * @param step
+     * @return the identifier or {@code null}.
+     */
+    public String getId(WizardStep step) {
+        if (definition != null) {
+            int index = indexOf(step);
+            return index >= 0 ? definition.getId(index) : null;
+        }
+        return step != null ? stepIds.get(step) : null;
+    }
+
+    /**
+     * Returns the identifier of the step at the given position without
+     * creating the step.
+     *
+     * @param index
+     *            zero-based position of the step.
+     * @return the identifier of the step.
+     */
+    public String getId(int index) {
+        if (definition != null) {
+            return definition.getId(index);
+        }
+        return stepIds.get(steps.get(index));
+    }
+
+    /**
+     * Returns the zero-based position of the step with the given identifier
+     * or {@code -1} if there is no such step. The step is not created.
+     *
+     * @param id
+     *            identifier of the step.
+     * @return position of the step or {@code -1}.
+     */
+    public int indexOfId(String id) {
+        if (definition != null) {
+            return definition.indexOf(id);
+        }
+        return indexOf(idMap.get(id));
+    }
+
+    /**
+     * Returns the caption of the step at the given position. The caption of
+     * a step of a definition that is not created yet is read from the
+     * definition.
+     *
+     * @param index
+     *            zero-based position of the step.
+     * @return the caption of the step.
+     */
+    public String getCaption(int index) {
+        if (definition != null && definedSteps[index] == null) {
+            return definition.getCaption(index);
+        }
+        return getStep(index).getCaption();
+    }
+
+    /**
+     * Returns the zero-based position of the given step or {@code -1} if the
+     * step is not part of this model. The lookup is done in constant time.
+     *
+     * @param step
+     *            step to look up.
+     * @return position of the given step or {@code -1}.
+     */
+    public int indexOf(WizardStep step) {
+        if (step == null) {
+            return -1;
+        }
+        Integer index = stepIndices.get(step);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * Returns the currently active step or {@code null} if no step is active
+     * yet.
+     *
+     * @return the active step or {@code null}.
+     */
+    public WizardStep getCurrentStep() {
+        return currentStep;
+    }
+
+    /**
+     * Returns the position of the active step or {@code -1} if no step is
+     * active.
+     *
+     * @return position of the active step or {@code -1}.
+     */
+    public int getCurrentIndex() {
+        return indexOf(currentStep);
+    }
+
+    /**
+     * Returns the furthest step the user has completed or {@code null} if no
+     * step is completed.
+     *
+     * @return the last completed step or {@code null}.
+     */
+    public WizardStep getLastCompletedStep() {
+        return lastCompletedStep;
+    }
+
+    public boolean isCompleted(WizardStep step) {
+        return indexOf(step) < indexOf(currentStep);
+    }
+
+    public boolean isActive(WizardStep step) {
+        return step == currentStep;
+    }
+
+    public boolean isFirstStep(WizardStep step) {
+        return step != null && indexOf(step) == 0;
+    }
+
+    public boolean isLastStep(WizardStep step) {
+        return step != null && indexOf(step) == size() - 1;
+    }
+
+    /**
+     * Returns the step following the active step or the first step if no
+     * step is active. Returns {@code null} if there is no such step.
+     *
+     * @return the next step or {@code null}.
+     */
+    public WizardStep getNextStep() {
+        int nextIndex = indexOf(currentStep) + 1;
+        return nextIndex < size() ? getStep(nextIndex) : null;
+    }
+
+    /**
+     * Returns the step preceding the active step or {@code null} if there is
+     * no such step.
+     *
+     * @return the previous step or {@code null}.
+     */
+    public WizardStep getPreviousStep() {
+        int previousIndex = indexOf(currentStep) - 1;
+        return previousIndex >= 0 ? getStep(previousIndex) : null;
+    }
+
+    /**
+     * Returns {@code true} if activating the given step moves forward from
+     * the active step.
+     *
+     * @param target
+     * @return {@code true} if the given step is after the active step.
+     */
+    public boolean isAdvancing(WizardStep target) {
+        return indexOf(target) > indexOf(currentStep);
+    }
+
+    /**
+     * Returns the step that should be activated when navigating directly to
+     * the given identifier, for example through the URI fragment. The user
+     * cannot skip steps this way, so a step after the last completed step is
+     * resolved to the last completed step.
+     *
+     * @param id
+     *            identifier of the requested step.
+     * @return the step to activate or {@code null} if there is none.
+     */
+    public WizardStep resolveStep(String id) {
+        int index = indexOfId(id);
+        if (index < 0) {
+            return null;
+        }
+        return indexOf(lastCompletedStep) < index ? lastCompletedStep
+                : getStep(index);
+    }
+
+    /**
+     * Asks the active step whether leaving it in the given direction is
+     * allowed (see {@link WizardStep#onAdvance()} and
+     * {@link WizardStep#onBack()}). Returns {@code true} if no step is active.
+     *
+     * @param advancing
+     *            {@code true} for advancing, {@code false} for going back.
+     * @return {@code true} if the navigation is allowed.
+     */
+    public boolean isNavigationAllowed(boolean advancing) {
+        if (currentStep == null) {
+            return true;
+        }
+        return advancing ? currentStep.onAdvance() : currentStep.onBack();
+    }
+
+    /**
+     * Activates the given step if the active step allows leaving it.
+     *
+     * @param target
+     *            the step to activate.
+     * @return {@code true} if the given step was activated.
+     * @see #isNavigationAllowed(boolean)
+     */
+    public boolean navigateTo(WizardStep target) {
+        if (target == null || isActive(target) || indexOf(target) < 0) {
+            return false;
+        }
+        if (!isNavigationAllowed(isAdvancing(target))) {
+            return false;
+        }
+        moveTo(target);
+        return true;
+    }
+
+    /**
+     * Navigates to the step with the given identifier, see
+     * {@link #resolveStep(String)}.
+     *
+     * @param id
+     *            identifier of the requested step.
+     * @return {@code true} if a step was activated.
+     */
+    public boolean navigateTo(String id) {
+        return navigateTo(resolveStep(id));
+    }
+
+    /**
+     * Navigates to the next step.
+     *
+     * @return {@code true} if the next step was activated.
+     */
+    public boolean next() {
+        return navigateTo(getNextStep());
+    }
+
+    /**
+     * Navigates to the previous step.
+     *
+     * @return {@code true} if the previous step was activated.
+     */
+    public boolean back() {
+        return navigateTo(getPreviousStep());
+    }
+
+    /**
+     * Activates the given step without asking the active step, keeping track
+     * of the last completed step.
+     *
+     * @param target
+     *            the step to activate.
+     * @throws IllegalArgumentException
+     *             if the given step is not part of this model.
+     */
+    public void moveTo(WizardStep target) {
+        int targetIndex = indexOf(target);
+        if (targetIndex < 0) {
+            throw new IllegalArgumentException(
+                    "The given step is not part of this Wizard.");
+        }
+        if (currentStep != null
+                && indexOf(lastCompletedStep) < indexOf(currentStep)) {
+            lastCompletedStep = currentStep;
+        }
+        currentStep = target;
+    }
+
+    /**
+     * Sets the active and the last completed step without asking the steps,
+     * for example when restoring a saved state.
+     *
+     * @param current
+     *            the active step or {@code null}.
+     * @param lastCompleted
+     *            the last completed step or {@code null}.
+     * @throws IllegalArgumentException
+     *             if a given step is not part of this model.
+     */
+    public void restore(WizardStep current, WizardStep lastCompleted) {
+        if ((current != null && indexOf(current) < 0)
+                || (lastCompleted != null && indexOf(lastCompleted) < 0)) {
+            throw new IllegalArgumentException(
+                    "The given step is not part of this Wizard.");
+        }
+        currentStep = current;
+        lastCompletedStep = lastCompleted;
+    }
+
+    /**
+     * Writes the steps with their identifiers in order and the positions of
+     * the current and the last completed step. Of a definition only the
+     * created steps are written together with the definition, which is only
+     * a reference to its name if it has one, see {@link WizardDefinition}.
+     * The lookup maps are rebuilt when reading.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+
+        out.writeObject(definition);
+        if (definition != null) {
+            out.writeInt(stepIndices.size());
+            for (int i = 0; i < definedSteps.length; i++) {
+                if (definedSteps[i] != null) {
+                    out.writeInt(i);
+                    out.writeObject(definedSteps[i]);
+                }
+            }
+        } else {
+            out.writeInt(steps.size());
+            for (WizardStep step : steps) {
+                out.writeObject(step);
+                out.writeUTF(stepIds.get(step));
+            }
+        }
+        out.writeInt(indexOf(currentStep));
+        out.writeInt(indexOf(lastCompletedStep));
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException,
+            ClassNotFoundException {
+        in.defaultReadObject();
+
+        unmodifiableSteps = new StepList();
+        idMap = new HashMap<String, WizardStep>();
+        stepIds = new HashMap<WizardStep, String>();
+        stepIndices = new HashMap<WizardStep, Integer>();
+        definition = (WizardDefinition) in.readObject();
+        int stepCount = in.readInt();
+        if (definition != null) {
+            steps = new ArrayList<WizardStep>();
+            definedSteps = new WizardStep[definition.size()];
+            for (int i = 0; i < stepCount; i++) {
+                int index = in.readInt();
+                WizardStep step = (WizardStep) in.readObject();
+                definedSteps[index] = step;
+                stepIndices.put(step, index);
+            }
+        } else {
+            steps = new ArrayList<WizardStep>(stepCount);
+            for (int i = 0; i < stepCount; i++) {
+                WizardStep step = (WizardStep) in.readObject();
+                String id = in.readUTF();
+                steps.add(step);
+                idMap.put(id, step);
+                stepIds.put(step, id);
+                stepIndices.put(step, i);
+            }
+        }
+        currentStep = stepAt(in.readInt());
+        lastCompletedStep = stepAt(in.readInt());
+    }
+
+    private WizardStep stepAt(int index) {
+        return index >= 0 ? getStep(index) : null;
+    }
+
+}
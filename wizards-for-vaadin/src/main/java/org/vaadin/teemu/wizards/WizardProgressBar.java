@@ -1,5 +1,6 @@
 package org.vaadin.teemu.wizards;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.vaadin.teemu.wizards.event.WizardCancelledEvent;
@@ -7,11 +8,13 @@ import org.vaadin.teemu.wizards.event.WizardCompletedEvent;
 import org.vaadin.teemu.wizards.event.WizardProgressListener;
 import org.vaadin.teemu.wizards.event.WizardStepActivationEvent;
 import org.vaadin.teemu.wizards.event.WizardStepSetChangedEvent;
+import org.vaadin.teemu.wizards.event.WizardStepTaskEvent;
+import org.vaadin.teemu.wizards.event.WizardStepTaskListener;
 
 import com.vaadin.annotations.StyleSheet;
+import com.vaadin.ui.Component;
 import com.vaadin.ui.CustomComponent;
 import com.vaadin.ui.HorizontalLayout;
-import com.vaadin.ui.Label;
 import com.vaadin.ui.ProgressBar;
 import com.vaadin.ui.VerticalLayout;
 
@@ -21,12 +24,16 @@ import com.vaadin.ui.VerticalLayout;
 @SuppressWarnings("serial")
 @StyleSheet("wizard-progress-bar.css")
 public class WizardProgressBar extends CustomComponent implements
-        WizardProgressListener {
+        WizardProgressListener, WizardStepTaskListener {
 
     private final Wizard wizard;
     private final ProgressBar progressBar = new ProgressBar();
     private final HorizontalLayout stepCaptions = new HorizontalLayout();
+    // same labels as in stepCaptions, not serialized
+    private transient List<StepCaptionLabel> captions;
     private int activeStepIndex;
+    // progress of the task of the active step, see Wizard#startStepTask
+    private float taskProgress;
 
     public WizardProgressBar(Wizard wizard) {
         setStyleName("wizard-progress-bar");
@@ -49,67 +56,106 @@ public class WizardProgressBar extends CustomComponent implements
     private void updateProgressBar() {
         int stepCount = wizard.getSteps().size();
         float padding = (1.0f / stepCount) / 2;
-        float progressValue = padding + activeStepIndex / (float) stepCount;
-        progressBar.setValue(progressValue);
+        float progressValue = padding + (activeStepIndex + taskProgress)
+                / stepCount;
+        setProgressValue(progressValue);
     }
 
-    private void updateStepCaptions() {
-        stepCaptions.removeAllComponents();
-        int index = 1;
-        for (WizardStep step : wizard.getSteps()) {
-            Label label = createCaptionLabel(index, step);
-            stepCaptions.addComponent(label);
-            index++;
+    private void setProgressValue(float progressValue) {
+        // avoid marking the progress bar dirty when nothing changes
+        if (progressBar.getValue() != progressValue) {
+            progressBar.setValue(progressValue);
         }
     }
 
-    private Label createCaptionLabel(int index, WizardStep step) {
-        Label label = new Label(index + ". " + step.getCaption());
-        label.addStyleName("step-caption");
-        label.setWidth("100%");
-
-        // Add styles for themeing.
-        if (wizard.isCompleted(step)) {
-            label.addStyleName("completed");
-        }
-        if (wizard.isActive(step)) {
-            label.addStyleName("current");
+    private List<StepCaptionLabel> getCaptions() {
+        if (captions == null) {
+            // initially or after deserialization
+            captions = new ArrayList<StepCaptionLabel>();
+            for (Component caption : stepCaptions) {
+                captions.add((StepCaptionLabel) caption);
+            }
         }
-        if (wizard.isFirstStep(step)) {
-            label.addStyleName("first");
+        return captions;
+    }
+
+    /**
+     * Synchronizes the caption labels with the current steps of the wizard.
+     * Only labels of added or removed steps are created or detached, existing
+     * labels are updated in place.
+     */
+    private void updateStepCaptions() {
+        List<StepCaptionLabel> captions = getCaptions();
+        WizardModel model = wizard.getModel();
+        int firstChanged = captions.size();
+
+        // drop the captions of removed steps
+        for (int i = captions.size() - 1; i >= 0; i--) {
+            StepCaptionLabel caption = captions.get(i);
+            if (model.indexOfId(caption.getStepId()) < 0) {
+                stepCaptions.removeComponent(caption);
+                captions.remove(i);
+                firstChanged = i;
+            }
         }
-        if (wizard.isLastStep(step)) {
-            label.addStyleName("last");
+
+        // add captions for the new steps
+        for (int i = 0; i < model.size(); i++) {
+            String stepId = model.getId(i);
+            if (i >= captions.size()
+                    || !captions.get(i).getStepId().equals(stepId)) {
+                StepCaptionLabel caption = new StepCaptionLabel(stepId);
+                captions.add(i, caption);
+                stepCaptions.addComponent(caption, i);
+                firstChanged = Math.min(firstChanged, i);
+            }
         }
 
-        return label;
+        // the numbering and the first/last styles may change starting from the
+        // step preceding the first change
+        updateStepCaptions(Math.max(0, firstChanged - 1), captions.size() - 1);
     }
 
-    private void updateProgressAndCaptions() {
-        updateProgressBar();
-        updateStepCaptions();
+    private void updateStepCaptions(int fromIndex, int toIndex) {
+        List<StepCaptionLabel> captions = getCaptions();
+        for (int i = fromIndex; i <= toIndex && i < captions.size(); i++) {
+            StepCaptionLabel caption = captions.get(i);
+            caption.update(wizard, i);
+        }
     }
 
     @Override
     public void activeStepChanged(WizardStepActivationEvent event) {
-        List<WizardStep> allSteps = wizard.getSteps();
-        activeStepIndex = allSteps.indexOf(event.getActivatedStep());
-        updateProgressAndCaptions();
+        int previousIndex = activeStepIndex;
+        activeStepIndex = wizard.getStepIndex(event.getActivatedStep());
+        updateProgressBar();
+
+        // only the steps between the previous and the new active step change
+        // their state
+        updateStepCaptions(Math.min(previousIndex, activeStepIndex),
+                Math.max(previousIndex, activeStepIndex));
     }
 
     @Override
     public void stepSetChanged(WizardStepSetChangedEvent event) {
-        updateProgressAndCaptions();
+        updateProgressBar();
+        updateStepCaptions();
     }
 
     @Override
     public void wizardCompleted(WizardCompletedEvent event) {
-        progressBar.setValue(1.0f);
-        updateStepCaptions();
+        setProgressValue(1.0f);
     }
 
     @Override
     public void wizardCancelled(WizardCancelledEvent event) {
         // NOP, no need to react to cancellation
     }
+
+    @Override
+    public void stepTaskProgress(WizardStepTaskEvent event) {
+        // advance towards the next step as the task progresses
+        taskProgress = event.isRunning() ? event.getProgress() : 0f;
+        updateProgressBar();
+    }
 }
@@ -0,0 +1,43 @@
+package org.vaadin.teemu.wizards;
+
+import java.util.Arrays;
+
+import org.vaadin.teemu.wizards.client.WizardProgressState;
+
+/**
+ * Updates the shared state of the client-side progress components.
+ */
+final class WizardProgressStates {
+
+    private WizardProgressStates() {
+    }
+
+    /**
+     * Copies the progress of the given model to the given state.
+     *
+     * @return {@code true} if the state changed and must be marked dirty.
+     */
+    static boolean update(WizardModel model, WizardProgressState state) {
+        boolean changed = false;
+        String[] captions = new String[model.size()];
+        for (int i = 0; i < captions.length; i++) {
+            captions[i] = model.getCaption(i);
+        }
+        if (!Arrays.equals(captions, state.captions)) {
+            state.captions = captions;
+            changed = true;
+        }
+        int currentIndex = model.getCurrentIndex();
+        if (currentIndex != state.currentIndex) {
+            state.currentIndex = currentIndex;
+            changed = true;
+        }
+        int completedIndex = model.indexOf(model.getLastCompletedStep());
+        if (completedIndex != state.completedIndex) {
+            state.completedIndex = completedIndex;
+            changed = true;
+        }
+        return changed;
+    }
+
+}
@@ -38,4 +38,15 @@ public interface WizardStep {
      */
     public boolean onBack();
 
+    /**
+     * Called when the {@link Wizard} no longer retains the content of this
+     * WizardStep (see {@link Wizard#setContentPolicy(StepContentPolicy)}). A
+     * WizardStep that caches its content should release it here and create
+     * it again on the next call to {@link #getContent()}. The default
+     * implementation does nothing.
+     */
+    public default void releaseContent() {
+        // NOP by default
+    }
+
 }
@@ -0,0 +1,21 @@
+package org.vaadin.teemu.wizards;
+
+import java.io.Serializable;
+
+/**
+ * Creates the instances of a step of a {@link WizardDefinition}. The factory
+ * is shared by all the wizards created from the definition, so it must be
+ * thread-safe and should not hold any session specific state. Typically the
+ * factory is a constructor reference, for example {@code IntroStep::new}.
+ */
+@FunctionalInterface
+public interface WizardStepFactory extends Serializable {
+
+    /**
+     * Creates a new instance of the step for a {@link Wizard}.
+     * 
+     * @return a new step instance.
+     */
+    public WizardStep createStep();
+
+}
@@ -0,0 +1,317 @@
+package org.vaadin.teemu.wizards;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+import com.vaadin.ui.UI;
+
+/**
+ * Runs the background work of the steps of a {@link Wizard}, such as address
+ * lookups or preview generation, and ties its lifetime to the step that
+ * submitted it. All the outstanding tasks are cancelled, and their threads
+ * interrupted, when the step is deactivated, when the wizard is cancelled or
+ * finished, and when the wizard is detached, so no thread outlives the step.
+ * 
+ * <p>
+ * The tasks run on virtual threads if the runtime supports them and on a
+ * bounded pool shared by all the wizards otherwise, unless an executor is set
+ * with {@link #setExecutor(Executor)}. The number of concurrently running
+ * tasks of a step is limited; the tasks exceeding the limit wait in the scope
+ * until a running task of the same step ends.
+ * </p>
+ * 
+ * <p>
+ * The {@link CompletionStage} returned by {@link #submit(Callable)} completes
+ * under the session lock using {@link UI#access(Runnable)}, so its dependent
+ * actions that are not {@code async} can update the components directly:
+ * </p>
+ * 
+ * <pre>
+ * wizard.getTaskScope().submit(() -&gt; addressService.lookup(postalCode))
+ *         .thenAccept(address -&gt; cityField.setValue(address.getCity()));
+ * </pre>
+ * 
+ * @see Wizard#getTaskScope()
+ */
+@SuppressWarnings("serial")
+public class WizardTaskScope implements Serializable {
+
+    /**
+     * The default maximum number of concurrently running tasks of a step.
+     */
+    public static final int DEFAULT_CONCURRENCY_LIMIT = 4;
+
+    private final Wizard wizard;
+    private transient Executor executor;
+    private int concurrencyLimit = DEFAULT_CONCURRENCY_LIMIT;
+    private transient Map<WizardStep, Integer> stepLimits;
+    // the queued and running tasks in submission order, guarded by this
+    private transient List<ScopedTask<?>> tasks;
+    // incremented on cancelAll to cancel the results not delivered yet,
+    // guarded by this
+    private transient int generation;
+
+    WizardTaskScope(Wizard wizard) {
+        this.wizard = wizard;
+    }
+
+    /**
+     * Submits the given task on behalf of the active step. The task is run
+     * without holding the session lock, so it must not access the {@link UI}
+     * or the session.
+     * 
+     * @param task
+     *            the task to run.
+     * @return a {@link CompletionStage} completing under the session lock
+     *         with the result of the task, or exceptionally with the failure
+     *         of the task, a {@link CancellationException} if the task is
+     *         cancelled or a
+     *         {@link java.util.concurrent.RejectedExecutionException} if the
+     *         executor doesn't accept more tasks.
+     * @throws IllegalStateException
+     *             if the wizard is not attached or there is no active step.
+     */
+    public <T> CompletionStage<T> submit(Callable<T> task) {
+        WizardStep step = wizard.getModel().getCurrentStep();
+        if (step == null) {
+            throw new IllegalStateException("There is no active step.");
+        }
+        UI ui = wizard.getUI();
+        if (ui == null) {
+            // the result must be delivered under the session lock
+            throw new IllegalStateException("The wizard is not attached.");
+        }
+        ScopedTask<T> scopedTask;
+        synchronized (this) {
+            scopedTask = new ScopedTask<T>(ui, step, generation, task);
+            getTasks().add(scopedTask);
+        }
+        startQueued(step);
+        return scopedTask.result;
+    }
+
+    /**
+     * Sets the {@link Executor} running the tasks of this scope. The executor
+     * is not serialized with the wizard.
+     * 
+     * @param executor
+     *            the executor or {@code null} to use the shared default.
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets the maximum number of concurrently running tasks of each step that
+     * has no limit of its own. The default is
+     * {@value #DEFAULT_CONCURRENCY_LIMIT}.
+     * 
+     * @param limit
+     *            the maximum number of running tasks per step.
+     */
+    public void setConcurrencyLimit(int limit) {
+        checkLimit(limit);
+        concurrencyLimit = limit;
+    }
+
+    public int getConcurrencyLimit() {
+        return concurrencyLimit;
+    }
+
+    /**
+     * Sets the maximum number of concurrently running tasks of the given
+     * step.
+     * 
+     * @param step
+     *            the step to limit.
+     * @param limit
+     *            the maximum number of running tasks of the step.
+     */
+    public synchronized void setConcurrencyLimit(WizardStep step, int limit) {
+        checkLimit(limit);
+        if (stepLimits == null) {
+            stepLimits = new HashMap<WizardStep, Integer>();
+        }
+        stepLimits.put(step, limit);
+    }
+
+    public synchronized int getConcurrencyLimit(WizardStep step) {
+        Integer limit = stepLimits != null ? stepLimits.get(step) : null;
+        return limit != null ? limit : concurrencyLimit;
+    }
+
+    private static void checkLimit(int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException(
+                    "At least one task must be allowed to run.");
+        }
+    }
+
+    /**
+     * Returns the number of the queued and running tasks.
+     * 
+     * @return the number of outstanding tasks.
+     */
+    public synchronized int getTaskCount() {
+        return getTasks().size();
+    }
+
+    /**
+     * Cancels all the outstanding tasks. Called automatically when the active
+     * step changes, when the wizard is cancelled or finished and when the
+     * wizard is detached.
+     */
+    public void cancelAll() {
+        List<ScopedTask<?>> cancelled;
+        synchronized (this) {
+            // also the tasks that have ended but not completed yet
+            generation++;
+            if (getTasks().isEmpty()) {
+                return;
+            }
+            cancelled = new ArrayList<ScopedTask<?>>(getTasks());
+            getTasks().clear();
+        }
+        for (ScopedTask<?> task : cancelled) {
+            task.cancel();
+        }
+    }
+
+    /**
+     * Starts the queued tasks of the given step that fit within its limit.
+     * A task the executor doesn't accept is removed and completed with the
+     * failure, so every task taken from the queue either runs or completes.
+     */
+    private void startQueued(WizardStep step) {
+        List<ScopedTask<?>> toStart = new ArrayList<ScopedTask<?>>();
+        synchronized (this) {
+            int available = getConcurrencyLimit(step);
+            for (ScopedTask<?> task : getTasks()) {
+                if (task.step == step) {
+                    if (task.started) {
+                        available--;
+                    } else if (available > toStart.size()) {
+                        task.started = true;
+                        toStart.add(task);
+                    }
+                }
+            }
+        }
+        Executor taskExecutor = executor != null ? executor : TaskExecutors
+                .getDefault();
+        for (ScopedTask<?> task : toStart) {
+            try {
+                taskExecutor.execute(task.future);
+            } catch (RuntimeException e) {
+                // typically rejected because the queue is full
+                if (remove(task)) {
+                    task.complete(null, e);
+                }
+            }
+        }
+    }
+
+    private synchronized boolean remove(ScopedTask<?> task) {
+        for (Iterator<ScopedTask<?>> it = getTasks().iterator(); it.hasNext();) {
+            if (it.next() == task) {
+                it.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private synchronized boolean isCurrent(ScopedTask<?> task) {
+        return task.taskGeneration == generation;
+    }
+
+    private List<ScopedTask<?>> getTasks() {
+        if (tasks == null) {
+            tasks = new ArrayList<ScopedTask<?>>();
+        }
+        return tasks;
+    }
+
+    /**
+     * A submitted task and the stage of its result.
+     */
+    private final class ScopedTask<T> {
+
+        final UI ui;
+        final WizardStep step;
+        final CompletableFuture<T> result = new CompletableFuture<T>();
+        final FutureTask<Void> future;
+        final int taskGeneration;
+        boolean started;
+
+        ScopedTask(UI ui, WizardStep step, int taskGeneration,
+                final Callable<T> callable) {
+            this.ui = ui;
+            this.step = step;
+            this.taskGeneration = taskGeneration;
+            future = new FutureTask<Void>(new Callable<Void>() {
+                public Void call() {
+                    T value = null;
+                    Throwable failure = null;
+                    try {
+                        value = callable.call();
+                    } catch (Throwable e) {
+                        failure = e;
+                    }
+                    ended(value, failure);
+                    return null;
+                }
+            });
+        }
+
+        private void ended(T value, Throwable failure) {
+            if (!remove(this)) {
+                // cancelled meanwhile
+                return;
+            }
+            complete(value, failure);
+            startQueued(step);
+        }
+
+        void complete(final T value, final Throwable failure) {
+            Runnable completion = new Runnable() {
+                public void run() {
+                    if (!isCurrent(ScopedTask.this)) {
+                        // the step was left after the task ended
+                        result.completeExceptionally(new CancellationException(
+                                "The task was cancelled."));
+                    } else if (failure != null) {
+                        result.completeExceptionally(failure);
+                    } else {
+                        result.complete(value);
+                    }
+                }
+            };
+            if (!TaskExecutors.access(ui, completion)) {
+                // the UI is gone, complete without the lock
+                completion.run();
+            }
+        }
+
+        void cancel() {
+            future.cancel(true);
+            result.completeExceptionally(new CancellationException(
+                    "The task was cancelled."));
+        }
+    }
+
+}
@@ -0,0 +1,35 @@
+package org.vaadin.teemu.wizards.client;
+
+import org.vaadin.teemu.wizards.CompactWizardProgressBar;
+
+import com.vaadin.client.communication.StateChangeEvent;
+import com.vaadin.client.ui.AbstractComponentConnector;
+import com.vaadin.shared.ui.Connect;
+
+/**
+ * Client-side connector of {@link CompactWizardProgressBar}.
+ */
+@SuppressWarnings("serial")
+@Connect(CompactWizardProgressBar.class)
+public class CompactWizardProgressBarConnector extends
+        AbstractComponentConnector {
+
+    @Override
+    public VWizardProgress getWidget() {
+        return (VWizardProgress) super.getWidget();
+    }
+
+    @Override
+    public WizardProgressState getState() {
+        return (WizardProgressState) super.getState();
+    }
+
+    @Override
+    public void onStateChanged(StateChangeEvent stateChangeEvent) {
+        super.onStateChanged(stateChangeEvent);
+        WizardProgressState state = getState();
+        getWidget().setProgress(state.captions, state.currentIndex,
+                state.finished, state.taskProgress);
+    }
+
+}
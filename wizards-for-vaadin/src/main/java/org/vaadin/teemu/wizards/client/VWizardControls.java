@@ -0,0 +1,149 @@
+package org.vaadin.teemu.wizards.client;
+
+import com.google.gwt.dom.client.Document;
+import com.google.gwt.dom.client.Element;
+import com.google.gwt.event.dom.client.KeyCodes;
+import com.google.gwt.user.client.Command;
+import com.google.gwt.user.client.Event;
+import com.google.gwt.user.client.ui.FlowPanel;
+import com.google.gwt.user.client.ui.Widget;
+
+/**
+ * The progress and the navigation buttons of a wizard. The buttons are
+ * enabled based on the position of the active step, without asking the
+ * server.
+ */
+public class VWizardControls extends FlowPanel {
+
+    public static final String CLASSNAME = "wizard-controls";
+
+    private final VWizardProgress progress = new VWizardProgress();
+    private final FlowPanel buttons = new FlowPanel();
+    private final NavigationButton cancelButton = new NavigationButton();
+    private final NavigationButton backButton = new NavigationButton();
+    private final NavigationButton nextButton = new NavigationButton();
+    private final NavigationButton finishButton = new NavigationButton();
+
+    public VWizardControls() {
+        setStyleName(CLASSNAME);
+        buttons.setStyleName(CLASSNAME + "-buttons");
+        buttons.add(cancelButton);
+        buttons.add(backButton);
+        buttons.add(nextButton);
+        buttons.add(finishButton);
+        add(progress);
+        add(buttons);
+    }
+
+    public VWizardProgress getProgress() {
+        return progress;
+    }
+
+    public NavigationButton getCancelButton() {
+        return cancelButton;
+    }
+
+    public NavigationButton getBackButton() {
+        return backButton;
+    }
+
+    public NavigationButton getNextButton() {
+        return nextButton;
+    }
+
+    public NavigationButton getFinishButton() {
+        return finishButton;
+    }
+
+    /**
+     * Enables the buttons for the given position, in the same way as the
+     * server-side wizard enables its buttons.
+     *
+     * @param stepCount
+     *            the number of steps.
+     * @param currentIndex
+     *            the index of the active step or -1.
+     * @param navigationEnabled
+     *            {@code false} to disable all the navigation, for example
+     *            while a navigation is pending.
+     */
+    public void setPosition(int stepCount, int currentIndex,
+            boolean navigationEnabled) {
+        boolean last = currentIndex == stepCount - 1;
+        finishButton.setEnabled(navigationEnabled && last);
+        nextButton.setEnabled(navigationEnabled && !last);
+        backButton.setEnabled(navigationEnabled && currentIndex > 0);
+    }
+
+    /**
+     * A lightweight button with the DOM structure of a Vaadin button. Clicking
+     * it or pressing enter or space on it executes its command when enabled.
+     */
+    public static class NavigationButton extends Widget {
+
+        private final Element caption;
+        private Command command;
+        private boolean enabled = true;
+
+        public NavigationButton() {
+            Document document = Document.get();
+            setElement(document.createDivElement());
+            setStyleName("v-button v-widget");
+            getElement().setAttribute("role", "button");
+            getElement().setTabIndex(0);
+
+            Element wrap = document.createSpanElement();
+            wrap.setClassName("v-button-wrap");
+            caption = document.createSpanElement();
+            caption.setClassName("v-button-caption");
+            wrap.appendChild(caption);
+            getElement().appendChild(wrap);
+
+            sinkEvents(Event.ONCLICK | Event.ONKEYDOWN);
+        }
+
+        public void setCommand(Command command) {
+            this.command = command;
+        }
+
+        /**
+         * Sets the caption of this button. A {@code null} caption hides the
+         * button.
+         *
+         * @param text
+         *            the caption or {@code null}.
+         */
+        public void setCaption(String text) {
+            setVisible(text != null);
+            caption.setInnerText(text != null ? text : "");
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+            setStyleName("v-disabled", !enabled);
+            getElement().setAttribute("aria-disabled",
+                    String.valueOf(!enabled));
+            getElement().setTabIndex(enabled ? 0 : -1);
+        }
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        @Override
+        public void onBrowserEvent(Event event) {
+            super.onBrowserEvent(event);
+            boolean activated = event.getTypeInt() == Event.ONCLICK
+                    || (event.getTypeInt() == Event.ONKEYDOWN && (event
+                            .getKeyCode() == KeyCodes.KEY_ENTER || event
+                            .getKeyCode() == ' '));
+            if (activated) {
+                event.preventDefault();
+                if (enabled && command != null) {
+                    command.execute();
+                }
+            }
+        }
+    }
+
+}
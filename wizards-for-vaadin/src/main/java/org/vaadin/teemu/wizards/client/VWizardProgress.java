@@ -0,0 +1,95 @@
+package org.vaadin.teemu.wizards.client;
+
+import com.google.gwt.dom.client.DivElement;
+import com.google.gwt.dom.client.Document;
+import com.google.gwt.dom.client.Style.Unit;
+import com.google.gwt.safehtml.shared.SafeHtmlBuilder;
+import com.google.gwt.user.client.ui.Widget;
+
+/**
+ * Renders the progress of a wizard: a row of step captions and a progress bar
+ * below them. The DOM uses the same class names as the {@code Label}s and the
+ * {@code ProgressBar} of the server-side {@code WizardProgressBar}, so the
+ * same styles apply. The captions are rendered in one pass as HTML.
+ */
+public class VWizardProgress extends Widget {
+
+    public static final String CLASSNAME = "wizard-progress-bar";
+
+    private final DivElement captions;
+    private final DivElement indicator;
+
+    public VWizardProgress() {
+        Document document = Document.get();
+        setElement(document.createDivElement());
+        setStyleName(CLASSNAME);
+
+        captions = document.createDivElement();
+        captions.setClassName(CLASSNAME + "-captions");
+        getElement().appendChild(captions);
+
+        DivElement progressBar = document.createDivElement();
+        progressBar.setClassName("v-progressbar v-widget");
+        DivElement wrapper = document.createDivElement();
+        wrapper.setClassName("v-progressbar-wrapper");
+        indicator = document.createDivElement();
+        indicator.setClassName("v-progressbar-indicator");
+        wrapper.appendChild(indicator);
+        progressBar.appendChild(wrapper);
+        getElement().appendChild(progressBar);
+    }
+
+    /**
+     * Renders the given progress.
+     *
+     * @param stepCaptions
+     *            the captions of the steps without the numbering.
+     * @param currentIndex
+     *            the index of the active step or -1. The steps before it are
+     *            displayed as completed, like the server-side captions do.
+     * @param finished
+     *            {@code true} if the wizard is completed.
+     * @param taskProgress
+     *            the progress of the task of the active step or -1.
+     */
+    public void setProgress(String[] stepCaptions, int currentIndex,
+            boolean finished, float taskProgress) {
+        SafeHtmlBuilder html = new SafeHtmlBuilder();
+        for (int i = 0; i < stepCaptions.length; i++) {
+            StringBuilder styles = new StringBuilder(
+                    "v-label v-widget step-caption v-label-step-caption");
+            if (i == currentIndex) {
+                addStyle(styles, "current");
+            } else if (i < currentIndex) {
+                addStyle(styles, "completed");
+            }
+            if (i == 0) {
+                addStyle(styles, "first");
+            }
+            if (i == stepCaptions.length - 1) {
+                addStyle(styles, "last");
+            }
+            html.appendHtmlConstant("<div class=\"" + styles + "\">");
+            html.append(i + 1).appendEscaped(". ")
+                    .appendEscaped(String.valueOf(stepCaptions[i]));
+            html.appendHtmlConstant("</div>");
+        }
+        captions.setInnerHTML(html.toSafeHtml().asString());
+
+        double value = 0;
+        if (finished) {
+            value = 1;
+        } else if (stepCaptions.length > 0 && currentIndex >= 0) {
+            // the middle of the caption of the current step, advancing
+            // towards the next one as the task of the step progresses
+            value = (currentIndex + 0.5 + Math.max(0, taskProgress))
+                    / stepCaptions.length;
+        }
+        indicator.getStyle().setWidth(value * 100, Unit.PCT);
+    }
+
+    private static void addStyle(StringBuilder styles, String style) {
+        styles.append(' ').append(style).append(" v-label-").append(style);
+    }
+
+}
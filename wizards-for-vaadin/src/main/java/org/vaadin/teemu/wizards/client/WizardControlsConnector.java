@@ -0,0 +1,74 @@
+package org.vaadin.teemu.wizards.client;
+
+import org.vaadin.teemu.wizards.WizardControls;
+
+import com.google.gwt.user.client.Command;
+import com.vaadin.client.communication.StateChangeEvent;
+import com.vaadin.client.ui.AbstractComponentConnector;
+import com.vaadin.shared.ui.Connect;
+
+/**
+ * Client-side connector of {@link WizardControls}. Everything is rendered
+ * from the shared state; only the navigation requests are sent to the server.
+ */
+@SuppressWarnings("serial")
+@Connect(WizardControls.class)
+public class WizardControlsConnector extends AbstractComponentConnector {
+
+    @Override
+    protected void init() {
+        super.init();
+        final WizardControlsServerRpc rpc = getRpcProxy(WizardControlsServerRpc.class);
+        getWidget().getCancelButton().setCommand(new Command() {
+            public void execute() {
+                rpc.cancel();
+            }
+        });
+        getWidget().getBackButton().setCommand(new Command() {
+            public void execute() {
+                rpc.back();
+            }
+        });
+        getWidget().getNextButton().setCommand(new Command() {
+            public void execute() {
+                rpc.next();
+            }
+        });
+        getWidget().getFinishButton().setCommand(new Command() {
+            public void execute() {
+                rpc.finish();
+            }
+        });
+    }
+
+    @Override
+    public VWizardControls getWidget() {
+        return (VWizardControls) super.getWidget();
+    }
+
+    @Override
+    public WizardControlsState getState() {
+        return (WizardControlsState) super.getState();
+    }
+
+    @Override
+    public void onStateChanged(StateChangeEvent stateChangeEvent) {
+        super.onStateChanged(stateChangeEvent);
+        WizardControlsState state = getState();
+        VWizardControls controls = getWidget();
+
+        controls.getProgress().setVisible(state.progressVisible);
+        if (state.progressVisible) {
+            controls.getProgress().setProgress(state.captions,
+                    state.currentIndex, state.finished, state.taskProgress);
+        }
+
+        controls.getCancelButton().setCaption(state.cancelCaption);
+        controls.getBackButton().setCaption(state.backCaption);
+        controls.getNextButton().setCaption(state.nextCaption);
+        controls.getFinishButton().setCaption(state.finishCaption);
+        controls.setPosition(state.captions.length, state.currentIndex,
+                isEnabled() && !state.pending);
+    }
+
+}
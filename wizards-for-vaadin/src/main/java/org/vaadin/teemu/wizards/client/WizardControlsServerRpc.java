@@ -0,0 +1,19 @@
+package org.vaadin.teemu.wizards.client;
+
+import com.vaadin.shared.communication.ServerRpc;
+
+/**
+ * The navigation requests sent by the client-side wizard controls. The server
+ * runs the guards of the steps and swaps the content.
+ */
+public interface WizardControlsServerRpc extends ServerRpc {
+
+    void cancel();
+
+    void back();
+
+    void next();
+
+    void finish();
+
+}
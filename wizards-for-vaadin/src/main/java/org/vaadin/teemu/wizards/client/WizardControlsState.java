@@ -0,0 +1,26 @@
+package org.vaadin.teemu.wizards.client;
+
+/**
+ * Shared state of the client-side wizard controls: the progress and the
+ * captions of the navigation buttons.
+ */
+@SuppressWarnings("serial")
+public class WizardControlsState extends WizardProgressState {
+
+    public String cancelCaption = "Cancel";
+    public String backCaption = "Back";
+    public String nextCaption = "Next";
+    public String finishCaption = "Finish";
+
+    /**
+     * {@code true} while the wizard waits for an asynchronous step to allow
+     * or deny a navigation. All the navigation is disabled meanwhile.
+     */
+    public boolean pending;
+
+    /**
+     * {@code false} to only display the navigation buttons.
+     */
+    public boolean progressVisible = true;
+
+}
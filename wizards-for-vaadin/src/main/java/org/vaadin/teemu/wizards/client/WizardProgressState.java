@@ -0,0 +1,41 @@
+package org.vaadin.teemu.wizards.client;
+
+import com.vaadin.shared.AbstractComponentState;
+
+/**
+ * Shared state of the components that render the progress of a wizard on the
+ * client side. The whole progress is described by the captions of the steps
+ * and two indices.
+ */
+@SuppressWarnings("serial")
+public class WizardProgressState extends AbstractComponentState {
+
+    /**
+     * The captions of the steps in order, without the numbering.
+     */
+    public String[] captions = new String[0];
+
+    /**
+     * The index of the active step or -1 if there is no active step.
+     */
+    public int currentIndex = -1;
+
+    /**
+     * The index of the furthest completed step or -1 if no step is completed
+     * yet. Stays ahead of {@link #currentIndex} after going back. The
+     * captions only display the steps before the current one as completed.
+     */
+    public int completedIndex = -1;
+
+    /**
+     * {@code true} once the wizard is completed.
+     */
+    public boolean finished;
+
+    /**
+     * The progress of the task of the active step between 0 and 1, or -1 if
+     * no task is running.
+     */
+    public float taskProgress = -1;
+
+}
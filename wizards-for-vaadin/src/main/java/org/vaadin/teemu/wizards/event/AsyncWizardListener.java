@@ -0,0 +1,29 @@
+package org.vaadin.teemu.wizards.event;
+
+import org.vaadin.teemu.wizards.Wizard;
+import org.vaadin.teemu.wizards.WizardListenerBackpressure;
+
+/**
+ * Listener receiving the events of a {@link Wizard} in a background thread,
+ * for example to forward them to an analytics or audit service without
+ * slowing down the navigation. The events are delivered in the order they
+ * were fired, one at a time, but some may be dropped or coalesced if the
+ * listener falls behind (see {@link WizardListenerBackpressure}).
+ * 
+ * @see Wizard#addAsyncListener(AsyncWizardListener, int,
+ *      WizardListenerBackpressure)
+ */
+@FunctionalInterface
+public interface AsyncWizardListener {
+
+    /**
+     * Called in a background thread for each delivered event. The session is
+     * not locked, so the listener must not access the wizard or any other
+     * component.
+     * 
+     * @param event
+     *            snapshot of the event data.
+     */
+    void wizardEvent(WizardEventSnapshot event);
+
+}
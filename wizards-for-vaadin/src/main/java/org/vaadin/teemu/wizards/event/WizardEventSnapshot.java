@@ -0,0 +1,96 @@
+package org.vaadin.teemu.wizards.event;
+
+import java.io.Serializable;
+
+import org.vaadin.teemu.wizards.Wizard;
+
+/**
+ * Immutable copy of the data of a {@link Wizard} event delivered to an
+ * {@link AsyncWizardListener}. The snapshot doesn't refer to the wizard or its
+ * steps, so it can be safely handled outside the session lock.
+ */
+@SuppressWarnings("serial")
+public final class WizardEventSnapshot implements Serializable {
+
+    /**
+     * The kind of the event the snapshot was taken from.
+     */
+    public enum Type {
+        /** See {@link WizardStepActivationEvent}. */
+        STEP_ACTIVATED,
+        /** See {@link WizardStepSetChangedEvent}. */
+        STEP_SET_CHANGED,
+        /** See {@link WizardCompletedEvent}. */
+        COMPLETED,
+        /** See {@link WizardCancelledEvent}. */
+        CANCELLED
+    }
+
+    private final Type type;
+    private final String stepId;
+    private final int stepIndex;
+    private final int stepCount;
+    private final long timestamp;
+
+    public WizardEventSnapshot(Type type, String stepId, int stepIndex,
+            int stepCount, long timestamp) {
+        if (type == null) {
+            throw new IllegalArgumentException("type must not be null");
+        }
+        this.type = type;
+        this.stepId = stepId;
+        this.stepIndex = stepIndex;
+        this.stepCount = stepCount;
+        this.timestamp = timestamp;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Returns the identifier of the step the event concerns: the activated
+     * step or the step that was active when the event was fired.
+     * 
+     * @return the step identifier or {@code null} if there was no active
+     *         step.
+     */
+    public String getStepId() {
+        return stepId;
+    }
+
+    /**
+     * Returns the zero-based position of the step returned by
+     * {@link #getStepId()}.
+     * 
+     * @return the step position or {@code -1} if there was no active step.
+     */
+    public int getStepIndex() {
+        return stepIndex;
+    }
+
+    /**
+     * Returns the number of steps in the wizard when the event was fired.
+     * 
+     * @return the number of steps.
+     */
+    public int getStepCount() {
+        return stepCount;
+    }
+
+    /**
+     * Returns the time the event was fired.
+     * 
+     * @return the time in milliseconds since the epoch.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return type + "[" + stepId + " " + (stepIndex + 1) + "/" + stepCount
+                + " at " + timestamp + "]";
+    }
+
+}
@@ -1,12 +1,47 @@
 package org.vaadin.teemu.wizards.event;
 
+import java.util.Collections;
+import java.util.List;
+
 import org.vaadin.teemu.wizards.Wizard;
+import org.vaadin.teemu.wizards.WizardStep;
 
 @SuppressWarnings("serial")
 public class WizardStepSetChangedEvent extends AbstractWizardEvent {
 
+    private final List<WizardStep> addedSteps;
+    private final List<WizardStep> removedSteps;
+
     public WizardStepSetChangedEvent(Wizard source) {
+        this(source, Collections.<WizardStep> emptyList(), Collections
+                .<WizardStep> emptyList());
+    }
+
+    public WizardStepSetChangedEvent(Wizard source,
+            List<WizardStep> addedSteps, List<WizardStep> removedSteps) {
         super(source);
+        this.addedSteps = Collections.unmodifiableList(addedSteps);
+        this.removedSteps = Collections.unmodifiableList(removedSteps);
+    }
+
+    /**
+     * Returns the {@link WizardStep}s that were added in the order they were
+     * added.
+     * 
+     * @return the added {@link WizardStep}s.
+     */
+    public List<WizardStep> getAddedSteps() {
+        return addedSteps;
+    }
+
+    /**
+     * Returns the {@link WizardStep}s that were removed in the order they were
+     * removed.
+     * 
+     * @return the removed {@link WizardStep}s.
+     */
+    public List<WizardStep> getRemovedSteps() {
+        return removedSteps;
     }
 
 }
@@ -0,0 +1,56 @@
+package org.vaadin.teemu.wizards.event;
+
+import org.vaadin.teemu.wizards.StepTask;
+import org.vaadin.teemu.wizards.Wizard;
+import org.vaadin.teemu.wizards.WizardStep;
+
+/**
+ * Reports the progress of a {@link StepTask} of a {@link Wizard}. Fired when
+ * the task is started, at most once per progress interval while it's running
+ * and once when it has ended.
+ */
+@SuppressWarnings("serial")
+public class WizardStepTaskEvent extends AbstractWizardEvent {
+
+    private final WizardStep step;
+    private final float progress;
+    private final boolean running;
+
+    public WizardStepTaskEvent(Wizard source, WizardStep step, float progress,
+            boolean running) {
+        super(source);
+        this.step = step;
+        this.progress = progress;
+        this.running = running;
+    }
+
+    /**
+     * Returns the {@link WizardStep} the task was started for.
+     * 
+     * @return the step of the task.
+     */
+    public WizardStep getStep() {
+        return step;
+    }
+
+    /**
+     * Returns the latest progress reported by the task between {@code 0} and
+     * {@code 1}.
+     * 
+     * @return the progress of the task.
+     */
+    public float getProgress() {
+        return progress;
+    }
+
+    /**
+     * Returns {@code false} if the task has ended, either by completing,
+     * failing or being cancelled.
+     * 
+     * @return {@code true} while the task is running.
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+}
@@ -0,0 +1,24 @@
+package org.vaadin.teemu.wizards.event;
+
+import org.vaadin.teemu.wizards.StepTask;
+import org.vaadin.teemu.wizards.Wizard;
+
+/**
+ * Optional interface for a {@link WizardProgressListener} that also displays
+ * the progress of the {@link StepTask}s of a {@link Wizard}. The events are
+ * delivered to the listeners added with
+ * {@link Wizard#addListener(WizardProgressListener)} that implement this
+ * interface.
+ */
+public interface WizardStepTaskListener {
+
+    /**
+     * Called when a {@link StepTask} has started, made progress or ended.
+     * 
+     * @param event
+     *            {@link WizardStepTaskEvent} object containing details about
+     *            the event
+     */
+    void stepTaskProgress(WizardStepTaskEvent event);
+
+}
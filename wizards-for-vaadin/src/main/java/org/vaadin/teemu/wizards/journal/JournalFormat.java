@@ -0,0 +1,204 @@
+package org.vaadin.teemu.wizards.journal;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.vaadin.teemu.wizards.event.WizardEventSnapshot;
+
+/**
+ * The binary layout of the journal segments shared by the writer and the
+ * reader.
+ * 
+ * <p>
+ * A segment is a file of fixed size divided into slots of
+ * {@link #RECORD_SIZE} bytes. The first slot is the header containing
+ * {@link #MAGIC} and {@link #VERSION}. Each of the other slots is either
+ * empty, with all bytes zero, or contains one record:
+ * </p>
+ * 
+ * <pre>
+ *  0  type            byte, 0 for an empty slot
+ *  1  step id length  byte
+ *  2  session id length byte
+ *  3  (unused)
+ *  4  step index      int
+ *  8  timestamp       long
+ * 16  step id         56 bytes of UTF-8
+ * 72  session id      56 bytes of UTF-8
+ * </pre>
+ * 
+ * <p>
+ * The records are appended in order, so the first empty slot marks the end of
+ * the segment. The type is written last, so a record that was only partially
+ * written when the process died is seen as an empty slot.
+ * </p>
+ */
+final class JournalFormat {
+
+    static final int RECORD_SIZE = 128;
+    static final int MAGIC = 0x57454a31; // "WEJ1"
+    static final int VERSION = 1;
+    static final String SEGMENT_SUFFIX = ".journal";
+
+    private static final int STEP_INDEX_OFFSET = 4;
+    private static final int TIMESTAMP_OFFSET = 8;
+    private static final int STEP_ID_OFFSET = 16;
+    private static final int SESSION_ID_OFFSET = 72;
+    static final int MAX_ID_LENGTH = 56;
+
+    private static final byte NULL_LENGTH = (byte) 0xff;
+
+    private JournalFormat() {
+    }
+
+    static void writeHeader(ByteBuffer buffer) {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+    }
+
+    /**
+     * Returns {@code true} if the given segment has no header, which happens
+     * when the writer stops after creating the segment file but before
+     * writing its header. Such a segment contains no records.
+     */
+    static boolean isBlank(ByteBuffer buffer) {
+        return buffer.capacity() < RECORD_SIZE
+                || (buffer.getInt(0) == 0 && buffer.getInt(4) == 0);
+    }
+
+    static void checkHeader(ByteBuffer buffer, File segment)
+            throws IOException {
+        if (buffer.capacity() < RECORD_SIZE || buffer.getInt(0) != MAGIC
+                || buffer.getInt(4) != VERSION) {
+            throw new IOException(segment + " is not a wizard event journal.");
+        }
+    }
+
+    /**
+     * Writes a record into the slot at the given offset.
+     */
+    static void write(ByteBuffer buffer, int offset,
+            WizardEventSnapshot.Type type, String sessionId, String stepId,
+            int stepIndex, long timestamp) {
+        buffer.put(offset + 1, putId(buffer, offset + STEP_ID_OFFSET, stepId));
+        buffer.put(offset + 2,
+                putId(buffer, offset + SESSION_ID_OFFSET, sessionId));
+        buffer.putInt(offset + STEP_INDEX_OFFSET, stepIndex);
+        buffer.putLong(offset + TIMESTAMP_OFFSET, timestamp);
+        // the type commits the record
+        buffer.put(offset, encode(type));
+    }
+
+    /**
+     * Reads the record in the slot at the given offset.
+     * 
+     * @return the record or {@code null} if the slot is empty.
+     */
+    static WizardEventRecord read(ByteBuffer buffer, int offset, File segment)
+            throws IOException {
+        byte type = buffer.get(offset);
+        if (type == 0) {
+            return null;
+        }
+        String stepId = getId(buffer, offset + STEP_ID_OFFSET,
+                buffer.get(offset + 1));
+        String sessionId = getId(buffer, offset + SESSION_ID_OFFSET,
+                buffer.get(offset + 2));
+        return new WizardEventRecord(decode(type, segment), sessionId,
+                stepId, buffer.getInt(offset + STEP_INDEX_OFFSET),
+                buffer.getLong(offset + TIMESTAMP_OFFSET));
+    }
+
+    private static byte putId(ByteBuffer buffer, int offset, String id) {
+        if (id == null) {
+            return NULL_LENGTH;
+        }
+        byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, MAX_ID_LENGTH);
+        // don't cut a multi-byte character in half
+        while (length < bytes.length && (bytes[length] & 0xc0) == 0x80) {
+            length--;
+        }
+        for (int i = 0; i < length; i++) {
+            buffer.put(offset + i, bytes[i]);
+        }
+        return (byte) length;
+    }
+
+    private static String getId(ByteBuffer buffer, int offset, byte length) {
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte encode(WizardEventSnapshot.Type type) {
+        switch (type) {
+        case STEP_ACTIVATED:
+            return 1;
+        case STEP_SET_CHANGED:
+            return 2;
+        case COMPLETED:
+            return 3;
+        case CANCELLED:
+            return 4;
+        default:
+            throw new IllegalArgumentException("Unknown event type " + type);
+        }
+    }
+
+    private static WizardEventSnapshot.Type decode(byte type, File segment)
+            throws IOException {
+        switch (type) {
+        case 1:
+            return WizardEventSnapshot.Type.STEP_ACTIVATED;
+        case 2:
+            return WizardEventSnapshot.Type.STEP_SET_CHANGED;
+        case 3:
+            return WizardEventSnapshot.Type.COMPLETED;
+        case 4:
+            return WizardEventSnapshot.Type.CANCELLED;
+        default:
+            throw new IOException("Corrupted journal segment " + segment);
+        }
+    }
+
+    static File segmentFile(File directory, long sequence) {
+        return new File(directory, String.format("%016d", sequence)
+                + SEGMENT_SUFFIX);
+    }
+
+    static long sequenceOf(File segment) {
+        String name = segment.getName();
+        return Long.parseLong(name.substring(0,
+                name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * Returns the segments in the given directory in the order they were
+     * written.
+     */
+    static File[] listSegments(File directory) throws IOException {
+        File[] segments = directory.listFiles(new FileFilter() {
+            public boolean accept(File file) {
+                return file.isFile()
+                        && file.getName().matches("\\d{16}\\" + SEGMENT_SUFFIX);
+            }
+        });
+        if (segments == null) {
+            throw new IOException(directory + " is not a directory.");
+        }
+        // the zero-padded names sort in sequence order
+        Arrays.sort(segments);
+        return segments;
+    }
+
+}
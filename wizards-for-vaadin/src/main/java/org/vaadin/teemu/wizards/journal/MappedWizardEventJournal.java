@@ -0,0 +1,408 @@
+package org.vaadin.teemu.wizards.journal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.vaadin.teemu.wizards.AsyncListenerRegistration;
+import org.vaadin.teemu.wizards.Wizard;
+import org.vaadin.teemu.wizards.WizardListenerBackpressure;
+import org.vaadin.teemu.wizards.event.AsyncWizardListener;
+import org.vaadin.teemu.wizards.event.WizardEventSnapshot;
+
+/**
+ * Append-only journal of wizard events, for example for compliance records or
+ * for rebuilding funnel reports offline with a {@link WizardEventJournalReader}.
+ * 
+ * <p>
+ * The events are written as fixed-size binary records into memory-mapped
+ * segment files in the journal directory. When a segment is full, a new one
+ * is started. Appended events are queued and written by a single background
+ * thread that writes all queued events in one batch and then forces the
+ * batch to the disk once (group commit), so {@link #append} never blocks and
+ * the cost of forcing is shared by all the events of the batch.
+ * </p>
+ * 
+ * <p>
+ * The journal is fed through the asynchronous listeners of the wizards. The
+ * listener is added with {@link WizardListenerBackpressure#BLOCK}, as the
+ * default policy drops events when the queue of the listener is full:
+ * </p>
+ * 
+ * <pre>
+ * journal.record(wizard, VaadinSession.getCurrent().getSession().getId());
+ * </pre>
+ * 
+ * <p>
+ * A single instance should be shared by the whole application and closed when
+ * the application is shut down. Only one instance may write to a directory at
+ * a time.
+ * </p>
+ * 
+ * <p>
+ * The listeners are serialized with the wizards as the directory of the
+ * journal and the session identifier. A deserialized listener appends to the
+ * journal that is open in the same directory, and drops the events while no
+ * journal is open there.
+ * </p>
+ */
+public class MappedWizardEventJournal implements Closeable {
+
+    /**
+     * The default size of a segment file, 16 MB or 131071 records.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * The maximum length of the step and session identifiers in bytes of
+     * UTF-8. Longer identifiers are truncated.
+     */
+    public static final int MAX_ID_LENGTH = JournalFormat.MAX_ID_LENGTH;
+
+    private static final int MAX_BATCH_SIZE = 1024;
+
+    // the open journals by the canonical path of their directory, for
+    // resolving the deserialized listeners
+    private static final ConcurrentMap<String, MappedWizardEventJournal> openJournals = new ConcurrentHashMap<String, MappedWizardEventJournal>();
+
+    private final File directory;
+    private final String directoryPath;
+    private final int segmentSize;
+    private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<Entry>();
+    private final Thread writer;
+    private long segmentSequence;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int position;
+    private volatile IOException writeFailure;
+    private volatile boolean closed;
+    // held for reading while using the writer, for writing while closing
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+
+    /**
+     * Queued event or a flush command for the writer thread.
+     */
+    private static final class Entry {
+        final String sessionId;
+        final WizardEventSnapshot event;
+        final CountDownLatch done;
+
+        Entry(String sessionId, WizardEventSnapshot event, CountDownLatch done) {
+            this.sessionId = sessionId;
+            this.event = event;
+            this.done = done;
+        }
+    }
+
+    /**
+     * Opens the journal in the given directory with segments of
+     * {@link #DEFAULT_SEGMENT_SIZE}.
+     * 
+     * @param directory
+     *            the directory of the segment files, created if needed.
+     * @throws IOException
+     *             if opening the latest segment fails.
+     */
+    public MappedWizardEventJournal(File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens the journal in the given directory. New events are appended after
+     * the existing ones.
+     * 
+     * @param directory
+     *            the directory of the segment files, created if needed.
+     * @param segmentSize
+     *            the size of a segment file in bytes, rounded down to a
+     *            multiple of the record size.
+     * @throws IOException
+     *             if opening the latest segment fails.
+     */
+    public MappedWizardEventJournal(File directory, int segmentSize)
+            throws IOException {
+        if (segmentSize < 2 * JournalFormat.RECORD_SIZE) {
+            throw new IllegalArgumentException("The segment size must be at least "
+                    + 2 * JournalFormat.RECORD_SIZE + " bytes.");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Creating " + directory + " failed.");
+        }
+        this.directory = directory;
+        directoryPath = directory.getCanonicalPath();
+        this.segmentSize = segmentSize - segmentSize
+                % JournalFormat.RECORD_SIZE;
+        openLatestSegment();
+
+        writer = new Thread(new Runnable() {
+            public void run() {
+                writeEvents();
+            }
+        }, "wizard-event-journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+        openJournals.put(directoryPath, this);
+    }
+
+    /**
+     * Maps the latest segment and finds the end of its records, or starts the
+     * first segment. A latest segment without a header, left behind by a
+     * crash while starting it, is started again.
+     */
+    private void openLatestSegment() throws IOException {
+        File[] segments = JournalFormat.listSegments(directory);
+        if (segments.length == 0) {
+            startSegment(1);
+            return;
+        }
+        File latest = segments[segments.length - 1];
+        segmentSequence = JournalFormat.sequenceOf(latest);
+        channel = new RandomAccessFile(latest, "rw").getChannel();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                channel.size());
+        if (JournalFormat.isBlank(buffer)) {
+            // no record can have been written before the header
+            buffer = null;
+            channel.close();
+            startSegment(segmentSequence);
+            return;
+        }
+        JournalFormat.checkHeader(buffer, latest);
+        position = JournalFormat.RECORD_SIZE;
+        while (position < buffer.capacity() && buffer.get(position) != 0) {
+            position += JournalFormat.RECORD_SIZE;
+        }
+    }
+
+    private void startSegment(long sequence) throws IOException {
+        File segment = JournalFormat.segmentFile(directory, sequence);
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        file.setLength(segmentSize);
+        segmentSequence = sequence;
+        channel = file.getChannel();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        JournalFormat.writeHeader(buffer);
+        position = JournalFormat.RECORD_SIZE;
+    }
+
+    /**
+     * Queues the given event to be written to the journal.
+     * 
+     * @param sessionId
+     *            the identifier of the session of the wizard or {@code null}.
+     * @param event
+     *            the event to write.
+     */
+    public void append(String sessionId, WizardEventSnapshot event) {
+        closeLock.readLock().lock();
+        try {
+            checkOpen();
+            queue.add(new Entry(sessionId, event, null));
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("The journal is closed.");
+        }
+    }
+
+    /**
+     * Records the events of the given {@link Wizard} in this journal. Adds
+     * the {@link #listener(String)} of the session to the wizard with a queue
+     * of {@value Wizard#DEFAULT_ASYNC_LISTENER_CAPACITY} events that blocks
+     * when full, so no events are dropped.
+     * 
+     * @param wizard
+     *            the wizard to record.
+     * @param sessionId
+     *            the identifier of the session the events are recorded for.
+     * @return the registration of the listener.
+     */
+    public AsyncListenerRegistration record(Wizard wizard, String sessionId) {
+        return wizard.addAsyncListener(listener(sessionId),
+                Wizard.DEFAULT_ASYNC_LISTENER_CAPACITY,
+                WizardListenerBackpressure.BLOCK);
+    }
+
+    /**
+     * Returns a listener appending the events of a {@link Wizard} to this
+     * journal. Add it with {@link WizardListenerBackpressure#BLOCK}, or use
+     * {@link #record(Wizard, String)}, as the listeners added with
+     * {@link Wizard#addAsyncListener(AsyncWizardListener)} drop the oldest
+     * events when their queue is full.
+     * 
+     * @param sessionId
+     *            the identifier of the session the events are recorded for.
+     * @return the listener to add with
+     *         {@link Wizard#addAsyncListener(AsyncWizardListener, int, WizardListenerBackpressure)}.
+     */
+    public AsyncWizardListener listener(String sessionId) {
+        return new JournalListener(directoryPath, sessionId, this);
+    }
+
+    /**
+     * Listener appending to the journal of a directory. Serialized as the
+     * directory, so the wizard holding it stays serializable.
+     */
+    @SuppressWarnings("serial")
+    private static final class JournalListener implements
+            AsyncWizardListener, Serializable {
+
+        private final String directoryPath;
+        private final String sessionId;
+        private transient MappedWizardEventJournal journal;
+
+        JournalListener(String directoryPath, String sessionId,
+                MappedWizardEventJournal journal) {
+            this.directoryPath = directoryPath;
+            this.sessionId = sessionId;
+            this.journal = journal;
+        }
+
+        public void wizardEvent(WizardEventSnapshot event) {
+            MappedWizardEventJournal target = journal;
+            if (target == null || target.closed) {
+                // deserialized or the journal was reopened
+                target = openJournals.get(directoryPath);
+                journal = target;
+            }
+            if (target != null && !target.closed) {
+                target.append(sessionId, event);
+            }
+        }
+    }
+
+    /**
+     * Waits until all the events appended before this call are written and
+     * forced to the disk.
+     * 
+     * @throws IOException
+     *             if writing the journal has failed.
+     * @throws InterruptedException
+     *             if interrupted while waiting.
+     * @throws IllegalStateException
+     *             if the journal is closed.
+     */
+    public void flush() throws IOException, InterruptedException {
+        closeLock.readLock().lock();
+        try {
+            checkOpen();
+            awaitWritten();
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    private void awaitWritten() throws IOException, InterruptedException {
+        Entry command = new Entry(null, null, new CountDownLatch(1));
+        queue.add(command);
+        command.done.await();
+        if (writeFailure != null) {
+            throw writeFailure;
+        }
+    }
+
+    /**
+     * Writes the queued events and closes the journal.
+     */
+    @Override
+    public void close() throws IOException {
+        closeLock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            openJournals.remove(directoryPath, this);
+            try {
+                awaitWritten();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                writer.interrupt();
+                try {
+                    writer.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                channel.close();
+            }
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+    }
+
+    private void writeEvents() {
+        List<Entry> batch = new ArrayList<Entry>();
+        // runs until interrupted by close() after the last flush
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+            writeBatch(batch);
+            batch.clear();
+        }
+    }
+
+    private void writeBatch(List<Entry> batch) {
+        boolean written = false;
+        for (Entry entry : batch) {
+            if (entry.event != null) {
+                written |= write(entry);
+            }
+        }
+        if (written) {
+            // group commit: one force for the whole batch
+            buffer.force();
+        }
+        for (Entry entry : batch) {
+            if (entry.done != null) {
+                entry.done.countDown();
+            }
+        }
+    }
+
+    private boolean write(Entry entry) {
+        try {
+            if (position == buffer.capacity()) {
+                buffer.force();
+                channel.close();
+                startSegment(segmentSequence + 1);
+            }
+            WizardEventSnapshot event = entry.event;
+            JournalFormat.write(buffer, position, event.getType(),
+                    entry.sessionId, event.getStepId(), event.getStepIndex(),
+                    event.getTimestamp());
+            position += JournalFormat.RECORD_SIZE;
+            return true;
+        } catch (IOException e) {
+            writeFailure = e;
+            Logger.getLogger(MappedWizardEventJournal.class.getName()).log(
+                    Level.SEVERE, "Writing wizard events to " + directory
+                            + " failed.", e);
+            return false;
+        }
+    }
+
+}
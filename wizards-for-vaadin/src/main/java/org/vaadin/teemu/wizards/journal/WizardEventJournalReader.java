@@ -0,0 +1,110 @@
+package org.vaadin.teemu.wizards.journal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the records of a {@link MappedWizardEventJournal} back in the order
+ * they were written, one segment at a time:
+ * 
+ * <pre>
+ * WizardEventJournalReader reader = new WizardEventJournalReader(directory);
+ * try {
+ *     WizardEventRecord record;
+ *     while ((record = reader.read()) != null) {
+ *         funnel.add(record);
+ *     }
+ * } finally {
+ *     reader.close();
+ * }
+ * </pre>
+ * 
+ * <p>
+ * The segments are listed when the reader is created. Records appended to
+ * those segments while reading are returned, but segments started later are
+ * not.
+ * </p>
+ */
+public class WizardEventJournalReader implements Closeable {
+
+    private final File[] segments;
+    private int segmentIndex = -1;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int position;
+
+    /**
+     * Creates a reader for the journal in the given directory.
+     * 
+     * @param directory
+     *            the directory of the segment files.
+     * @throws IOException
+     *             if listing the directory fails.
+     */
+    public WizardEventJournalReader(File directory) throws IOException {
+        segments = JournalFormat.listSegments(directory);
+    }
+
+    /**
+     * Returns the next record of the journal.
+     * 
+     * @return the next record or {@code null} if all the records have been
+     *         read.
+     * @throws IOException
+     *             if reading a segment fails or a segment is corrupted.
+     */
+    public WizardEventRecord read() throws IOException {
+        while (true) {
+            if (buffer != null && position < buffer.capacity()) {
+                WizardEventRecord record = JournalFormat.read(buffer,
+                        position, segments[segmentIndex]);
+                if (record != null) {
+                    position += JournalFormat.RECORD_SIZE;
+                    return record;
+                }
+            }
+            // the end of the segment
+            if (!openNextSegment()) {
+                return null;
+            }
+        }
+    }
+
+    private boolean openNextSegment() throws IOException {
+        closeSegment();
+        if (segmentIndex + 1 >= segments.length) {
+            return false;
+        }
+        segmentIndex++;
+        File segment = segments[segmentIndex];
+        channel = new RandomAccessFile(segment, "r").getChannel();
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        if (JournalFormat.isBlank(buffer)) {
+            // started but never written, skip it
+            position = buffer.capacity();
+            return true;
+        }
+        JournalFormat.checkHeader(buffer, segment);
+        position = JournalFormat.RECORD_SIZE;
+        return true;
+    }
+
+    private void closeSegment() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+            buffer = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeSegment();
+        segmentIndex = segments.length;
+    }
+
+}
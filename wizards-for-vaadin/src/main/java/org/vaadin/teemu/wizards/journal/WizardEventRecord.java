@@ -0,0 +1,71 @@
+package org.vaadin.teemu.wizards.journal;
+
+import java.io.Serializable;
+
+import org.vaadin.teemu.wizards.event.WizardEventSnapshot;
+
+/**
+ * A wizard event read back from a journal by a {@link WizardEventJournalReader}.
+ */
+@SuppressWarnings("serial")
+public final class WizardEventRecord implements Serializable {
+
+    private final WizardEventSnapshot.Type type;
+    private final String sessionId;
+    private final String stepId;
+    private final int stepIndex;
+    private final long timestamp;
+
+    public WizardEventRecord(WizardEventSnapshot.Type type, String sessionId,
+            String stepId, int stepIndex, long timestamp) {
+        this.type = type;
+        this.sessionId = sessionId;
+        this.stepId = stepId;
+        this.stepIndex = stepIndex;
+        this.timestamp = timestamp;
+    }
+
+    public WizardEventSnapshot.Type getType() {
+        return type;
+    }
+
+    /**
+     * Returns the identifier of the session the wizard was in, truncated to
+     * {@value MappedWizardEventJournal#MAX_ID_LENGTH} bytes of UTF-8.
+     * 
+     * @return the session identifier or {@code null}.
+     */
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * Returns the identifier of the step, truncated to
+     * {@value MappedWizardEventJournal#MAX_ID_LENGTH} bytes of UTF-8.
+     * 
+     * @return the step identifier or {@code null}.
+     */
+    public String getStepId() {
+        return stepId;
+    }
+
+    public int getStepIndex() {
+        return stepIndex;
+    }
+
+    /**
+     * Returns the time the event was fired.
+     * 
+     * @return the time in milliseconds since the epoch.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return type + "[" + sessionId + " " + stepId + " at " + timestamp
+                + "]";
+    }
+
+}
@@ -0,0 +1,98 @@
+package org.vaadin.teemu.wizards.metrics;
+
+import java.util.Arrays;
+
+import org.vaadin.teemu.wizards.Wizard;
+import org.vaadin.teemu.wizards.event.AbstractWizardEvent;
+
+/**
+ * {@link WizardMetrics} implementation that passes the measurements to
+ * several other {@link WizardMetrics} in the given order, for example to
+ * collect the timings with {@link InMemoryWizardMetrics} and the funnel with
+ * {@link WizardFunnel} at the same time:
+ * 
+ * <pre>
+ * wizard.setMetrics(new CompositeWizardMetrics(METRICS,
+ *         FUNNEL.forWizard(&quot;signup&quot;)));
+ * </pre>
+ */
+public class CompositeWizardMetrics implements WizardMetrics {
+
+    private final WizardMetrics[] metrics;
+
+    /**
+     * Creates metrics passing the measurements to all the given metrics.
+     * 
+     * @param metrics
+     *            the metrics receiving the measurements.
+     * @throws IllegalArgumentException
+     *             if any of the given metrics is {@code null}.
+     */
+    public CompositeWizardMetrics(WizardMetrics... metrics) {
+        for (WizardMetrics m : metrics) {
+            if (m == null) {
+                throw new IllegalArgumentException("metrics must not be null");
+            }
+        }
+        this.metrics = Arrays.copyOf(metrics, metrics.length);
+    }
+
+    @Override
+    public void stepActivated(Wizard wizard, String stepId) {
+        for (WizardMetrics m : metrics) {
+            m.stepActivated(wizard, stepId);
+        }
+    }
+
+    @Override
+    public void stepDeactivated(Wizard wizard, String stepId, long dwellNanos) {
+        for (WizardMetrics m : metrics) {
+            m.stepDeactivated(wizard, stepId, dwellNanos);
+        }
+    }
+
+    @Override
+    public void navigationGuarded(Wizard wizard, String stepId,
+            boolean advancing, boolean allowed, long nanos) {
+        for (WizardMetrics m : metrics) {
+            m.navigationGuarded(wizard, stepId, advancing, allowed, nanos);
+        }
+    }
+
+    @Override
+    public void contentCreated(Wizard wizard, String stepId, long nanos) {
+        for (WizardMetrics m : metrics) {
+            m.contentCreated(wizard, stepId, nanos);
+        }
+    }
+
+    @Override
+    public void listenersNotified(Wizard wizard,
+            Class<? extends AbstractWizardEvent> eventType, long nanos) {
+        for (WizardMetrics m : metrics) {
+            m.listenersNotified(wizard, eventType, nanos);
+        }
+    }
+
+    @Override
+    public void wizardCompleted(Wizard wizard, String stepId) {
+        for (WizardMetrics m : metrics) {
+            m.wizardCompleted(wizard, stepId);
+        }
+    }
+
+    @Override
+    public void wizardCancelled(Wizard wizard, String stepId) {
+        for (WizardMetrics m : metrics) {
+            m.wizardCancelled(wizard, stepId);
+        }
+    }
+
+    @Override
+    public void wizardAbandoned(Wizard wizard, String stepId) {
+        for (WizardMetrics m : metrics) {
+            m.wizardAbandoned(wizard, stepId);
+        }
+    }
+
+}
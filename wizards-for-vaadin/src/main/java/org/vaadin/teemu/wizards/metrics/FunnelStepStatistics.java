@@ -0,0 +1,112 @@
+package org.vaadin.teemu.wizards.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Funnel counters of a single step of a wizard collected by
+ * {@link WizardFunnel}.
+ */
+public class FunnelStepStatistics {
+
+    private final String wizardName;
+    private final String stepId;
+
+    final LongAdder entries = new LongAdder();
+    final LongAdder exits = new LongAdder();
+    final LongAdder completions = new LongAdder();
+    final LongAdder cancellations = new LongAdder();
+    final LongAdder abandonments = new LongAdder();
+    // not cumulative, so it's kept when the other counters are reset
+    final LongAdder occupancy = new LongAdder();
+
+    FunnelStepStatistics(String wizardName, String stepId) {
+        this.wizardName = wizardName;
+        this.stepId = stepId;
+    }
+
+    public String getWizardName() {
+        return wizardName;
+    }
+
+    public String getStepId() {
+        return stepId;
+    }
+
+    /**
+     * Returns how many times users have entered the step.
+     */
+    public long getEntries() {
+        return entries.sum();
+    }
+
+    /**
+     * Returns how many times users have left the step, including leaving by
+     * completing, cancelling or abandoning the wizard.
+     */
+    public long getExits() {
+        return exits.sum();
+    }
+
+    /**
+     * Returns how many users are on the step right now. Wizards whose session
+     * expires leave the step when they're detached. The occupancy is not
+     * cleared by {@link WizardFunnel#reset()}.
+     */
+    public long getOccupancy() {
+        // a concurrent entry and exit may be seen in either order
+        return Math.max(0, occupancy.sum());
+    }
+
+    /**
+     * Returns how many wizards have been completed on the step.
+     */
+    public long getCompletions() {
+        return completions.sum();
+    }
+
+    /**
+     * Returns how many wizards have been cancelled on the step.
+     */
+    public long getCancellations() {
+        return cancellations.sum();
+    }
+
+    /**
+     * Returns how many wizards have been abandoned on the step, for example
+     * because the session expired.
+     */
+    public long getAbandonments() {
+        return abandonments.sum();
+    }
+
+    void entered() {
+        entries.increment();
+        occupancy.increment();
+    }
+
+    void left() {
+        exits.increment();
+        occupancy.decrement();
+    }
+
+    /**
+     * Clears the cumulative counters.
+     */
+    void reset() {
+        entries.reset();
+        exits.reset();
+        completions.reset();
+        cancellations.reset();
+        abandonments.reset();
+    }
+
+    @Override
+    public String toString() {
+        return wizardName + "/" + stepId + "[entries=" + getEntries()
+                + ", exits=" + getExits() + ", occupancy=" + getOccupancy()
+                + ", completions=" + getCompletions() + ", cancellations="
+                + getCancellations() + ", abandonments="
+                + getAbandonments() + "]";
+    }
+
+}
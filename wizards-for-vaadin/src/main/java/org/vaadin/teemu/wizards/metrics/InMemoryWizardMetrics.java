@@ -0,0 +1,143 @@
+package org.vaadin.teemu.wizards.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.vaadin.teemu.wizards.Wizard;
+import org.vaadin.teemu.wizards.event.AbstractWizardEvent;
+
+/**
+ * {@link WizardMetrics} implementation that collects the measurements in
+ * memory using {@link java.util.concurrent.atomic.LongAdder} based counters
+ * and {@link LatencyHistogram}s. A single instance is typically shared by all
+ * the wizards of an application:
+ * 
+ * <pre>
+ * static final InMemoryWizardMetrics METRICS = new InMemoryWizardMetrics();
+ * ...
+ * wizard.setMetrics(METRICS);
+ * </pre>
+ * 
+ * The measurements of the steps are keyed by the step identifier, so steps
+ * with the same identifier in different wizards share their statistics.
+ */
+public class InMemoryWizardMetrics implements WizardMetrics {
+
+    private final ConcurrentMap<String, StepStatistics> steps = new ConcurrentHashMap<String, StepStatistics>();
+    private final ConcurrentMap<String, LatencyHistogram> listenerTimes = new ConcurrentHashMap<String, LatencyHistogram>();
+
+    /**
+     * Returns the statistics of the step with the given identifier. The
+     * statistics are created if nothing is recorded for the step yet.
+     * 
+     * @param stepId
+     *            identifier of the step.
+     * @return the statistics of the step.
+     */
+    public StepStatistics getStepStatistics(String stepId) {
+        StepStatistics statistics = steps.get(stepId);
+        if (statistics == null) {
+            statistics = new StepStatistics(stepId);
+            StepStatistics existing = steps.putIfAbsent(stepId, statistics);
+            if (existing != null) {
+                statistics = existing;
+            }
+        }
+        return statistics;
+    }
+
+    /**
+     * Returns the statistics of all steps that have recorded measurements.
+     * 
+     * @return the statistics of all steps.
+     */
+    public List<StepStatistics> getAllStepStatistics() {
+        return Collections.unmodifiableList(new ArrayList<StepStatistics>(
+                steps.values()));
+    }
+
+    /**
+     * Returns the time taken to dispatch events of the given type to the
+     * listeners.
+     * 
+     * @param eventType
+     *            the type of the event.
+     * @return the dispatch times of the event type.
+     */
+    public LatencyHistogram getListenerTime(
+            Class<? extends AbstractWizardEvent> eventType) {
+        String key = eventType.getName();
+        LatencyHistogram histogram = listenerTimes.get(key);
+        if (histogram == null) {
+            histogram = new LatencyHistogram();
+            LatencyHistogram existing = listenerTimes.putIfAbsent(key,
+                    histogram);
+            if (existing != null) {
+                histogram = existing;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Discards all recorded measurements.
+     */
+    public void reset() {
+        steps.clear();
+        listenerTimes.clear();
+    }
+
+    @Override
+    public void stepActivated(Wizard wizard, String stepId) {
+        getStepStatistics(stepId).activations.increment();
+    }
+
+    @Override
+    public void stepDeactivated(Wizard wizard, String stepId, long dwellNanos) {
+        getStepStatistics(stepId).dwellTime.record(dwellNanos);
+    }
+
+    @Override
+    public void navigationGuarded(Wizard wizard, String stepId,
+            boolean advancing, boolean allowed, long nanos) {
+        StepStatistics statistics = getStepStatistics(stepId);
+        if (advancing) {
+            statistics.advanceLatency.record(nanos);
+            if (!allowed) {
+                statistics.advanceRejections.increment();
+            }
+        } else {
+            statistics.backLatency.record(nanos);
+            if (!allowed) {
+                statistics.backRejections.increment();
+            }
+        }
+    }
+
+    @Override
+    public void contentCreated(Wizard wizard, String stepId, long nanos) {
+        getStepStatistics(stepId).contentCreationTime.record(nanos);
+    }
+
+    @Override
+    public void listenersNotified(Wizard wizard,
+            Class<? extends AbstractWizardEvent> eventType, long nanos) {
+        getListenerTime(eventType).record(nanos);
+    }
+
+    @Override
+    public void wizardCompleted(Wizard wizard, String stepId) {
+        getStepStatistics(stepId).completions.increment();
+    }
+
+    @Override
+    public void wizardCancelled(Wizard wizard, String stepId) {
+        if (stepId != null) {
+            getStepStatistics(stepId).cancellations.increment();
+        }
+    }
+
+}
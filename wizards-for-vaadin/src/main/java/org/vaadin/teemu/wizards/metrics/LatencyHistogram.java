@@ -0,0 +1,133 @@
+package org.vaadin.teemu.wizards.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe histogram of durations with exponentially growing buckets. The
+ * upper bound of the first bucket is one microsecond and every following
+ * bucket doubles it, the last bucket collecting everything above about 67
+ * seconds. Recording a value never blocks and doesn't allocate.
+ */
+public class LatencyHistogram {
+
+    /**
+     * The number of buckets in the histogram.
+     */
+    public static final int BUCKET_COUNT = 28;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(
+            Math::max, 0);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records the given duration.
+     * 
+     * @param nanos
+     *            the duration in nanoseconds.
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets[bucketOf(nanos)].increment();
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    private static int bucketOf(long nanos) {
+        long micros = (nanos + 999) / 1000;
+        int bucket = micros <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(micros - 1);
+        return Math.min(bucket, BUCKET_COUNT - 1);
+    }
+
+    /**
+     * Returns the inclusive upper bound of the given bucket in nanoseconds or
+     * {@link Long#MAX_VALUE} for the last bucket.
+     * 
+     * @param bucket
+     *            index of the bucket.
+     * @return the upper bound of the bucket.
+     */
+    public static long getBucketUpperBoundNanos(int bucket) {
+        if (bucket >= BUCKET_COUNT - 1) {
+            return Long.MAX_VALUE;
+        }
+        return (1L << bucket) * 1000;
+    }
+
+    /**
+     * Returns a snapshot of the number of recorded durations in each bucket.
+     * 
+     * @return the bucket counts.
+     */
+    public long[] getBucketCounts() {
+        long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * Returns the mean of the recorded durations in nanoseconds or zero if
+     * nothing is recorded.
+     * 
+     * @return the mean duration.
+     */
+    public long getMeanNanos() {
+        long count = getCount();
+        return count == 0 ? 0 : getTotalNanos() / count;
+    }
+
+    /**
+     * Returns an estimate of the given percentile: the upper bound of the
+     * bucket containing it, limited by the maximum recorded duration.
+     * 
+     * @param percentile
+     *            the percentile between 0 and 100.
+     * @return the estimated duration in nanoseconds or zero if nothing is
+     *         recorded.
+     */
+    public long getPercentileNanos(double percentile) {
+        long[] counts = getBucketCounts();
+        long total = 0;
+        for (long bucketCount : counts) {
+            total += bucketCount;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank && counts[i] > 0) {
+                return Math.min(getBucketUpperBoundNanos(i), getMaxNanos());
+            }
+        }
+        return getMaxNanos();
+    }
+
+}
@@ -0,0 +1,93 @@
+package org.vaadin.teemu.wizards.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measurements of a single step collected by {@link InMemoryWizardMetrics}.
+ */
+public class StepStatistics {
+
+    private final String stepId;
+
+    final LongAdder activations = new LongAdder();
+    final LongAdder advanceRejections = new LongAdder();
+    final LongAdder backRejections = new LongAdder();
+    final LongAdder completions = new LongAdder();
+    final LongAdder cancellations = new LongAdder();
+    final LatencyHistogram dwellTime = new LatencyHistogram();
+    final LatencyHistogram advanceLatency = new LatencyHistogram();
+    final LatencyHistogram backLatency = new LatencyHistogram();
+    final LatencyHistogram contentCreationTime = new LatencyHistogram();
+
+    StepStatistics(String stepId) {
+        this.stepId = stepId;
+    }
+
+    public String getStepId() {
+        return stepId;
+    }
+
+    /**
+     * Returns how many times the step has been activated.
+     */
+    public long getActivations() {
+        return activations.sum();
+    }
+
+    /**
+     * Returns how many times the step has denied advancing.
+     */
+    public long getAdvanceRejections() {
+        return advanceRejections.sum();
+    }
+
+    /**
+     * Returns how many times the step has denied going back.
+     */
+    public long getBackRejections() {
+        return backRejections.sum();
+    }
+
+    /**
+     * Returns how many wizards have been completed on the step.
+     */
+    public long getCompletions() {
+        return completions.sum();
+    }
+
+    /**
+     * Returns how many wizards have been cancelled on the step.
+     */
+    public long getCancellations() {
+        return cancellations.sum();
+    }
+
+    /**
+     * Returns the time spent on the step per visit.
+     */
+    public LatencyHistogram getDwellTime() {
+        return dwellTime;
+    }
+
+    /**
+     * Returns the time taken by {@code onAdvance} of the step.
+     */
+    public LatencyHistogram getAdvanceLatency() {
+        return advanceLatency;
+    }
+
+    /**
+     * Returns the time taken by {@code onBack} of the step.
+     */
+    public LatencyHistogram getBackLatency() {
+        return backLatency;
+    }
+
+    /**
+     * Returns the time taken by {@code getContent} of the step.
+     */
+    public LatencyHistogram getContentCreationTime() {
+        return contentCreationTime;
+    }
+
+}
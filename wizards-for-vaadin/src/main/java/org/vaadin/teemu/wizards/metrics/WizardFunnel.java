@@ -0,0 +1,229 @@
+package org.vaadin.teemu.wizards.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.vaadin.teemu.wizards.Wizard;
+
+/**
+ * Application-wide funnel of the wizards: how many users have entered and
+ * left each step of each wizard, how many are on it right now and where the
+ * wizards are completed, cancelled or abandoned. The counters are updated through the
+ * {@link WizardMetrics} returned by {@link #forWizard(String)}, so they're
+ * only updated when the users navigate. Recording an event is a lookup in a
+ * concurrent map and an increment of a striped
+ * {@link java.util.concurrent.atomic.LongAdder}, so the wizards never
+ * contend on a shared lock.
+ * 
+ * <pre>
+ * static final WizardFunnel FUNNEL = new WizardFunnel();
+ * ...
+ * FUNNEL.registerMBean();
+ * ...
+ * wizard.setMetrics(FUNNEL.forWizard(&quot;signup&quot;));
+ * </pre>
+ * 
+ * Use a {@link CompositeWizardMetrics} to record the events of a wizard both
+ * in the funnel and in other metrics, such as {@link InMemoryWizardMetrics}.
+ * 
+ * The counters are read by operators through JMX, see
+ * {@link WizardFunnelMXBean}.
+ */
+public class WizardFunnel implements WizardFunnelMXBean {
+
+    /**
+     * The name {@link #registerMBean()} registers the funnel with.
+     */
+    public static final String DEFAULT_OBJECT_NAME = "org.vaadin.teemu.wizards:type=WizardFunnel";
+
+    private final ConcurrentMap<String, ConcurrentMap<String, FunnelStepStatistics>> wizards = new ConcurrentHashMap<String, ConcurrentMap<String, FunnelStepStatistics>>();
+    private ObjectName registeredName;
+
+    /**
+     * Returns a {@link WizardMetrics} recording the events of the wizards
+     * with the given name into this funnel. The metrics can be shared by all
+     * the wizards with the same name.
+     * 
+     * @param wizardName
+     *            the name of the wizard, for example "signup".
+     * @return the metrics to set with {@link Wizard#setMetrics(WizardMetrics)}.
+     */
+    public WizardMetrics forWizard(final String wizardName) {
+        if (wizardName == null) {
+            throw new IllegalArgumentException("wizardName must not be null");
+        }
+        return new WizardMetrics() {
+
+            @Override
+            public void stepActivated(Wizard wizard, String stepId) {
+                getStepStatistics(wizardName, stepId).entered();
+            }
+
+            @Override
+            public void stepDeactivated(Wizard wizard, String stepId,
+                    long dwellNanos) {
+                getStepStatistics(wizardName, stepId).left();
+            }
+
+            @Override
+            public void wizardCompleted(Wizard wizard, String stepId) {
+                getStepStatistics(wizardName, stepId).completions.increment();
+            }
+
+            @Override
+            public void wizardCancelled(Wizard wizard, String stepId) {
+                if (stepId != null) {
+                    getStepStatistics(wizardName, stepId).cancellations
+                            .increment();
+                }
+            }
+
+            @Override
+            public void wizardAbandoned(Wizard wizard, String stepId) {
+                getStepStatistics(wizardName, stepId).abandonments
+                        .increment();
+            }
+        };
+    }
+
+    /**
+     * Returns the counters of the given step of the given wizard. The
+     * counters are created if nothing is recorded for the step yet.
+     * 
+     * @param wizardName
+     *            the name of the wizard.
+     * @param stepId
+     *            identifier of the step.
+     * @return the counters of the step.
+     */
+    public FunnelStepStatistics getStepStatistics(String wizardName,
+            String stepId) {
+        ConcurrentMap<String, FunnelStepStatistics> steps = wizards
+                .get(wizardName);
+        if (steps == null) {
+            steps = new ConcurrentHashMap<String, FunnelStepStatistics>();
+            ConcurrentMap<String, FunnelStepStatistics> existing = wizards
+                    .putIfAbsent(wizardName, steps);
+            if (existing != null) {
+                steps = existing;
+            }
+        }
+        FunnelStepStatistics statistics = steps.get(stepId);
+        if (statistics == null) {
+            statistics = new FunnelStepStatistics(wizardName, stepId);
+            FunnelStepStatistics existing = steps.putIfAbsent(stepId,
+                    statistics);
+            if (existing != null) {
+                statistics = existing;
+            }
+        }
+        return statistics;
+    }
+
+    @Override
+    public List<FunnelStepStatistics> getSteps() {
+        List<FunnelStepStatistics> all = new ArrayList<FunnelStepStatistics>();
+        for (ConcurrentMap<String, FunnelStepStatistics> steps : wizards
+                .values()) {
+            all.addAll(steps.values());
+        }
+        return all;
+    }
+
+    @Override
+    public long getOccupancy() {
+        long occupancy = 0;
+        for (FunnelStepStatistics step : getSteps()) {
+            occupancy += step.getOccupancy();
+        }
+        return occupancy;
+    }
+
+    @Override
+    public long getCompletions() {
+        long completions = 0;
+        for (FunnelStepStatistics step : getSteps()) {
+            completions += step.getCompletions();
+        }
+        return completions;
+    }
+
+    @Override
+    public long getCancellations() {
+        long cancellations = 0;
+        for (FunnelStepStatistics step : getSteps()) {
+            cancellations += step.getCancellations();
+        }
+        return cancellations;
+    }
+
+    @Override
+    public long getAbandonments() {
+        long abandonments = 0;
+        for (FunnelStepStatistics step : getSteps()) {
+            abandonments += step.getAbandonments();
+        }
+        return abandonments;
+    }
+
+    @Override
+    public void reset() {
+        // the steps are kept for their occupancy
+        for (FunnelStepStatistics step : getSteps()) {
+            step.reset();
+        }
+    }
+
+    /**
+     * Registers this funnel to the platform MBean server with
+     * {@link #DEFAULT_OBJECT_NAME}.
+     * 
+     * @throws JMException
+     *             if the registration fails, for example because another
+     *             funnel is registered with the same name.
+     */
+    public void registerMBean() throws JMException {
+        registerMBean(new ObjectName(DEFAULT_OBJECT_NAME));
+    }
+
+    /**
+     * Registers this funnel to the platform MBean server with the given name.
+     * 
+     * @param name
+     *            the object name of the MBean.
+     * @throws JMException
+     *             if the registration fails.
+     */
+    public synchronized void registerMBean(ObjectName name)
+            throws JMException {
+        if (registeredName != null) {
+            throw new IllegalStateException("The funnel is already registered as "
+                    + registeredName);
+        }
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        registeredName = name;
+    }
+
+    /**
+     * Unregisters this funnel from the platform MBean server. Does nothing if
+     * the funnel is not registered.
+     * 
+     * @throws JMException
+     *             if the unregistration fails.
+     */
+    public synchronized void unregisterMBean() throws JMException {
+        if (registeredName != null) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.unregisterMBean(registeredName);
+            registeredName = null;
+        }
+    }
+
+}
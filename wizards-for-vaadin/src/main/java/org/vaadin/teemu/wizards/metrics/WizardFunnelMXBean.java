@@ -0,0 +1,45 @@
+package org.vaadin.teemu.wizards.metrics;
+
+import java.util.List;
+
+/**
+ * Management interface of {@link WizardFunnel}. In a JMX console the steps
+ * are shown as a table with a row per step.
+ */
+public interface WizardFunnelMXBean {
+
+    /**
+     * Returns the counters of all the steps of all the wizards that have
+     * recorded events.
+     */
+    List<FunnelStepStatistics> getSteps();
+
+    /**
+     * Returns how many users are on any step of any wizard right now.
+     */
+    long getOccupancy();
+
+    /**
+     * Returns how many wizards have been completed.
+     */
+    long getCompletions();
+
+    /**
+     * Returns how many wizards have been cancelled.
+     */
+    long getCancellations();
+
+    /**
+     * Returns how many wizards have been abandoned, for example because their
+     * session expired.
+     */
+    long getAbandonments();
+
+    /**
+     * Clears the cumulative counters: the entries, exits, completions,
+     * cancellations and abandonments. The occupancy of the steps is kept, as
+     * the users on the steps are still there.
+     */
+    void reset();
+
+}
@@ -0,0 +1,144 @@
+package org.vaadin.teemu.wizards.metrics;
+
+import org.vaadin.teemu.wizards.Wizard;
+import org.vaadin.teemu.wizards.WizardStep;
+import org.vaadin.teemu.wizards.event.AbstractWizardEvent;
+
+/**
+ * Receives timings and counts from a {@link Wizard} for monitoring purposes.
+ * Implement this interface to adapt the measurements to a metrics library of
+ * your choice or use the built-in {@link InMemoryWizardMetrics}. All methods
+ * have an empty default implementation, so an implementation only needs to
+ * override the methods it's interested in.
+ * 
+ * <p>
+ * The steps are identified by their identifiers (see
+ * {@link Wizard#addStep(WizardStep, String)}). All durations are in
+ * nanoseconds. A single instance can be shared by any number of wizards, so
+ * implementations must be thread-safe.
+ * </p>
+ * 
+ * @see Wizard#setMetrics(WizardMetrics)
+ */
+public interface WizardMetrics {
+
+    /**
+     * A {@code WizardMetrics} that ignores all measurements.
+     */
+    public static final WizardMetrics NONE = new WizardMetrics() {
+    };
+
+    /**
+     * Called when a step is activated.
+     * 
+     * @param wizard
+     *            the wizard containing the step.
+     * @param stepId
+     *            identifier of the activated step.
+     */
+    public default void stepActivated(Wizard wizard, String stepId) {
+    }
+
+    /**
+     * Called when the user leaves a step, completes or cancels the wizard.
+     * 
+     * @param wizard
+     *            the wizard containing the step.
+     * @param stepId
+     *            identifier of the step.
+     * @param dwellNanos
+     *            time spent on the step since it was activated.
+     */
+    public default void stepDeactivated(Wizard wizard, String stepId,
+            long dwellNanos) {
+    }
+
+    /**
+     * Called when a step has allowed or denied navigating away from it, see
+     * {@link WizardStep#onAdvance()} and {@link WizardStep#onBack()}.
+     * 
+     * @param wizard
+     *            the wizard containing the step.
+     * @param stepId
+     *            identifier of the step.
+     * @param advancing
+     *            {@code true} for {@code onAdvance}, {@code false} for
+     *            {@code onBack}.
+     * @param allowed
+     *            {@code true} if the navigation was allowed.
+     * @param nanos
+     *            time taken by the step to decide.
+     */
+    public default void navigationGuarded(Wizard wizard, String stepId,
+            boolean advancing, boolean allowed, long nanos) {
+    }
+
+    /**
+     * Called when the content of a step has been requested with
+     * {@link WizardStep#getContent()} during a navigation.
+     * 
+     * @param wizard
+     *            the wizard containing the step.
+     * @param stepId
+     *            identifier of the step.
+     * @param nanos
+     *            time taken by {@link WizardStep#getContent()}.
+     */
+    public default void contentCreated(Wizard wizard, String stepId,
+            long nanos) {
+    }
+
+    /**
+     * Called when an event has been dispatched to the
+     * {@link org.vaadin.teemu.wizards.event.WizardProgressListener}s.
+     * 
+     * @param wizard
+     *            the wizard that fired the event.
+     * @param eventType
+     *            type of the event.
+     * @param nanos
+     *            time taken by all the listeners.
+     */
+    public default void listenersNotified(Wizard wizard,
+            Class<? extends AbstractWizardEvent> eventType, long nanos) {
+    }
+
+    /**
+     * Called when a wizard is completed.
+     * 
+     * @param wizard
+     *            the completed wizard.
+     * @param stepId
+     *            identifier of the step the wizard was completed on.
+     */
+    public default void wizardCompleted(Wizard wizard, String stepId) {
+    }
+
+    /**
+     * Called when a wizard is cancelled.
+     * 
+     * @param wizard
+     *            the cancelled wizard.
+     * @param stepId
+     *            identifier of the step the wizard was cancelled on or
+     *            {@code null} if no step was active.
+     */
+    public default void wizardCancelled(Wizard wizard, String stepId) {
+    }
+
+    /**
+     * Called when a wizard that is neither completed nor cancelled is
+     * detached, for example because its session has expired or the user has
+     * closed the browser window. Leaving the step is reported with
+     * {@link #stepDeactivated(Wizard, String, long)} before this call. If the
+     * wizard is attached again, its step is reported as activated again.
+     * 
+     * @param wizard
+     *            the abandoned wizard.
+     * @param stepId
+     *            identifier of the step the wizard was abandoned on.
+     */
+    public default void wizardAbandoned(Wizard wizard, String stepId) {
+    }
+
+}
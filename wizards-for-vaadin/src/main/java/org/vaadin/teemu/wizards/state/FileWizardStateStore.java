@@ -0,0 +1,416 @@
+package org.vaadin.teemu.wizards.state;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * {@link WizardStateStore} that appends the snapshots to a file.
+ *
+ * <p>
+ * The latest snapshot of each key is kept in memory, so {@link #load(String)}
+ * never touches the file. Changes are queued and written by a single
+ * background thread that writes all queued changes in one batch, keeping only
+ * the latest change of each key, so {@link #save(String, WizardSnapshot)} and
+ * {@link #remove(String)} never block the request thread. The file is
+ * replayed when the store is created, and a record left incomplete by a crash
+ * at the end of the file is cut off before appending. Use {@link #compact()}
+ * to rewrite the file with only the latest snapshots.
+ * </p>
+ *
+ * <p>
+ * A single instance should be shared by the whole application and closed when
+ * the application is shut down.
+ * </p>
+ */
+public class FileWizardStateStore implements WizardStateStore, Closeable {
+
+    private static final byte SAVE = 1;
+    private static final byte REMOVE = 2;
+    private static final byte FLUSH = 3;
+    private static final byte COMPACT = 4;
+
+    private static final int MAX_BATCH_SIZE = 1024;
+
+    private final File file;
+    private final Map<String, WizardSnapshot> snapshots = new ConcurrentHashMap<String, WizardSnapshot>();
+    private final BlockingQueue<Change> queue = new LinkedBlockingQueue<Change>();
+    private final Thread writer;
+    private DataOutputStream out;
+    private volatile IOException writeFailure;
+    private volatile boolean closed;
+    // read locked while queueing, write locked while closing
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+
+    /**
+     * Queued change or a command for the writer thread.
+     */
+    private static final class Change {
+        final byte type;
+        final String key;
+        final WizardSnapshot snapshot;
+        final CountDownLatch done;
+
+        Change(byte type, String key, WizardSnapshot snapshot,
+                CountDownLatch done) {
+            this.type = type;
+            this.key = key;
+            this.snapshot = snapshot;
+            this.done = done;
+        }
+    }
+
+    /**
+     * Opens the store writing to the given file. The existing snapshots are
+     * read from the file if it exists.
+     *
+     * @param file
+     *            the file to append the snapshots to.
+     * @throws IOException
+     *             if reading or opening the file fails.
+     */
+    public FileWizardStateStore(File file) throws IOException {
+        this.file = file;
+        if (file.exists()) {
+            replay();
+        }
+        out = openForAppend(file);
+
+        writer = new Thread(new Runnable() {
+            public void run() {
+                writeChanges();
+            }
+        }, "wizard-state-store-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private void replay() throws IOException {
+        CountingInputStream counter = new CountingInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+        DataInputStream in = new DataInputStream(counter);
+        // the length of the complete records
+        long validLength = 0;
+        try {
+            while (true) {
+                byte type = in.readByte();
+                String key = in.readUTF();
+                if (type == SAVE) {
+                    WizardSnapshot snapshot = readSnapshot(in);
+                    snapshots.put(key, snapshot);
+                } else if (type == REMOVE) {
+                    snapshots.remove(key);
+                } else {
+                    throw new IOException("Corrupted state file " + file);
+                }
+                validLength = counter.count;
+            }
+        } catch (EOFException e) {
+            // end of file or a truncated last record
+        } finally {
+            in.close();
+        }
+        if (validLength < file.length()) {
+            // cut off the torn record so that the appended ones stay readable
+            RandomAccessFile truncated = new RandomAccessFile(file, "rw");
+            try {
+                truncated.getChannel().truncate(validLength);
+            } finally {
+                truncated.close();
+            }
+        }
+    }
+
+    /**
+     * Counts the bytes read through it.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+
+    private static WizardSnapshot readSnapshot(DataInputStream in)
+            throws IOException {
+        String currentStepId = in.readUTF();
+        String lastCompletedStepId = in.readBoolean() ? in.readUTF() : null;
+        long timestamp = in.readLong();
+        return new WizardSnapshot(currentStepId, lastCompletedStepId,
+                timestamp);
+    }
+
+    private static void writeChange(DataOutputStream out, Change change)
+            throws IOException {
+        out.writeByte(change.type);
+        out.writeUTF(change.key);
+        if (change.type == SAVE) {
+            WizardSnapshot snapshot = change.snapshot;
+            out.writeUTF(snapshot.getCurrentStepId());
+            out.writeBoolean(snapshot.getLastCompletedStepId() != null);
+            if (snapshot.getLastCompletedStepId() != null) {
+                out.writeUTF(snapshot.getLastCompletedStepId());
+            }
+            out.writeLong(snapshot.getTimestamp());
+        }
+    }
+
+    private static DataOutputStream openForAppend(File file)
+            throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file, true)));
+    }
+
+    @Override
+    public void save(String key, WizardSnapshot snapshot) {
+        closeLock.readLock().lock();
+        try {
+            checkOpen();
+            snapshots.put(key, snapshot);
+            queue.add(new Change(SAVE, key, snapshot, null));
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public WizardSnapshot load(String key) {
+        return snapshots.get(key);
+    }
+
+    @Override
+    public void remove(String key) {
+        closeLock.readLock().lock();
+        try {
+            checkOpen();
+            if (snapshots.remove(key) != null) {
+                queue.add(new Change(REMOVE, key, null, null));
+            }
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("The store is closed.");
+        }
+    }
+
+    /**
+     * Waits until all the changes queued before this call are written to the
+     * file.
+     *
+     * @throws IOException
+     *             if writing to the file has failed.
+     * @throws InterruptedException
+     *             if interrupted while waiting.
+     * @throws IllegalStateException
+     *             if the store is closed.
+     */
+    public void flush() throws IOException, InterruptedException {
+        awaitCommand(FLUSH);
+    }
+
+    /**
+     * Rewrites the file with only the latest snapshot of each key. The
+     * changes queued before this call are included.
+     *
+     * @throws IOException
+     *             if rewriting the file fails.
+     * @throws InterruptedException
+     *             if interrupted while waiting.
+     * @throws IllegalStateException
+     *             if the store is closed.
+     */
+    public void compact() throws IOException, InterruptedException {
+        awaitCommand(COMPACT);
+    }
+
+    private void awaitCommand(byte type) throws IOException,
+            InterruptedException {
+        Change command = new Change(type, null, null, new CountDownLatch(1));
+        closeLock.readLock().lock();
+        try {
+            checkOpen();
+            queue.add(command);
+        } finally {
+            closeLock.readLock().unlock();
+        }
+        awaitDone(command);
+    }
+
+    private void awaitDone(Change command) throws IOException,
+            InterruptedException {
+        command.done.await();
+        if (writeFailure != null) {
+            throw writeFailure;
+        }
+    }
+
+    /**
+     * Writes the queued changes and closes the file. Changes made after
+     * closing fail with an {@link IllegalStateException}.
+     */
+    @Override
+    public void close() throws IOException {
+        Change lastFlush = new Change(FLUSH, null, null, new CountDownLatch(1));
+        closeLock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            // no changes can be queued after the last flush
+            closed = true;
+            queue.add(lastFlush);
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        try {
+            awaitDone(lastFlush);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            writer.interrupt();
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            out.close();
+        }
+    }
+
+    private void writeChanges() {
+        List<Change> batch = new ArrayList<Change>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+            writeBatch(batch);
+            batch.clear();
+        }
+    }
+
+    private void writeBatch(List<Change> batch) {
+        // only the latest change of each key needs to be written
+        Map<String, Change> changes = new LinkedHashMap<String, Change>();
+        for (Change change : batch) {
+            if (change.done == null) {
+                changes.remove(change.key);
+                changes.put(change.key, change);
+                continue;
+            }
+
+            // a command: write the preceding changes first
+            write(changes.values());
+            changes.clear();
+            if (change.type == COMPACT) {
+                rewrite();
+            }
+            change.done.countDown();
+        }
+        write(changes.values());
+    }
+
+    private void write(Iterable<Change> changes) {
+        try {
+            boolean written = false;
+            for (Change change : changes) {
+                writeChange(out, change);
+                written = true;
+            }
+            if (written) {
+                out.flush();
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Replaces the file with one containing only the current snapshots.
+     */
+    private void rewrite() {
+        File compacted = new File(file.getPath() + ".compact");
+        try {
+            DataOutputStream compactOut = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(compacted)));
+            try {
+                for (Map.Entry<String, WizardSnapshot> entry : snapshots
+                        .entrySet()) {
+                    writeChange(compactOut, new Change(SAVE, entry.getKey(),
+                            entry.getValue(), null));
+                }
+            } finally {
+                compactOut.close();
+            }
+            out.close();
+            try {
+                // the file is either the old or the compacted one on a crash
+                Files.move(compacted.toPath(), file.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                // keep appending to the old file if replacing it failed
+                out = openForAppend(file);
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void fail(IOException e) {
+        writeFailure = e;
+        Logger.getLogger(FileWizardStateStore.class.getName()).log(
+                Level.SEVERE, "Writing wizard snapshots to " + file
+                        + " failed.", e);
+    }
+
+}
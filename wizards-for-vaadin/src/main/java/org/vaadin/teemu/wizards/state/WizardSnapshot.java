@@ -0,0 +1,84 @@
+package org.vaadin.teemu.wizards.state;
+
+import java.io.Serializable;
+
+import org.vaadin.teemu.wizards.Wizard;
+
+/**
+ * Immutable snapshot of the navigation state of a {@link Wizard}. The steps
+ * are referred to by their identifiers, so a snapshot can be restored to
+ * another {@link Wizard} instance with the same step identifiers, for example
+ * in a new session.
+ * 
+ * @see Wizard#takeSnapshot()
+ * @see Wizard#restoreSnapshot(WizardSnapshot)
+ */
+@SuppressWarnings("serial")
+public final class WizardSnapshot implements Serializable {
+
+    private final String currentStepId;
+    private final String lastCompletedStepId;
+    private final long timestamp;
+
+    /**
+     * @param currentStepId
+     *            identifier of the active step, not {@code null}.
+     * @param lastCompletedStepId
+     *            identifier of the last completed step or {@code null}.
+     * @param timestamp
+     *            creation time of the snapshot in milliseconds since the
+     *            epoch.
+     */
+    public WizardSnapshot(String currentStepId, String lastCompletedStepId,
+            long timestamp) {
+        if (currentStepId == null) {
+            throw new IllegalArgumentException(
+                    "Current step id cannot be null.");
+        }
+        this.currentStepId = currentStepId;
+        this.lastCompletedStepId = lastCompletedStepId;
+        this.timestamp = timestamp;
+    }
+
+    public String getCurrentStepId() {
+        return currentStepId;
+    }
+
+    /**
+     * Returns the identifier of the furthest step the user has completed or
+     * {@code null} if no step is completed.
+     * 
+     * @return identifier of the last completed step or {@code null}.
+     */
+    public String getLastCompletedStepId() {
+        return lastCompletedStepId;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof WizardSnapshot)) {
+            return false;
+        }
+        WizardSnapshot other = (WizardSnapshot) obj;
+        return currentStepId.equals(other.currentStepId)
+                && (lastCompletedStepId == null ? other.lastCompletedStepId == null
+                        : lastCompletedStepId.equals(other.lastCompletedStepId))
+                && timestamp == other.timestamp;
+    }
+
+    @Override
+    public int hashCode() {
+        return currentStepId.hashCode() * 31 + (int) timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return "WizardSnapshot[current=" + currentStepId + ", lastCompleted="
+                + lastCompletedStepId + ", timestamp=" + timestamp + "]";
+    }
+
+}
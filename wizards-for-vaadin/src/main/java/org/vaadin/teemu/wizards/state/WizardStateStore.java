@@ -0,0 +1,51 @@
+package org.vaadin.teemu.wizards.state;
+
+import org.vaadin.teemu.wizards.Wizard;
+
+/**
+ * Storage for {@link WizardSnapshot}s that outlive the session, so that a
+ * half-finished {@link Wizard} can be resumed later. The snapshots are stored
+ * with an application defined key, for example the user name combined with
+ * the name of the wizard.
+ * 
+ * <p>
+ * The methods are called while holding the session lock, so implementations
+ * should not block on I/O. Implementations must be thread-safe.
+ * </p>
+ * 
+ * @see Wizard#setStateStore(WizardStateStore, String)
+ * @see FileWizardStateStore
+ */
+public interface WizardStateStore {
+
+    /**
+     * Stores the given snapshot replacing any previous snapshot with the same
+     * key.
+     * 
+     * @param key
+     *            the key of the snapshot.
+     * @param snapshot
+     *            the snapshot to store.
+     */
+    public void save(String key, WizardSnapshot snapshot);
+
+    /**
+     * Returns the latest snapshot stored with the given key or {@code null}
+     * if there is none.
+     * 
+     * @param key
+     *            the key of the snapshot.
+     * @return the snapshot or {@code null}.
+     */
+    public WizardSnapshot load(String key);
+
+    /**
+     * Removes the snapshot stored with the given key, typically because the
+     * wizard has been completed or cancelled.
+     * 
+     * @param key
+     *            the key of the snapshot.
+     */
+    public void remove(String key);
+
+}
@@ -0,0 +1,20 @@
+package org.vaadin.teemu.wizards.tracing;
+
+/**
+ * The kind of a traced navigation.
+ */
+public enum NavigationKind {
+
+    /** Moving to a later step with next or a URI fragment. */
+    ADVANCE,
+
+    /** Moving to an earlier step with back or a URI fragment. */
+    BACK,
+
+    /** Completing the wizard on the last step. */
+    FINISH,
+
+    /** Cancelling the wizard. */
+    CANCEL
+
+}
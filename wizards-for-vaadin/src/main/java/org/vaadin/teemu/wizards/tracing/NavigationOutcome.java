@@ -0,0 +1,23 @@
+package org.vaadin.teemu.wizards.tracing;
+
+/**
+ * How a traced navigation ended.
+ */
+public enum NavigationOutcome {
+
+    /** The navigation was carried out. */
+    COMPLETED,
+
+    /** The step being left didn't allow the navigation. */
+    DENIED,
+
+    /** The navigation failed with an exception. */
+    FAILED,
+
+    /**
+     * The navigation was waiting for an asynchronous step and was superseded,
+     * for example by cancelling the wizard.
+     */
+    ABANDONED
+
+}
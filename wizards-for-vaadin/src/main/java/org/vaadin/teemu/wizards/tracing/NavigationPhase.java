@@ -0,0 +1,60 @@
+package org.vaadin.teemu.wizards.tracing;
+
+import org.vaadin.teemu.wizards.AsyncWizardStep;
+import org.vaadin.teemu.wizards.WizardStep;
+
+/**
+ * A phase of a traced navigation. The phases of a navigation are sequential,
+ * and a navigation only goes through the phases that apply to it.
+ */
+public enum NavigationPhase {
+
+    /**
+     * Asking the step being left with {@link WizardStep#onAdvance()} or
+     * {@link WizardStep#onBack()}. For an {@link AsyncWizardStep} this
+     * includes waiting for the answer.
+     */
+    GUARD,
+
+    /**
+     * Getting the content of the new step, see
+     * {@link WizardStep#getContent()}.
+     */
+    CONTENT,
+
+    /**
+     * Replacing the displayed content with the content of the new step.
+     */
+    SET_CONTENT,
+
+    /**
+     * Restoring the scroll position of the new step.
+     */
+    SCROLL_RESTORE,
+
+    /**
+     * Updating the URI fragment of the page.
+     */
+    URI_FRAGMENT,
+
+    /**
+     * Updating the state of the navigation buttons.
+     */
+    BUTTONS,
+
+    /**
+     * Saving or removing the snapshot in the state store.
+     */
+    STATE_SAVE,
+
+    /**
+     * Notifying the listeners, including the progress bar in the header.
+     */
+    LISTENERS,
+
+    /**
+     * Preloading and prefetching the contents of the neighbouring steps.
+     */
+    PREFETCH
+
+}
@@ -0,0 +1,53 @@
+package org.vaadin.teemu.wizards.tracing;
+
+/**
+ * A single navigation traced by a {@link NavigationTracer}. The wizard calls
+ * {@link #phaseStarted(NavigationPhase)} and
+ * {@link #phaseEnded(NavigationPhase)} in pairs for each phase it goes
+ * through, the phases never overlap, and finally calls
+ * {@link #end(NavigationOutcome)} exactly once.
+ * 
+ * <p>
+ * The calls are made under the session lock, but not necessarily in the same
+ * request: a navigation waiting for an
+ * {@link org.vaadin.teemu.wizards.AsyncWizardStep} is continued when the step
+ * answers. All methods have an empty default implementation.
+ * </p>
+ */
+public interface NavigationSpan {
+
+    /**
+     * A {@code NavigationSpan} that ignores everything.
+     */
+    public static final NavigationSpan NONE = new NavigationSpan() {
+    };
+
+    /**
+     * Called when a phase of the navigation starts.
+     * 
+     * @param phase
+     *            the started phase.
+     */
+    public default void phaseStarted(NavigationPhase phase) {
+    }
+
+    /**
+     * Called when a phase of the navigation ends.
+     * 
+     * @param phase
+     *            the ended phase.
+     */
+    public default void phaseEnded(NavigationPhase phase) {
+    }
+
+    /**
+     * Called when the navigation has ended. The running phase, if any, is
+     * ended before this is called.
+     * 
+     * @param outcome
+     *            how the navigation ended.
+     */
+    public default void end(NavigationOutcome outcome) {
+    }
+
+}
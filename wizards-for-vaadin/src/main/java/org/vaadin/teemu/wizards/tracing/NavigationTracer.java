@@ -0,0 +1,45 @@
+package org.vaadin.teemu.wizards.tracing;
+
+import org.vaadin.teemu.wizards.Wizard;
+
+/**
+ * Traces the navigations of a {@link Wizard}, breaking each one down to
+ * phases such as asking the step, creating the content and notifying the
+ * listeners. Implement this interface to adapt the spans to a tracing library
+ * of your choice, for example OpenTelemetry, or use the built-in
+ * {@link SlowNavigationLogger}. A single instance can be shared by any number
+ * of wizards, so implementations must be thread-safe.
+ * 
+ * @see Wizard#setNavigationTracer(NavigationTracer)
+ */
+public interface NavigationTracer {
+
+    /**
+     * A {@code NavigationTracer} that ignores all navigations.
+     */
+    public static final NavigationTracer NONE = new NavigationTracer() {
+        public NavigationSpan startNavigation(Wizard wizard,
+                NavigationKind kind, String stepId, String targetStepId) {
+            return NavigationSpan.NONE;
+        }
+    };
+
+    /**
+     * Called when the user starts a navigation.
+     * 
+     * @param wizard
+     *            the wizard navigated in.
+     * @param kind
+     *            the kind of the navigation.
+     * @param stepId
+     *            identifier of the active step.
+     * @param targetStepId
+     *            identifier of the step to activate or {@code null} when
+     *            finishing or cancelling.
+     * @return the span receiving the phases and the outcome of the
+     *         navigation, never {@code null}.
+     */
+    NavigationSpan startNavigation(Wizard wizard, NavigationKind kind,
+            String stepId, String targetStepId);
+
+}
@@ -0,0 +1,125 @@
+package org.vaadin.teemu.wizards.tracing;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.vaadin.teemu.wizards.Wizard;
+
+/**
+ * {@link NavigationTracer} that logs a warning with the time spent in each
+ * phase when a navigation takes longer than the threshold, for example:
+ * 
+ * <pre>
+ * Slow ADVANCE from setup to listen: 812.4 ms, COMPLETED (GUARD 3.1 ms, CONTENT 790.2 ms, LISTENERS 15.0 ms)
+ * </pre>
+ * 
+ * A navigation waiting for an {@link org.vaadin.teemu.wizards.AsyncWizardStep}
+ * includes the waiting time in its {@link NavigationPhase#GUARD} phase.
+ */
+public class SlowNavigationLogger implements NavigationTracer {
+
+    private static final Logger LOGGER = Logger
+            .getLogger(SlowNavigationLogger.class.getName());
+
+    private final long thresholdNanos;
+
+    /**
+     * Creates a logger for the navigations taking longer than the given
+     * threshold.
+     * 
+     * @param threshold
+     *            the threshold in the given unit.
+     * @param unit
+     *            the unit of the threshold.
+     */
+    public SlowNavigationLogger(long threshold, TimeUnit unit) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException(
+                    "The threshold must not be negative.");
+        }
+        thresholdNanos = unit.toNanos(threshold);
+    }
+
+    public long getThreshold(TimeUnit unit) {
+        return unit.convert(thresholdNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public NavigationSpan startNavigation(Wizard wizard, NavigationKind kind,
+            String stepId, String targetStepId) {
+        return new TimedSpan(kind, stepId, targetStepId);
+    }
+
+    /**
+     * Called with the message of a slow navigation. Logs the message as a
+     * warning by default.
+     * 
+     * @param message
+     *            the description of the navigation and its phases.
+     */
+    protected void slowNavigation(String message) {
+        LOGGER.log(Level.WARNING, message);
+    }
+
+    /**
+     * Measures the phases of a single navigation.
+     */
+    private final class TimedSpan implements NavigationSpan {
+
+        private final NavigationKind kind;
+        private final String stepId;
+        private final String targetStepId;
+        private final long start = System.nanoTime();
+        private final long[] phaseNanos = new long[NavigationPhase.values().length];
+        private long phaseStart;
+
+        TimedSpan(NavigationKind kind, String stepId, String targetStepId) {
+            this.kind = kind;
+            this.stepId = stepId;
+            this.targetStepId = targetStepId;
+        }
+
+        @Override
+        public void phaseStarted(NavigationPhase phase) {
+            phaseStart = System.nanoTime();
+        }
+
+        @Override
+        public void phaseEnded(NavigationPhase phase) {
+            phaseNanos[phase.ordinal()] += System.nanoTime() - phaseStart;
+        }
+
+        @Override
+        public void end(NavigationOutcome outcome) {
+            long nanos = System.nanoTime() - start;
+            if (nanos <= thresholdNanos) {
+                return;
+            }
+            StringBuilder message = new StringBuilder("Slow ").append(kind)
+                    .append(" from ").append(stepId);
+            if (targetStepId != null) {
+                message.append(" to ").append(targetStepId);
+            }
+            message.append(": ").append(millis(nanos)).append(", ")
+                    .append(outcome).append(" (");
+            boolean first = true;
+            for (NavigationPhase phase : NavigationPhase.values()) {
+                if (phaseNanos[phase.ordinal()] > 0) {
+                    if (!first) {
+                        message.append(", ");
+                    }
+                    message.append(phase).append(' ')
+                            .append(millis(phaseNanos[phase.ordinal()]));
+                    first = false;
+                }
+            }
+            slowNavigation(message.append(')').toString());
+        }
+
+        private String millis(long nanos) {
+            return String.format("%.1f ms", nanos / 1e6);
+        }
+    }
+
+}
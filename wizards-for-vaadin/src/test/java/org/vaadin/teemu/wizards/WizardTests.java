@@ -1,12 +1,82 @@
 package org.vaadin.teemu.wizards;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 import junit.framework.Assert;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.vaadin.teemu.wizards.event.AsyncWizardListener;
+import org.vaadin.teemu.wizards.event.WizardEventSnapshot;
+import org.vaadin.teemu.wizards.event.WizardProgressListener;
+import org.vaadin.teemu.wizards.event.WizardStepActivationEvent;
+import org.vaadin.teemu.wizards.event.WizardStepSetChangedEvent;
+import org.vaadin.teemu.wizards.journal.MappedWizardEventJournal;
+import org.vaadin.teemu.wizards.journal.WizardEventJournalReader;
+import org.vaadin.teemu.wizards.journal.WizardEventRecord;
+import org.vaadin.teemu.wizards.metrics.CompositeWizardMetrics;
+import org.vaadin.teemu.wizards.metrics.FunnelStepStatistics;
+import org.vaadin.teemu.wizards.metrics.InMemoryWizardMetrics;
+import org.vaadin.teemu.wizards.metrics.StepStatistics;
+import org.vaadin.teemu.wizards.metrics.WizardFunnel;
+import org.vaadin.teemu.wizards.state.FileWizardStateStore;
+import org.vaadin.teemu.wizards.state.WizardSnapshot;
+import org.vaadin.teemu.wizards.tracing.NavigationKind;
+import org.vaadin.teemu.wizards.tracing.NavigationOutcome;
+import org.vaadin.teemu.wizards.tracing.NavigationPhase;
+import org.vaadin.teemu.wizards.tracing.NavigationSpan;
+import org.vaadin.teemu.wizards.tracing.NavigationTracer;
+import org.vaadin.teemu.wizards.tracing.SlowNavigationLogger;
+
+import com.vaadin.server.ClientConnector;
+import com.vaadin.server.VaadinRequest;
+import com.vaadin.server.VaadinService;
+import com.vaadin.server.VaadinSession;
+import com.vaadin.ui.Component;
+import com.vaadin.ui.HorizontalLayout;
+import com.vaadin.ui.Label;
+import com.vaadin.ui.Panel;
+import com.vaadin.ui.ProgressBar;
+import com.vaadin.ui.UI;
+import com.vaadin.ui.VerticalLayout;
 
 public class WizardTests {
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Test(expected = IllegalArgumentException.class)
     public void addStep_duplicateId_exceptionThrown() {
         WizardStep step1 = Mockito.mock(WizardStep.class);
@@ -41,4 +111,1436 @@ public class WizardTests {
         Assert.assertEquals(3, wizard.getSteps().size());
     }
 
+    @Test
+    public void insertStep_middlePosition_indicesAreUpdated() {
+        WizardStep step1 = Mockito.mock(WizardStep.class);
+        WizardStep step2 = Mockito.mock(WizardStep.class);
+        WizardStep step3 = Mockito.mock(WizardStep.class);
+
+        Wizard wizard = new Wizard();
+        wizard.addStep(step1, "first");
+        wizard.addStep(step3, "third");
+        wizard.insertStep(1, step2, "second");
+
+        Assert.assertEquals(0, wizard.getStepIndex(step1));
+        Assert.assertEquals(1, wizard.getStepIndex(step2));
+        Assert.assertEquals(2, wizard.getStepIndex(step3));
+        Assert.assertEquals("second", wizard.getId(step2));
+
+        wizard.removeStep(step2);
+        Assert.assertEquals(-1, wizard.getStepIndex(step2));
+        Assert.assertEquals(1, wizard.getStepIndex(step3));
+        Assert.assertNull(wizard.getId(step2));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void insertStep_beforeActiveStep_exceptionThrown() {
+        WizardStep step1 = Mockito.mock(WizardStep.class);
+        WizardStep step2 = Mockito.mock(WizardStep.class);
+
+        Wizard wizard = new Wizard();
+        wizard.addStep(step1);
+        wizard.insertStep(0, step2);
+    }
+
+    @Test
+    public void progressBar_next_captionLabelsAreReused() {
+        WizardStep step1 = Mockito.mock(WizardStep.class);
+        WizardStep step2 = Mockito.mock(WizardStep.class);
+        Mockito.when(step1.onAdvance()).thenReturn(true);
+
+        Wizard wizard = new Wizard();
+        wizard.addStep(step1);
+        wizard.addStep(step2);
+
+        HorizontalLayout captions = getStepCaptions(wizard);
+        Component firstLabel = captions.getComponent(0);
+        Component secondLabel = captions.getComponent(1);
+        Assert.assertTrue(secondLabel.getStyleName().contains("last"));
+
+        wizard.next();
+
+        Assert.assertSame(firstLabel, captions.getComponent(0));
+        Assert.assertSame(secondLabel, captions.getComponent(1));
+        Assert.assertTrue(firstLabel.getStyleName().contains("completed"));
+        Assert.assertTrue(secondLabel.getStyleName().contains("current"));
+
+        WizardStep step3 = Mockito.mock(WizardStep.class);
+        wizard.addStep(step3);
+        Assert.assertEquals(3, captions.getComponentCount());
+        Assert.assertSame(secondLabel, captions.getComponent(1));
+        Assert.assertFalse(secondLabel.getStyleName().contains("last"));
+    }
+
+    @Test
+    public void windowedProgressBar_manySteps_onlyWindowIsDisplayed() {
+        Wizard wizard = new Wizard();
+        WindowedWizardProgressBar progressBar = new WindowedWizardProgressBar(
+                wizard, 5);
+        wizard.addListener(progressBar);
+        for (int i = 0; i < 100; i++) {
+            WizardStep step = Mockito.mock(WizardStep.class);
+            Mockito.when(step.onAdvance()).thenReturn(true);
+            wizard.addStep(step);
+        }
+        for (int i = 0; i < 50; i++) {
+            wizard.next();
+        }
+
+        VerticalLayout layout = (VerticalLayout) progressBar.iterator().next();
+        HorizontalLayout captions = (HorizontalLayout) layout.getComponent(0);
+        // leading marker, five captions and trailing marker
+        Assert.assertEquals(7, captions.getComponentCount());
+        Assert.assertEquals("…48 more",
+                ((Label) captions.getComponent(0)).getValue());
+        Assert.assertEquals("51. null",
+                ((Label) captions.getComponent(3)).getValue());
+        Assert.assertEquals("…47 more",
+                ((Label) captions.getComponent(6)).getValue());
+    }
+
+    @Test
+    public void windowedProgressBar_createdForStartedWizard_windowDisplayed() {
+        Wizard wizard = new Wizard();
+        for (int i = 0; i < 100; i++) {
+            wizard.addStep(mockStep());
+        }
+        for (int i = 0; i < 50; i++) {
+            wizard.next();
+        }
+        WindowedWizardProgressBar progressBar = new WindowedWizardProgressBar(
+                wizard, 5);
+
+        VerticalLayout layout = (VerticalLayout) progressBar.iterator().next();
+        HorizontalLayout captions = (HorizontalLayout) layout.getComponent(0);
+        Assert.assertEquals("51. null",
+                ((Label) captions.getComponent(3)).getValue());
+        Assert.assertEquals("…47 more",
+                ((Label) captions.getComponent(6)).getValue());
+        ProgressBar bar = (ProgressBar) layout.getComponent(1);
+        Assert.assertEquals(0.505f, bar.getValue(), 0.0001f);
+    }
+
+    @Test
+    public void clientSideControls_navigation_compactStateUpdated() {
+        Wizard wizard = new Wizard();
+        wizard.addStep(mockStep(), "first");
+        wizard.addStep(mockStep(), "second");
+        wizard.addStep(mockStep(), "third");
+        wizard.getCancelButton().setVisible(false);
+        wizard.setClientSideControls(true);
+
+        WizardControls controls = wizard.getControls();
+        Assert.assertSame(controls, wizard.mainLayout.getComponent(2));
+        Assert.assertEquals(3, controls.getState(false).captions.length);
+        Assert.assertEquals(0, controls.getState(false).currentIndex);
+        Assert.assertNull(controls.getState(false).cancelCaption);
+
+        wizard.next();
+        wizard.next();
+        wizard.back();
+        Assert.assertEquals(1, controls.getState(false).currentIndex);
+        Assert.assertEquals(2, controls.getState(false).completedIndex);
+
+        wizard.setClientSideControls(false);
+        Assert.assertSame(wizard.footer, wizard.mainLayout.getComponent(2));
+        wizard.next();
+        Assert.assertEquals(1, controls.getState(false).currentIndex);
+    }
+
+    @Test
+    public void compactProgressBar_setAsHeader_singleComponentUpdated() {
+        Wizard wizard = new Wizard();
+        wizard.removeListener((WizardProgressListener) wizard.getHeader());
+        CompactWizardProgressBar progressBar = new CompactWizardProgressBar(
+                wizard);
+        wizard.addListener(progressBar);
+        wizard.setHeader(progressBar);
+        for (int i = 0; i < 40; i++) {
+            wizard.addStep(mockStep());
+        }
+        wizard.next();
+
+        Assert.assertSame(progressBar, wizard.mainLayout.getComponent(0));
+        Assert.assertEquals(40, progressBar.getState(false).captions.length);
+        Assert.assertEquals(1, progressBar.getState(false).currentIndex);
+        Assert.assertEquals(0, progressBar.getState(false).completedIndex);
+
+        for (int i = 1; i < 40; i++) {
+            wizard.next();
+        }
+        Assert.assertTrue(progressBar.getState(false).finished);
+    }
+
+    @Test
+    public void contentPolicy_lru_leastRecentContentIsReleased() {
+        WizardStep step1 = mockStep();
+        WizardStep step2 = mockStep();
+        WizardStep step3 = mockStep();
+
+        Wizard wizard = new Wizard();
+        wizard.setContentPolicy(StepContentPolicy.LRU);
+        wizard.setMaxRetainedContents(2);
+        wizard.addStep(step1);
+        wizard.addStep(step2);
+        wizard.addStep(step3);
+        wizard.next();
+        wizard.back();
+
+        // the content of the first step is retained
+        Mockito.verify(step1, Mockito.times(1)).getContent();
+
+        wizard.next();
+        wizard.next();
+
+        Mockito.verify(step1).releaseContent();
+        Mockito.verify(step2, Mockito.never()).releaseContent();
+        Mockito.verify(step3, Mockito.never()).releaseContent();
+
+        wizard.back();
+        wizard.back();
+        Mockito.verify(step1, Mockito.times(2)).getContent();
+    }
+
+    @Test
+    public void contentPolicy_lruWithPreloadedView_activeContentNotReleased() {
+        WizardStep step1 = mockStep();
+        WizardStep step2 = mockStep();
+        WizardStep step3 = mockStep();
+
+        Wizard wizard = new Wizard();
+        wizard.setContentPolicy(StepContentPolicy.LRU);
+        wizard.setMaxRetainedContents(1);
+        wizard.setViewCacheSize(3);
+        wizard.setPreloadNextView(true);
+        wizard.addStep(step1);
+        wizard.addStep(step2);
+        wizard.addStep(step3);
+        wizard.next();
+
+        // preloading the third step must not release the displayed second
+        Mockito.verify(step2, Mockito.never()).releaseContent();
+        Mockito.verify(step2, Mockito.times(1)).getContent();
+        Mockito.verify(step1).releaseContent();
+    }
+
+    @Test
+    public void viewCache_lookup_displayOrderNotChanged() {
+        WizardStep step1 = mockStep();
+        WizardStep step2 = mockStep();
+        WizardStep step3 = mockStep();
+        StepViewCache viewCache = new StepViewCache(2);
+        viewCache.show(step1, new Label());
+        viewCache.show(step2, new Label());
+
+        // looking up the first view does not make it recently displayed
+        Assert.assertNotNull(viewCache.getView(step1));
+        Assert.assertTrue(viewCache.containsView(step1));
+        viewCache.show(step3, new Label());
+        Assert.assertFalse(viewCache.containsView(step1));
+        Assert.assertTrue(viewCache.containsView(step2));
+    }
+
+    @Test
+    public void viewCache_back_hiddenContentDisplayedAgain() {
+        WizardStep step1 = mockStep();
+        WizardStep step2 = mockStep();
+        WizardStep step3 = mockStep();
+        WizardStep step4 = mockStep();
+
+        Wizard wizard = new Wizard();
+        wizard.setViewCacheSize(3);
+        wizard.setPreloadNextView(true);
+        wizard.addStep(step1);
+        wizard.addStep(step2);
+        wizard.addStep(step3);
+        wizard.addStep(step4);
+
+        // the content of the second step is preloaded hidden
+        StepViewCache viewCache = (StepViewCache) ((Panel) wizard.mainLayout
+                .getComponent(1)).getContent();
+        Mockito.verify(step2, Mockito.times(1)).getContent();
+        Assert.assertEquals(2, viewCache.getComponentCount());
+        Assert.assertNull(viewCache.getCss(viewCache.getView(step1)));
+        Assert.assertEquals("display: none;",
+                viewCache.getCss(viewCache.getView(step2)));
+
+        wizard.next();
+        wizard.back();
+        Mockito.verify(step1, Mockito.times(1)).getContent();
+        Mockito.verify(step2, Mockito.times(1)).getContent();
+        Assert.assertSame(viewCache.getView(step1), viewCache.getVisibleView());
+
+        wizard.next();
+        wizard.next();
+        // the first step is evicted in favour of the preloaded fourth step
+        Assert.assertEquals(3, viewCache.getComponentCount());
+        Assert.assertNull(viewCache.getView(step1));
+        Mockito.verify(step4, Mockito.times(1)).getContent();
+
+        wizard.setViewCacheSize(0);
+        Assert.assertSame(viewCache.getView(step3), ((Panel) wizard.mainLayout
+                .getComponent(1)).getContent());
+    }
+
+    @Test
+    public void prefetch_next_contentIsPreparedInAdvance() {
+        WizardStep step1 = mockStep();
+        WizardStep step2 = mockStep();
+
+        Wizard wizard = new Wizard();
+        wizard.addStep(step1);
+        wizard.addStep(step2);
+        wizard.setPrefetchExecutor(new Executor() {
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        attach(wizard);
+
+        // the content of the second step is prefetched on attach
+        Mockito.verify(step2, Mockito.times(1)).getContent();
+
+        wizard.next();
+        Mockito.verify(step2, Mockito.times(1)).getContent();
+    }
+
+    @Test
+    public void prefetch_nextWhilePrefetching_runningTaskAwaited()
+            throws Exception {
+        WizardStep step1 = mockStep();
+        WizardStep step2 = Mockito.mock(WizardStep.class);
+        final Label prefetchedContent = new Label();
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Mockito.when(step2.getContent()).thenAnswer(new Answer<Component>() {
+            public Component answer(InvocationOnMock invocation)
+                    throws InterruptedException {
+                entered.countDown();
+                release.await();
+                return prefetchedContent;
+            }
+        });
+
+        Wizard wizard = new Wizard();
+        wizard.addStep(step1);
+        wizard.addStep(step2);
+        wizard.setPrefetchExecutor(new Executor() {
+            public void execute(Runnable command) {
+                new Thread(command).start();
+            }
+        });
+        attach(wizard);
+        Assert.assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+        new Thread(new Runnable() {
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    // release anyway
+                }
+                release.countDown();
+            }
+        }).start();
+        wizard.next();
+
+        // the step was not asked for its content again while prefetching
+        Mockito.verify(step2, Mockito.times(1)).getContent();
+        Assert.assertTrue(prefetchedContent.isAttached());
+    }
+
+    @Test
+    public void prefetch_stepSetChangedWhilePrefetching_runningTaskAwaited()
+            throws Exception {
+        WizardStep step1 = mockStep();
+        WizardStep step2 = Mockito.mock(WizardStep.class);
+        final Label prefetchedContent = new Label();
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Mockito.when(step2.getContent()).thenAnswer(new Answer<Component>() {
+            public Component answer(InvocationOnMock invocation)
+                    throws InterruptedException {
+                entered.countDown();
+                release.await();
+                return prefetchedContent;
+            }
+        });
+
+        Wizard wizard = new Wizard();
+        wizard.addStep(step1);
+        wizard.addStep(step2);
+        wizard.setPrefetchExecutor(new Executor() {
+            public void execute(Runnable command) {
+                new Thread(command).start();
+            }
+        });
+        attach(wizard);
+        Assert.assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+        // restarts the prefetching while the task is running
+        wizard.addStep(mockStep());
+        new Thread(new Runnable() {
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    // release anyway
+                }
+                release.countDown();
+            }
+        }).start();
+        wizard.next();
+
+        Mockito.verify(step2, Mockito.times(1)).getContent();
+        Assert.assertTrue(prefetchedContent.isAttached());
+    }
+
+    @SuppressWarnings("serial")
+    private UI attach(Wizard wizard) {
+        VaadinSession session = Mockito.mock(VaadinSession.class);
+        Mockito.when(session.hasLock()).thenReturn(true);
+        Mockito.when(session.getLocale()).thenReturn(Locale.ENGLISH);
+        Mockito.when(
+                session.createConnectorId(Mockito.any(ClientConnector.class)))
+                .thenAnswer(new Answer<String>() {
+                    private int nextId;
+
+                    public String answer(InvocationOnMock invocation) {
+                        return String.valueOf(nextId++);
+                    }
+                });
+        Mockito.when(session.access(Mockito.any(Runnable.class))).thenAnswer(
+                new Answer<Future<Void>>() {
+                    public Future<Void> answer(InvocationOnMock invocation) {
+                        ((Runnable) invocation.getArguments()[0]).run();
+                        return null;
+                    }
+                });
+        UI ui = new UI() {
+            @Override
+            protected void init(VaadinRequest request) {
+                // NOP
+            }
+        };
+        ui.setSession(session);
+        ui.setContent(wizard);
+        return ui;
+    }
+
+    @Test
+    public void detach_manyWizardsDiscarded_retainedHeapStaysFlat()
+            throws InterruptedException {
+        VaadinSession session = new VaadinSession(
+                Mockito.mock(VaadinService.class)) {
+            private final ReentrantLock lock = new ReentrantLock();
+            private int nextId;
+
+            @Override
+            public Lock getLockInstance() {
+                return lock;
+            }
+
+            @Override
+            public String createConnectorId(ClientConnector connector) {
+                return String.valueOf(nextId++);
+            }
+        };
+        session.lock();
+        UI ui = new UI() {
+            @Override
+            protected void init(VaadinRequest request) {
+                // NOP
+            }
+        };
+        ui.setSession(session);
+        VaadinRequest request = Mockito.mock(VaadinRequest.class);
+        Mockito.when(request.getParameter("v-loc")).thenReturn(
+                "http://localhost:8080/");
+        ui.doInit(request, session.getNextUIid(), null);
+
+        List<WeakReference<Wizard>> discarded = new ArrayList<WeakReference<Wizard>>();
+        showWizards(ui, 20, discarded);
+        long heapBefore = usedHeap();
+        showWizards(ui, 200, discarded);
+        long growth = usedHeap() - heapBefore;
+
+        // each wizard holds a megabyte of step contents
+        Assert.assertTrue("Retained heap grew by " + growth + " bytes",
+                growth < 8 * 1024 * 1024);
+        for (WeakReference<Wizard> reference : discarded.subList(0,
+                discarded.size() - 1)) {
+            Assert.assertNull(reference.get());
+        }
+    }
+
+    private void showWizards(UI ui, int count,
+            List<WeakReference<Wizard>> discarded) {
+        for (int i = 0; i < count; i++) {
+            Wizard wizard = new Wizard();
+            wizard.setUriFragmentEnabled(true);
+            for (int j = 0; j < 4; j++) {
+                Label content = new Label();
+                content.setData(new byte[256 * 1024]);
+                WizardStep step = Mockito.mock(WizardStep.class);
+                Mockito.when(step.onAdvance()).thenReturn(true);
+                Mockito.when(step.getContent()).thenReturn(content);
+                wizard.addStep(step);
+            }
+            ui.setContent(wizard);
+            wizard.next();
+            wizard.next();
+            wizard.next();
+            // end of the request
+            ui.getConnectorTracker().cleanConnectorMap();
+            discarded.add(new WeakReference<Wizard>(wizard));
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Test
+    public void asyncStep_next_navigationCompletesWhenAllowed() {
+        AsyncWizardStep step1 = Mockito.mock(AsyncWizardStep.class);
+        WizardStep step2 = mockStep();
+        CompletableFuture<Boolean> allowed = new CompletableFuture<Boolean>();
+        Mockito.when(step1.onAdvanceAsync()).thenReturn(allowed);
+
+        Wizard wizard = new Wizard();
+        wizard.addStep(step1);
+        wizard.addStep(step2);
+        wizard.next();
+
+        Assert.assertTrue(wizard.isPending());
+        Assert.assertTrue(wizard.isActive(step1));
+        Assert.assertFalse(wizard.getNextButton().isEnabled());
+        Mockito.verify(step1, Mockito.never()).onAdvance();
+
+        allowed.complete(true);
+
+        Assert.assertFalse(wizard.isPending());
+        Assert.assertTrue(wizard.isActive(step2));
+        Assert.assertTrue(wizard.getBackButton().isEnabled());
+    }
+
+    @Test
+    public void stepTask_nextWhileRunning_navigatesWhenTaskCompletes() {
+        WizardStep step1 = mockStep();
+        WizardStep step2 = mockStep();
+        Wizard wizard = new Wizard();
+        wizard.addStep(step1, "first");
+        wizard.addStep(step2, "second");
+        attach(wizard);
+        InMemoryWizardMetrics metrics = new InMemoryWizardMetrics();
+        wizard.setMetrics(metrics);
+        final List<Runnable> queued = new ArrayList<Runnable>();
+        wizard.setStepTaskExecutor(new Executor() {
+            public void execute(Runnable command) {
+                queued.add(command);
+            }
+        });
+        wizard.setStepTaskProgressInterval(0);
+
+        final ProgressBar footerProgress = (ProgressBar) wizard.footer
+                .getComponent(0);
+        final float[] displayedProgress = new float[1];
+        CompletionStage<Void> completion = wizard
+                .startStepTask(new StepTask() {
+                    public void run(StepTaskContext context) {
+                        context.setProgress(0.5f);
+                        displayedProgress[0] = footerProgress.getValue();
+                    }
+                });
+        Assert.assertTrue(footerProgress.isVisible());
+
+        wizard.next();
+        Assert.assertTrue(wizard.isPending());
+        Assert.assertTrue(wizard.isActive(step1));
+
+        queued.get(0).run();
+        Assert.assertEquals(0.5f, displayedProgress[0]);
+        Assert.assertTrue(completion.toCompletableFuture().isDone());
+        Assert.assertFalse(wizard.isStepTaskRunning());
+        Assert.assertFalse(footerProgress.isVisible());
+        Assert.assertTrue(wizard.isActive(step2));
+        // only the guard of the step is recorded, not waiting for the task
+        Assert.assertEquals(1, metrics.getStepStatistics("first")
+                .getAdvanceLatency().getCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void stepTask_notAttached_exceptionThrown() {
+        Wizard wizard = new Wizard();
+        wizard.addStep(mockStep());
+        wizard.startStepTask(Mockito.mock(StepTask.class));
+    }
+
+    @Test
+    public void stepTask_back_taskCancelled() {
+        WizardStep step1 = mockStep();
+        WizardStep step2 = mockStep();
+        Wizard wizard = new Wizard();
+        wizard.addStep(step1);
+        wizard.addStep(step2);
+        attach(wizard);
+        final List<Runnable> queued = new ArrayList<Runnable>();
+        wizard.setStepTaskExecutor(new Executor() {
+            public void execute(Runnable command) {
+                queued.add(command);
+            }
+        });
+        wizard.next();
+
+        StepTask task = Mockito.mock(StepTask.class);
+        CompletionStage<Void> completion = wizard.startStepTask(task);
+        wizard.back();
+
+        Assert.assertTrue(wizard.isActive(step1));
+        Assert.assertFalse(wizard.isStepTaskRunning());
+        Assert.assertTrue(completion.toCompletableFuture()
+                .isCompletedExceptionally());
+        queued.get(0).run();
+        Mockito.verifyZeroInteractions(task);
+    }
+
+    @Test
+    public void taskScope_concurrencyLimit_queuedUntilTaskEnds() {
+        WizardStep step1 = mockStep();
+        WizardStep step2 = mockStep();
+        Wizard wizard = new Wizard();
+        wizard.addStep(step1);
+        wizard.addStep(step2);
+        attach(wizard);
+        final List<Runnable> queued = new ArrayList<Runnable>();
+        WizardTaskScope scope = wizard.getTaskScope();
+        scope.setExecutor(new Executor() {
+            public void execute(Runnable command) {
+                queued.add(command);
+            }
+        });
+        scope.setConcurrencyLimit(step1, 2);
+
+        CompletionStage<String> first = scope.submit(new Callable<String>() {
+            public String call() {
+                return "first";
+            }
+        });
+        scope.submit(new Callable<String>() {
+            public String call() {
+                return "second";
+            }
+        });
+        CompletionStage<String> third = scope.submit(new Callable<String>() {
+            public String call() {
+                return "third";
+            }
+        });
+        Assert.assertEquals(2, queued.size());
+        Assert.assertEquals(3, scope.getTaskCount());
+
+        queued.get(0).run();
+        Assert.assertEquals("first", first.toCompletableFuture().getNow(null));
+        Assert.assertEquals(3, queued.size());
+
+        wizard.next();
+        Assert.assertEquals(0, scope.getTaskCount());
+        Assert.assertTrue(third.toCompletableFuture()
+                .isCompletedExceptionally());
+    }
+
+    @Test
+    public void taskScope_stepLeftBeforeResultDelivered_cancelled() {
+        Wizard wizard = new Wizard();
+        wizard.addStep(mockStep());
+        wizard.addStep(mockStep());
+        VaadinSession session = attach(wizard).getSession();
+        final List<Runnable> queued = new ArrayList<Runnable>();
+        WizardTaskScope scope = wizard.getTaskScope();
+        scope.setExecutor(new Executor() {
+            public void execute(Runnable command) {
+                queued.add(command);
+            }
+        });
+        CompletionStage<String> result = scope.submit(new Callable<String>() {
+            public String call() {
+                return "stale";
+            }
+        });
+
+        // the task ends on a worker thread waiting for the session lock
+        final List<Runnable> deferred = new ArrayList<Runnable>();
+        Mockito.doReturn(false).when(session).hasLock();
+        Mockito.doAnswer(new Answer<Future<Void>>() {
+            public Future<Void> answer(InvocationOnMock invocation) {
+                deferred.add((Runnable) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(session).access(Mockito.any(Runnable.class));
+        queued.get(0).run();
+        Assert.assertEquals(0, scope.getTaskCount());
+        Assert.assertEquals(1, deferred.size());
+
+        Mockito.doReturn(true).when(session).hasLock();
+        wizard.next();
+        deferred.get(0).run();
+        try {
+            result.toCompletableFuture().getNow(null);
+            Assert.fail("The result of a left step must not be delivered.");
+        } catch (CancellationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void taskScope_queuedTaskRejected_stagesCompleted() {
+        Wizard wizard = new Wizard();
+        WizardStep step = mockStep();
+        wizard.addStep(step);
+        attach(wizard);
+        final List<Runnable> queued = new ArrayList<Runnable>();
+        final boolean[] rejecting = new boolean[1];
+        WizardTaskScope scope = wizard.getTaskScope();
+        scope.setExecutor(new Executor() {
+            public void execute(Runnable command) {
+                if (rejecting[0]) {
+                    throw new RejectedExecutionException("Queue full");
+                }
+                queued.add(command);
+            }
+        });
+        scope.setConcurrencyLimit(step, 1);
+
+        CompletionStage<String> first = scope.submit(new Callable<String>() {
+            public String call() {
+                return "first";
+            }
+        });
+        CompletionStage<String> second = scope.submit(new Callable<String>() {
+            public String call() {
+                return "second";
+            }
+        });
+        rejecting[0] = true;
+        queued.get(0).run();
+
+        // the rejected task does not keep the first one from completing
+        Assert.assertEquals("first", first.toCompletableFuture().getNow(null));
+        Assert.assertTrue(second.toCompletableFuture()
+                .isCompletedExceptionally());
+        Assert.assertEquals(0, scope.getTaskCount());
+
+        CompletionStage<String> third = scope.submit(new Callable<String>() {
+            public String call() {
+                return "third";
+            }
+        });
+        Assert.assertTrue(third.toCompletableFuture()
+                .isCompletedExceptionally());
+    }
+
+    @Test
+    public void asyncListener_queueFull_coalescedAndDeliveredInOrder() {
+        Wizard wizard = new Wizard();
+        wizard.addStep(mockStep(), "first");
+        wizard.addStep(mockStep(), "second");
+        wizard.addStep(mockStep(), "third");
+        wizard.addStep(mockStep(), "fourth");
+        attach(wizard);
+        final List<Runnable> queued = new ArrayList<Runnable>();
+        wizard.setAsyncListenerExecutor(new Executor() {
+            public void execute(Runnable command) {
+                queued.add(command);
+            }
+        });
+        final List<WizardEventSnapshot> events = new ArrayList<WizardEventSnapshot>();
+        AsyncListenerRegistration registration = wizard.addAsyncListener(
+                new AsyncWizardListener() {
+                    public void wizardEvent(WizardEventSnapshot event) {
+                        events.add(event);
+                    }
+                }, 2, WizardListenerBackpressure.COALESCE);
+
+        wizard.next();
+        wizard.next();
+        wizard.next();
+        Assert.assertEquals(1, queued.size());
+        Assert.assertEquals(2, registration.getQueueDepth());
+        Assert.assertEquals(1, registration.getDroppedCount());
+
+        queued.get(0).run();
+        Assert.assertEquals(2, events.size());
+        Assert.assertEquals("second", events.get(0).getStepId());
+        Assert.assertEquals("fourth", events.get(1).getStepId());
+        Assert.assertEquals(3, events.get(1).getStepIndex());
+        Assert.assertEquals(WizardEventSnapshot.Type.STEP_ACTIVATED, events
+                .get(1).getType());
+        Assert.assertEquals(0, registration.getQueueDepth());
+        Assert.assertEquals(2, registration.getDeliveredCount());
+
+        registration.remove();
+        wizard.back();
+        Assert.assertEquals(1, queued.size());
+    }
+
+    @Test
+    public void asyncListener_coalesced_replacedInPlace() {
+        Wizard wizard = new Wizard();
+        wizard.addStep(mockStep(), "first");
+        wizard.addStep(mockStep(), "second");
+        wizard.addStep(mockStep(), "third");
+        attach(wizard);
+        final List<Runnable> queued = new ArrayList<Runnable>();
+        wizard.setAsyncListenerExecutor(new Executor() {
+            public void execute(Runnable command) {
+                queued.add(command);
+            }
+        });
+        final List<WizardEventSnapshot> events = new ArrayList<WizardEventSnapshot>();
+        wizard.addAsyncListener(new AsyncWizardListener() {
+            public void wizardEvent(WizardEventSnapshot event) {
+                events.add(event);
+            }
+        }, 2, WizardListenerBackpressure.COALESCE);
+
+        wizard.next();
+        wizard.addStep(mockStep(), "fourth");
+        wizard.next();
+
+        queued.get(0).run();
+        Assert.assertEquals(2, events.size());
+        Assert.assertEquals("third", events.get(0).getStepId());
+        Assert.assertEquals(WizardEventSnapshot.Type.STEP_SET_CHANGED, events
+                .get(1).getType());
+    }
+
+    @Test(timeout = 5000)
+    public void asyncListener_blockAfterFailedScheduling_drainScheduled()
+            throws InterruptedException {
+        Wizard wizard = new Wizard();
+        wizard.addStep(mockStep(), "first");
+        wizard.addStep(mockStep(), "second");
+        wizard.addStep(mockStep(), "third");
+        attach(wizard);
+        final boolean[] rejecting = { true };
+        wizard.setAsyncListenerExecutor(new Executor() {
+            public void execute(Runnable command) {
+                if (rejecting[0]) {
+                    throw new RejectedExecutionException("Queue full");
+                }
+                new Thread(command).start();
+            }
+        });
+        final CountDownLatch delivered = new CountDownLatch(2);
+        wizard.addAsyncListener(new AsyncWizardListener() {
+            public void wizardEvent(WizardEventSnapshot event) {
+                delivered.countDown();
+            }
+        }, 1, WizardListenerBackpressure.BLOCK);
+
+        // the event stays queued without a drain
+        wizard.next();
+        rejecting[0] = false;
+        // waiting for room schedules the missing drain
+        wizard.next();
+        delivered.await();
+    }
+
+    @Test
+    public void addSteps_batch_singleEventFired() {
+        WizardStep step1 = mockStep();
+        WizardStep step2 = mockStep();
+        WizardStep step3 = mockStep();
+        WizardProgressListener listener = Mockito
+                .mock(WizardProgressListener.class);
+
+        Wizard wizard = new Wizard();
+        wizard.addListener(listener);
+        wizard.addSteps(Arrays.asList(step1, step2, step3));
+
+        ArgumentCaptor<WizardStepSetChangedEvent> event = ArgumentCaptor
+                .forClass(WizardStepSetChangedEvent.class);
+        Mockito.verify(listener, Mockito.times(1)).stepSetChanged(
+                event.capture());
+        Assert.assertEquals(Arrays.asList(step1, step2, step3), event
+                .getValue().getAddedSteps());
+        Assert.assertTrue(wizard.isActive(step1));
+
+        wizard.beginUpdate();
+        wizard.removeStep(step2);
+        wizard.removeStep(step3);
+        wizard.endUpdate();
+
+        Mockito.verify(listener, Mockito.times(2)).stepSetChanged(
+                event.capture());
+        Assert.assertEquals(Arrays.asList(step2, step3), event.getValue()
+                .getRemovedSteps());
+        Assert.assertEquals(1, wizard.getSteps().size());
+        Assert.assertTrue(wizard.getFinishButton().isEnabled());
+    }
+
+    @Test
+    public void addListener_registrationRemoved_listenerNotNotified() {
+        WizardProgressListener listener = Mockito
+                .mock(WizardProgressListener.class);
+
+        Wizard wizard = new Wizard();
+        wizard.addListener(listener).remove();
+        wizard.addStep(mockStep());
+
+        Mockito.verifyZeroInteractions(listener);
+    }
+
+    @Test
+    public void metrics_navigation_stepStatisticsRecorded() {
+        WizardStep step1 = mockStep();
+        WizardStep step2 = mockStep();
+        Mockito.when(step2.onAdvance()).thenReturn(false);
+        InMemoryWizardMetrics metrics = new InMemoryWizardMetrics();
+
+        Wizard wizard = new Wizard();
+        wizard.setMetrics(metrics);
+        wizard.addStep(step1, "first");
+        wizard.addStep(step2, "second");
+        wizard.next();
+        wizard.finish();
+        wizard.cancel();
+
+        StepStatistics first = metrics.getStepStatistics("first");
+        Assert.assertEquals(1, first.getActivations());
+        Assert.assertEquals(1, first.getAdvanceLatency().getCount());
+        Assert.assertEquals(1, first.getDwellTime().getCount());
+        Assert.assertEquals(1, first.getContentCreationTime().getCount());
+
+        StepStatistics second = metrics.getStepStatistics("second");
+        Assert.assertEquals(1, second.getAdvanceRejections());
+        Assert.assertEquals(1, second.getCancellations());
+        Assert.assertEquals(0, second.getCompletions());
+        Assert.assertEquals(2, metrics.getListenerTime(
+                WizardStepActivationEvent.class).getCount());
+    }
+
+    @Test
+    public void funnel_severalWizards_occupancyReadThroughJmx()
+            throws Exception {
+        WizardFunnel funnel = new WizardFunnel();
+        Wizard[] wizards = new Wizard[3];
+        for (int i = 0; i < wizards.length; i++) {
+            wizards[i] = new Wizard();
+            wizards[i].setMetrics(funnel.forWizard("signup"));
+            wizards[i].addStep(mockStep(), "first");
+            wizards[i].addStep(mockStep(), "second");
+        }
+        wizards[0].next();
+        wizards[1].next();
+        wizards[1].finish();
+        wizards[2].cancel();
+
+        FunnelStepStatistics first = funnel.getStepStatistics("signup",
+                "first");
+        Assert.assertEquals(3, first.getEntries());
+        Assert.assertEquals(3, first.getExits());
+        Assert.assertEquals(0, first.getOccupancy());
+        Assert.assertEquals(1, first.getCancellations());
+        FunnelStepStatistics second = funnel.getStepStatistics("signup",
+                "second");
+        Assert.assertEquals(1, second.getOccupancy());
+        Assert.assertEquals(1, second.getCompletions());
+
+        // the users still on a step are kept over a reset
+        funnel.reset();
+        Assert.assertEquals(0, second.getEntries());
+        Assert.assertEquals(1, second.getOccupancy());
+        wizards[0].cancel();
+        Assert.assertEquals(0, second.getOccupancy());
+        wizards[2].next();
+        Assert.assertEquals(1, second.getOccupancy());
+
+        ObjectName name = new ObjectName(WizardFunnel.DEFAULT_OBJECT_NAME);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        funnel.registerMBean();
+        try {
+            Assert.assertEquals(1L, server.getAttribute(name, "Occupancy"));
+            Assert.assertEquals(2,
+                    ((Object[]) server.getAttribute(name, "Steps")).length);
+        } finally {
+            funnel.unregisterMBean();
+        }
+        Assert.assertFalse(server.isRegistered(name));
+    }
+
+    @Test
+    public void funnel_wizardDetached_abandonedAndOccupancyReleased() {
+        WizardFunnel funnel = new WizardFunnel();
+        InMemoryWizardMetrics metrics = new InMemoryWizardMetrics();
+        Wizard wizard = new Wizard();
+        wizard.setMetrics(new CompositeWizardMetrics(metrics, funnel
+                .forWizard("signup")));
+        wizard.addStep(mockStep(), "first");
+        wizard.addStep(mockStep(), "second");
+        UI ui = attach(wizard);
+        wizard.next();
+
+        // for example the session expires
+        ui.setContent(null);
+        FunnelStepStatistics second = funnel.getStepStatistics("signup",
+                "second");
+        Assert.assertEquals(0, second.getOccupancy());
+        Assert.assertEquals(1, second.getAbandonments());
+        Assert.assertEquals(1, funnel.getAbandonments());
+
+        // attached again, the user is back on the step
+        ui.setContent(wizard);
+        Assert.assertEquals(1, second.getOccupancy());
+        wizard.cancel();
+        ui.setContent(null);
+        Assert.assertEquals(0, second.getOccupancy());
+        Assert.assertEquals(1, second.getAbandonments());
+        Assert.assertEquals(2, metrics.getStepStatistics("second")
+                .getActivations());
+        Assert.assertEquals(1, metrics.getStepStatistics("second")
+                .getCancellations());
+    }
+
+    @Test
+    public void navigationTracer_nextAndDeniedNext_phasesAndOutcomesTraced() {
+        WizardStep step1 = mockStep();
+        WizardStep step2 = mockStep();
+        Mockito.when(step2.onAdvance()).thenReturn(false);
+        Wizard wizard = new Wizard();
+        wizard.addStep(step1, "first");
+        wizard.addStep(step2, "second");
+        wizard.addStep(mockStep(), "third");
+        final List<String> trace = new ArrayList<String>();
+        wizard.setNavigationTracer(new NavigationTracer() {
+            public NavigationSpan startNavigation(Wizard wizard,
+                    NavigationKind kind, String stepId, String targetStepId) {
+                trace.add(kind + " " + stepId + " " + targetStepId);
+                return new NavigationSpan() {
+                    @Override
+                    public void phaseStarted(NavigationPhase phase) {
+                        trace.add("+" + phase);
+                    }
+
+                    @Override
+                    public void phaseEnded(NavigationPhase phase) {
+                        trace.add("-" + phase);
+                    }
+
+                    @Override
+                    public void end(NavigationOutcome outcome) {
+                        trace.add(outcome.toString());
+                    }
+                };
+            }
+        });
+
+        wizard.next();
+        Assert.assertEquals(Arrays.asList("ADVANCE first second", "+GUARD",
+                "-GUARD", "+CONTENT", "-CONTENT", "+SET_CONTENT",
+                "-SET_CONTENT", "+SCROLL_RESTORE", "-SCROLL_RESTORE",
+                "+URI_FRAGMENT", "-URI_FRAGMENT", "+BUTTONS", "-BUTTONS",
+                "+LISTENERS", "-LISTENERS", "+PREFETCH", "-PREFETCH",
+                "COMPLETED"), trace);
+
+        trace.clear();
+        wizard.next();
+        Assert.assertEquals(Arrays.asList("ADVANCE second third", "+GUARD",
+                "-GUARD", "DENIED"), trace);
+
+        final List<String> messages = new ArrayList<String>();
+        wizard.setNavigationTracer(new SlowNavigationLogger(0,
+                TimeUnit.MILLISECONDS) {
+            @Override
+            protected void slowNavigation(String message) {
+                messages.add(message);
+            }
+        });
+        wizard.cancel();
+        Assert.assertEquals(1, messages.size());
+        Assert.assertTrue(messages.get(0),
+                messages.get(0).startsWith("Slow CANCEL from second:"));
+    }
+
+    @Test
+    public void serialize_navigationState_restored() throws Exception {
+        Wizard wizard = createSerializableWizard(5);
+        wizard.next();
+        wizard.next();
+        wizard.back();
+
+        Wizard copy = deserialize(serialize(wizard));
+
+        Assert.assertEquals(5, copy.getSteps().size());
+        Assert.assertTrue(copy.isActive(copy.getSteps().get(1)));
+        Assert.assertEquals(2, copy.getStepIndex(copy.getSteps().get(2)));
+        Assert.assertEquals("step-3", copy.getId(copy.getSteps().get(3)));
+        Assert.assertEquals(copy.getSteps().get(2), copy.getModel().getLastCompletedStep());
+        copy.next();
+        Assert.assertTrue(copy.isActive(copy.getSteps().get(2)));
+    }
+
+    @Test
+    public void model_headlessNavigation_guardsAndIdClampApplied() {
+        WizardModel model = new WizardModel();
+        WizardStep[] steps = new WizardStep[4];
+        for (int i = 0; i < steps.length; i++) {
+            steps[i] = mockStep();
+            model.addStep(steps[i], "step-" + i);
+        }
+
+        Assert.assertTrue(model.next());
+        Assert.assertTrue(model.next());
+        Assert.assertTrue(model.back());
+        Assert.assertTrue(model.isActive(steps[0]));
+        Assert.assertEquals(steps[1], model.getLastCompletedStep());
+
+        // jumping past the last completed step is clamped
+        Assert.assertTrue(model.navigateTo("step-3"));
+        Assert.assertTrue(model.isActive(steps[1]));
+
+        Mockito.when(steps[1].onAdvance()).thenReturn(false);
+        Assert.assertFalse(model.next());
+        Assert.assertTrue(model.isActive(steps[1]));
+        Mockito.verify(steps[0], Mockito.never()).getContent();
+    }
+
+    @Test
+    public void definition_sharedByWizards_onlyVisitedStepsCreated() {
+        final List<WizardStep> created = new ArrayList<WizardStep>();
+        WizardStepFactory factory = new WizardStepFactory() {
+            public WizardStep createStep() {
+                WizardStep step = mockStep();
+                created.add(step);
+                return step;
+            }
+        };
+        WizardDefinition definition = new WizardDefinition.Builder()
+                .addStep("intro", "Intro", factory)
+                .addStep("setup", "Setup", factory)
+                .addStep("last", "Last", factory).build();
+
+        Wizard wizard1 = new Wizard(definition);
+        Wizard wizard2 = new Wizard(definition);
+        wizard2.next();
+        Assert.assertEquals(3, created.size());
+        Assert.assertEquals("setup", wizard2.getId(created.get(2)));
+        Assert.assertEquals("3. Last", ((Label) getStepCaptions(wizard1)
+                .getComponent(2)).getValue());
+
+        // adding a step creates the rest of the steps of the definition
+        wizard1.addStep(mockStep(), "extra");
+        Assert.assertEquals(5, created.size());
+        Assert.assertEquals(4, wizard1.getSteps().size());
+        Assert.assertEquals(3, wizard2.getSteps().size());
+    }
+
+    @Test
+    public void serialize_namedDefinition_sharedDefinitionResolved()
+            throws Exception {
+        final List<WizardStep> created = new ArrayList<WizardStep>();
+        // the factory is not serializable, only the name is written
+        WizardStepFactory factory = new WizardStepFactory() {
+            public WizardStep createStep() {
+                WizardStep step = new SerializableStep();
+                created.add(step);
+                return step;
+            }
+        };
+        WizardDefinition definition = new WizardDefinition.Builder("shared")
+                .addStep("intro", "Intro", factory)
+                .addStep("setup", "Setup", factory)
+                .addStep("last", "Last", factory).build();
+        Wizard wizard = new Wizard(definition);
+        wizard.next();
+
+        Wizard copy = deserialize(serialize(wizard));
+        Assert.assertEquals(2, created.size());
+        Assert.assertTrue(copy.isActive(copy.getSteps().get(1)));
+
+        // the remaining step is created by the shared definition
+        copy.next();
+        Assert.assertEquals(3, created.size());
+        Assert.assertTrue(copy.isActive(created.get(2)));
+    }
+
+    @Test
+    public void stateStore_resume_savedStepActivatedWithoutAdvancing()
+            throws Exception {
+        File file = new File(temporaryFolder.getRoot(), "wizards.state");
+        FileWizardStateStore store = new FileWizardStateStore(file);
+        Wizard wizard = createSerializableWizard(5);
+        wizard.setStateStore(store, "user-wizard");
+        wizard.next();
+        wizard.next();
+        wizard.back();
+        store.close();
+
+        // a new session with a new store reading the same file
+        store = new FileWizardStateStore(file);
+        Wizard resumed = new Wizard();
+        WizardStep[] steps = new WizardStep[5];
+        for (int i = 0; i < steps.length; i++) {
+            steps[i] = mockStep();
+            resumed.addStep(steps[i], "step-" + i);
+        }
+        resumed.setStateStore(store, "user-wizard");
+        Assert.assertTrue(resumed.resume());
+
+        Assert.assertTrue(resumed.isActive(steps[1]));
+        Assert.assertEquals(steps[2], resumed.getModel().getLastCompletedStep());
+        for (WizardStep step : steps) {
+            Mockito.verify(step, Mockito.never()).onAdvance();
+        }
+
+        resumed.cancel();
+        store.compact();
+        Assert.assertFalse(new File(file.getPath() + ".compact").exists());
+        // appended to the compacted file
+        Wizard other = createSerializableWizard(5);
+        other.setStateStore(store, "other-wizard");
+        other.next();
+        store.close();
+        store = new FileWizardStateStore(file);
+        Assert.assertNull(store.load("user-wizard"));
+        Assert.assertNotNull(store.load("other-wizard"));
+        store.close();
+    }
+
+    @Test
+    public void eventJournal_segmentsRotated_replayedInOrder()
+            throws Exception {
+        File directory = new File(temporaryFolder.getRoot(), "journal");
+        // a header and three records per segment
+        MappedWizardEventJournal journal = new MappedWizardEventJournal(
+                directory, 4 * 128);
+        Wizard wizard = createSerializableWizard(5);
+        wizard.setAsyncListenerExecutor(new Executor() {
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        journal.record(wizard, "session-1");
+        wizard.next();
+        wizard.next();
+        wizard.next();
+        wizard.cancel();
+        journal.close();
+        try {
+            journal.flush();
+            Assert.fail("Flushing a closed journal must fail.");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        // a crash left the next segment without a header
+        String[] names = directory.list();
+        Arrays.sort(names);
+        String last = names[names.length - 1];
+        long sequence = Long.parseLong(last.substring(0, 16));
+        new File(directory, String.format("%016d", sequence + 1)
+                + last.substring(16)).createNewFile();
+
+        // appending continues in the started segment
+        journal = new MappedWizardEventJournal(directory, 4 * 128);
+        journal.append("session-2", new WizardEventSnapshot(
+                WizardEventSnapshot.Type.COMPLETED, "step-4", 4, 5, 42));
+        journal.close();
+
+        List<WizardEventRecord> records = new ArrayList<WizardEventRecord>();
+        WizardEventJournalReader reader = new WizardEventJournalReader(
+                directory);
+        WizardEventRecord record;
+        while ((record = reader.read()) != null) {
+            records.add(record);
+        }
+        reader.close();
+
+        Assert.assertEquals(3, directory.list().length);
+        Assert.assertEquals(5, records.size());
+        Assert.assertEquals("step-1", records.get(0).getStepId());
+        Assert.assertEquals("step-3", records.get(2).getStepId());
+        Assert.assertEquals(3, records.get(2).getStepIndex());
+        Assert.assertEquals(WizardEventSnapshot.Type.CANCELLED, records.get(3)
+                .getType());
+        Assert.assertEquals("session-1", records.get(3).getSessionId());
+        Assert.assertEquals("session-2", records.get(4).getSessionId());
+        Assert.assertEquals(42, records.get(4).getTimestamp());
+    }
+
+    @Test
+    public void eventJournal_recordedWizardSerialized_copyStillRecorded()
+            throws Exception {
+        File directory = new File(temporaryFolder.getRoot(), "journal");
+        MappedWizardEventJournal journal = new MappedWizardEventJournal(
+                directory);
+        Wizard wizard = createSerializableWizard(3);
+        journal.record(wizard, "session-1");
+
+        Wizard copy = deserialize(serialize(wizard));
+        copy.setAsyncListenerExecutor(new Executor() {
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        copy.next();
+        journal.close();
+
+        WizardEventJournalReader reader = new WizardEventJournalReader(
+                directory);
+        WizardEventRecord record = reader.read();
+        Assert.assertEquals("session-1", record.getSessionId());
+        Assert.assertEquals("step-1", record.getStepId());
+        Assert.assertNull(reader.read());
+        reader.close();
+    }
+
+    @Test
+    public void stateStore_tornLastRecord_truncatedBeforeAppending()
+            throws Exception {
+        File file = new File(temporaryFolder.getRoot(), "torn.state");
+        FileWizardStateStore store = new FileWizardStateStore(file);
+        store.save("first", new WizardSnapshot("step-1", "step-0", 1));
+        store.save("second", new WizardSnapshot("step-2", "step-1", 2));
+        store.close();
+
+        // a crash in the middle of writing the last record
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 5);
+        raf.close();
+
+        store = new FileWizardStateStore(file);
+        Assert.assertNotNull(store.load("first"));
+        Assert.assertNull(store.load("second"));
+        store.save("third", new WizardSnapshot("step-3", "step-2", 3));
+        store.close();
+
+        store = new FileWizardStateStore(file);
+        Assert.assertNotNull(store.load("first"));
+        Assert.assertEquals("step-3", store.load("third").getCurrentStepId());
+        store.close();
+        try {
+            store.flush();
+            Assert.fail("flush after close must fail");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void restoreSnapshot_currentStepFurther_lastCompletedRestored() {
+        Wizard wizard = createSerializableWizard(5);
+        wizard.next();
+        wizard.next();
+        wizard.next();
+
+        Assert.assertTrue(wizard.restoreSnapshot(new WizardSnapshot("step-1",
+                "step-0", 0)));
+        Assert.assertTrue(wizard.isActive(wizard.getSteps().get(1)));
+        Assert.assertEquals(wizard.getSteps().get(0), wizard.getModel()
+                .getLastCompletedStep());
+    }
+
+    @Test
+    public void restoreSnapshot_unknownStep_notRestored() {
+        Wizard wizard = createSerializableWizard(3);
+        Assert.assertFalse(wizard.restoreSnapshot(new WizardSnapshot(
+                "missing", null, 0)));
+        Assert.assertTrue(wizard.isActive(wizard.getSteps().get(0)));
+    }
+
+    /**
+     * Guards against per-step state sneaking into the serialized form. The
+     * times are measured by the SerializationBenchmark of the benchmarks
+     * module.
+     */
+    @Test
+    public void serialize_growingStepCount_sizePerStepBounded()
+            throws Exception {
+        int[] sizes = new int[2];
+        int[] stepCounts = { 100, 1000 };
+        for (int i = 0; i < stepCounts.length; i++) {
+            Wizard wizard = createSerializableWizard(stepCounts[i]);
+            for (int j = 0; j < stepCounts[i] / 2; j++) {
+                wizard.next();
+            }
+            byte[] bytes = serialize(wizard);
+            Assert.assertEquals(stepCounts[i],
+                    ((Wizard) deserialize(bytes)).getSteps().size());
+            sizes[i] = bytes.length;
+        }
+
+        // about 290 bytes per step at the time of writing
+        int bytesPerStep = (sizes[1] - sizes[0])
+                / (stepCounts[1] - stepCounts[0]);
+        Assert.assertTrue(bytesPerStep + " bytes per step",
+                bytesPerStep < 400);
+    }
+
+    private Wizard createSerializableWizard(int stepCount) {
+        Wizard wizard = new Wizard();
+        wizard.beginUpdate();
+        for (int i = 0; i < stepCount; i++) {
+            wizard.addStep(new SerializableStep(), "step-" + i);
+        }
+        wizard.endUpdate();
+        return wizard;
+    }
+
+    private byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(object);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T deserialize(byte[] bytes) throws IOException,
+            ClassNotFoundException {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(
+                bytes));
+        return (T) in.readObject();
+    }
+
+    @SuppressWarnings("serial")
+    private static class SerializableStep implements WizardStep, Serializable {
+
+        public String getCaption() {
+            return "Step";
+        }
+
+        public Component getContent() {
+            return new Label("Content");
+        }
+
+        public boolean onAdvance() {
+            return true;
+        }
+
+        public boolean onBack() {
+            return true;
+        }
+    }
+
+    private WizardStep mockStep() {
+        WizardStep step = Mockito.mock(WizardStep.class);
+        Mockito.when(step.onAdvance()).thenReturn(true);
+        Mockito.when(step.onBack()).thenReturn(true);
+        Mockito.when(step.getContent()).thenReturn(new Label());
+        return step;
+    }
+
+    private HorizontalLayout getStepCaptions(Wizard wizard) {
+        WizardProgressBar progressBar = (WizardProgressBar) wizard.getHeader();
+        VerticalLayout layout = (VerticalLayout) progressBar.iterator().next();
+        return (HorizontalLayout) layout.getComponent(0);
+    }
+
 }